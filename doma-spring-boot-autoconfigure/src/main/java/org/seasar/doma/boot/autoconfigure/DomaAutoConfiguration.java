@@ -15,15 +15,44 @@
  */
 package org.seasar.doma.boot.autoconfigure;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+
 import javax.sql.DataSource;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.seasar.doma.boot.DialectSQLExceptionTranslator;
+import org.seasar.doma.boot.DomaCountCache;
+import org.seasar.doma.boot.DomaCountCacheMetrics;
+import org.seasar.doma.boot.DomaExceptionMapping;
+import org.seasar.doma.boot.DomaExceptionTranslationMetrics;
 import org.seasar.doma.boot.DomaPersistenceExceptionTranslator;
+import org.seasar.doma.boot.KeysetCursorCodec;
 import org.seasar.doma.boot.TryLookupEntityListenerProvider;
+import org.seasar.doma.boot.audit.AuditJournal;
+import org.seasar.doma.boot.audit.AuditRecorder;
+import org.seasar.doma.boot.audit.AuditSerializer;
 import org.seasar.doma.boot.autoconfigure.DomaProperties.DialectType;
+import org.seasar.doma.boot.event.DomaBatchEventPostProcessor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutorMetrics;
+import org.seasar.doma.boot.event.DomaEventDispatcher;
+import org.seasar.doma.boot.event.DomaEventHandlerMetrics;
 import org.seasar.doma.boot.event.DomaEventEntityListener;
 import org.seasar.doma.boot.event.DomaEventListenerFactory;
+import org.seasar.doma.boot.outbox.OutboxDrainer;
+import org.seasar.doma.boot.outbox.OutboxEntityListener;
+import org.seasar.doma.boot.outbox.OutboxRecorder;
+import org.seasar.doma.boot.outbox.OutboxSerializer;
+import org.seasar.doma.boot.outbox.OutboxSink;
+import org.seasar.doma.boot.retry.DomaRetryBudget;
+import org.seasar.doma.boot.retry.DomaRetryMetrics;
+import org.seasar.doma.boot.retry.DomaRetryPostProcessor;
 import org.seasar.doma.jdbc.Config;
 import org.seasar.doma.jdbc.EntityListenerProvider;
 import org.seasar.doma.jdbc.JdbcLogger;
@@ -41,19 +70,26 @@ import org.seasar.doma.jdbc.dialect.OracleDialect;
 import org.seasar.doma.jdbc.dialect.PostgresDialect;
 import org.seasar.doma.jdbc.dialect.SqliteDialect;
 import org.seasar.doma.jdbc.dialect.StandardDialect;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.jdbc.DatabaseDriver;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.transaction.PlatformTransactionManager;
 
 /**
  * {@link org.springframework.boot.autoconfigure.EnableAutoConfiguration
@@ -65,7 +101,9 @@ import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 @Configuration
 @ConditionalOnClass(Config.class)
 @EnableConfigurationProperties(DomaProperties.class)
-@AutoConfigureAfter(DataSourceAutoConfiguration.class)
+@AutoConfigureAfter(value = { DataSourceAutoConfiguration.class,
+		DataSourceTransactionManagerAutoConfiguration.class },
+		name = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
 public class DomaAutoConfiguration {
 
 	private static final Log logger = LogFactory.getLog(DomaAutoConfiguration.class);
@@ -114,9 +152,20 @@ public class DomaAutoConfiguration {
 
 	@Bean
 	@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "exception-translation-enabled", matchIfMissing = true)
-	public PersistenceExceptionTranslator exceptionTranslator(Config config) {
-		return new DomaPersistenceExceptionTranslator(
-				new SQLErrorCodeSQLExceptionTranslator(config.getDataSource()));
+	public PersistenceExceptionTranslator exceptionTranslator(Config config,
+			ObjectProvider<DomaExceptionMapping<?>> exceptionMappings,
+			ObjectProvider<DomaExceptionTranslationMetrics> metrics) {
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new DialectSQLExceptionTranslator(config.getDialect(),
+						() -> new SQLErrorCodeSQLExceptionTranslator(
+								config.getDataSource())),
+				exceptionMappings.orderedStream().collect(Collectors.toList()));
+		translator.setLazyMessage(domaProperties.isExceptionTranslationLazyMessage());
+		translator.setStacklessCategories(
+				domaProperties.getExceptionTranslationStacklessCategories());
+		translator.setMetrics(
+				metrics.getIfAvailable(() -> DomaExceptionTranslationMetrics.NOOP));
+		return translator;
 	}
 
 	@Bean
@@ -143,8 +192,64 @@ public class DomaAutoConfiguration {
 	}
 
 	@Bean
-	public DomaEventEntityListener domaEventEntityListener() {
-		return new DomaEventEntityListener();
+	@ConditionalOnMissingBean
+	@Conditional(BatchEventsCondition.class)
+	public static DomaBatchEventPostProcessor domaBatchEventPostProcessor() {
+		return new DomaBatchEventPostProcessor();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public static DomaRetryPostProcessor domaRetryPostProcessor() {
+		return new DomaRetryPostProcessor();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public DomaRetryBudget domaRetryBudget() {
+		DomaProperties.Retry retry = domaProperties.getRetry();
+		return new DomaRetryBudget(retry.getBudgetRatio(), retry.getBudgetCapacity());
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "keyset.cursor-secret")
+	public KeysetCursorCodec keysetCursorCodec() {
+		return new KeysetCursorCodec(domaProperties.getKeyset().getCursorSecret()
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public DomaEventDispatcher domaEventDispatcher() {
+		DomaProperties.Event event = domaProperties.getEvent();
+		DomaEventDispatcher dispatcher = new DomaEventDispatcher(event.getDeliveryMode());
+		if (event.getParallelism() > 0) {
+			dispatcher.setParallelism(event.getParallelism());
+		}
+		return dispatcher;
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnMissingBean
+	public DomaEventAsyncExecutor domaEventAsyncExecutor(
+			ObjectProvider<DomaEventAsyncExecutorMetrics> metrics) {
+		DomaEventAsyncExecutor executor = domaProperties.getEvent().getAsync().create();
+		metrics.ifAvailable(m -> m.bind(executor));
+		return executor;
+	}
+
+	@Bean
+	public DomaEventEntityListener domaEventEntityListener(
+			DomaEventDispatcher domaEventDispatcher,
+			ObjectProvider<OutboxRecorder> outboxRecorder) {
+		OutboxRecorder recorder = outboxRecorder.getIfAvailable();
+		DomaEventEntityListener domaEventEntityListener = recorder != null
+				? new OutboxEntityListener(recorder)
+				: new DomaEventEntityListener();
+		domaEventEntityListener.setDomaEventDispatcher(domaEventDispatcher);
+		return domaEventEntityListener;
 	}
 
 	@Bean
@@ -165,7 +270,8 @@ public class DomaAutoConfiguration {
 	public DomaConfig config(DataSource dataSource, Dialect dialect,
 			SqlFileRepository sqlFileRepository, Naming naming, JdbcLogger jdbcLogger,
 			EntityListenerProvider entityListenerProvider,
-			DomaConfigBuilder domaConfigBuilder) {
+			DomaConfigBuilder domaConfigBuilder,
+			ObjectProvider<DomaCountCache> countCache) {
 		if (domaConfigBuilder.dataSource() == null) {
 			domaConfigBuilder.dataSource(dataSource);
 		}
@@ -181,6 +287,8 @@ public class DomaAutoConfiguration {
 		if (domaConfigBuilder.jdbcLogger() == null) {
 			domaConfigBuilder.jdbcLogger(jdbcLogger);
 		}
+		countCache.ifAvailable(cache -> domaConfigBuilder
+				.jdbcLogger(cache.jdbcLogger(domaConfigBuilder.jdbcLogger())));
 		if (domaConfigBuilder.entityListenerProvider() == null) {
 			domaConfigBuilder.entityListenerProvider(entityListenerProvider);
 		}
@@ -190,6 +298,138 @@ public class DomaAutoConfiguration {
 		return domaConfigBuilder.build();
 	}
 
+	/**
+	 * Batch events are published when enabled, or when a feature consuming them is.
+	 */
+	static class BatchEventsCondition extends AnyNestedCondition {
+
+		BatchEventsCondition() {
+			super(ConfigurationPhase.REGISTER_BEAN);
+		}
+
+		@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "event.batch-enabled",
+				havingValue = "true")
+		static class BatchEnabled {
+		}
+
+		@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "count-cache.enabled",
+				havingValue = "true")
+		static class CountCacheEnabled {
+		}
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "outbox.enabled",
+			havingValue = "true")
+	@ConditionalOnBean(OutboxSerializer.class)
+	public static class OutboxConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public OutboxRecorder outboxRecorder(Config config, OutboxSerializer serializer,
+				DomaProperties domaProperties) {
+			return new OutboxRecorder(config.getDataSource(), serializer,
+					domaProperties.getOutbox().getTableName());
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		@ConditionalOnBean({ OutboxSink.class, PlatformTransactionManager.class })
+		public OutboxDrainer outboxDrainer(Config config,
+				PlatformTransactionManager transactionManager, OutboxSink sink,
+				DomaProperties domaProperties) {
+			DomaProperties.Outbox outbox = domaProperties.getOutbox();
+			OutboxDrainer drainer = new OutboxDrainer(config.getDataSource(),
+					config.getDialect(), transactionManager, sink, outbox.getTableName());
+			drainer.setBatchSize(outbox.getBatchSize());
+			drainer.setPollInterval(outbox.getPollInterval());
+			return drainer;
+		}
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "count-cache.enabled",
+			havingValue = "true")
+	public static class CountCacheConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaCountCache domaCountCache(DomaProperties domaProperties,
+				ObjectProvider<DomaCountCacheMetrics> metrics) {
+			DomaProperties.CountCache countCache = domaProperties.getCountCache();
+			DomaCountCache cache = new DomaCountCache(countCache.getTtl(),
+					countCache.getMaxSize());
+			metrics.ifAvailable(cache::setMetrics);
+			return cache;
+		}
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = DomaProperties.DOMA_PREFIX, name = "audit.enabled",
+			havingValue = "true")
+	@ConditionalOnBean(AuditSerializer.class)
+	public static class AuditConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public AuditJournal auditJournal(DomaProperties domaProperties)
+				throws IOException {
+			DomaProperties.Audit audit = domaProperties.getAudit();
+			AuditJournal journal = new AuditJournal(Paths.get(audit.getDirectory()),
+					Math.toIntExact(audit.getSegmentSize().toBytes()),
+					audit.getFsyncPolicy());
+			journal.setFsyncInterval(audit.getFsyncInterval());
+			return journal;
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		public AuditRecorder auditRecorder(AuditJournal journal,
+				AuditSerializer serializer) {
+			return new AuditRecorder(journal, serializer);
+		}
+	}
+
+	@Configuration
+	@ConditionalOnClass(MeterRegistry.class)
+	@ConditionalOnBean(MeterRegistry.class)
+	public static class MetricsConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaEventHandlerMetrics domaEventHandlerMetrics(MeterRegistry registry) {
+			return new MicrometerDomaEventHandlerMetrics(registry);
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaExceptionTranslationMetrics domaExceptionTranslationMetrics(
+				MeterRegistry registry, DomaProperties domaProperties) {
+			return new MicrometerDomaExceptionTranslationMetrics(registry,
+					domaProperties.getExceptionTranslationMetricsMaxSeries());
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaRetryMetrics domaRetryMetrics(MeterRegistry registry,
+				DomaRetryBudget budget) {
+			return new MicrometerDomaRetryMetrics(registry, budget);
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaCountCacheMetrics domaCountCacheMetrics(MeterRegistry registry) {
+			return new MicrometerDomaCountCacheMetrics(registry);
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		public DomaEventAsyncExecutorMetrics domaEventAsyncExecutorMetrics(
+				MeterRegistry registry) {
+			return new MicrometerDomaEventAsyncExecutorMetrics(registry);
+		}
+	}
+
 	@Configuration
 	@ConditionalOnClass({ Entityql.class, NativeSql.class })
 	public static class CriteriaConfiguration {
@@ -17,11 +17,20 @@ package org.seasar.doma.boot.autoconfigure;
 
 import static org.seasar.doma.boot.autoconfigure.DomaProperties.DOMA_PREFIX;
 
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.function.Supplier;
 
+import org.seasar.doma.boot.DomaPersistenceExceptionTranslator.Category;
+import org.seasar.doma.boot.audit.AuditJournal.FsyncPolicy;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor.SaturationPolicy;
+import org.seasar.doma.boot.event.DomaEventDispatcher.DeliveryMode;
 import org.seasar.doma.jdbc.*;
 import org.seasar.doma.jdbc.dialect.*;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 /**
  * {@link ConfigurationProperties} for configuring Doma.
@@ -53,6 +62,24 @@ public class DomaProperties {
 	 */
 	private boolean exceptionTranslationEnabled = true;
 
+	/**
+	 * Whether the translated exceptions derive their messages from the Doma exceptions
+	 * only when the messages are requested.
+	 */
+	private boolean exceptionTranslationLazyMessage = false;
+
+	/**
+	 * Categories of the translated exceptions created without stack traces.
+	 */
+	private Set<Category> exceptionTranslationStacklessCategories = EnumSet
+			.noneOf(Category.class);
+
+	/**
+	 * Maximum number of translated exception counters tagged with vendor error codes
+	 * and SQL files. Further combinations are counted with these tags set to 'other'.
+	 */
+	private int exceptionTranslationMetricsMaxSeries = 200;
+
 	/**
 	 * Datasource name.
 	 */
@@ -88,6 +115,38 @@ public class DomaProperties {
 	 */
 	private int batchSize = 0;
 
+	/**
+	 * Doma event settings.
+	 */
+	private final Event event = new Event();
+
+	/**
+	 * Transactional outbox settings.
+	 */
+	private final Outbox outbox = new Outbox();
+
+	/**
+	 * Audit journal settings.
+	 */
+	private final Audit audit = new Audit();
+
+	/**
+	 * Settings of the methods annotated with
+	 * {@link org.seasar.doma.boot.retry.DomaRetryable}.
+	 */
+	private final Retry retry = new Retry();
+
+	/**
+	 * Keyset pagination settings.
+	 */
+	private final Keyset keyset = new Keyset();
+
+	/**
+	 * Settings of the total counts cached for
+	 * {@link org.seasar.doma.boot.Pageables}.
+	 */
+	private final CountCache countCache = new CountCache();
+
 	public DialectType getDialect() {
 		return dialect;
 	}
@@ -120,6 +179,33 @@ public class DomaProperties {
 		this.exceptionTranslationEnabled = exceptionTranslationEnabled;
 	}
 
+	public boolean isExceptionTranslationLazyMessage() {
+		return exceptionTranslationLazyMessage;
+	}
+
+	public void setExceptionTranslationLazyMessage(
+			boolean exceptionTranslationLazyMessage) {
+		this.exceptionTranslationLazyMessage = exceptionTranslationLazyMessage;
+	}
+
+	public Set<Category> getExceptionTranslationStacklessCategories() {
+		return exceptionTranslationStacklessCategories;
+	}
+
+	public void setExceptionTranslationStacklessCategories(
+			Set<Category> exceptionTranslationStacklessCategories) {
+		this.exceptionTranslationStacklessCategories = exceptionTranslationStacklessCategories;
+	}
+
+	public int getExceptionTranslationMetricsMaxSeries() {
+		return exceptionTranslationMetricsMaxSeries;
+	}
+
+	public void setExceptionTranslationMetricsMaxSeries(
+			int exceptionTranslationMetricsMaxSeries) {
+		this.exceptionTranslationMetricsMaxSeries = exceptionTranslationMetricsMaxSeries;
+	}
+
 	public String getDataSourceName() {
 		return dataSourceName;
 	}
@@ -176,6 +262,30 @@ public class DomaProperties {
 		this.batchSize = batchSize;
 	}
 
+	public Event getEvent() {
+		return event;
+	}
+
+	public Outbox getOutbox() {
+		return outbox;
+	}
+
+	public Audit getAudit() {
+		return audit;
+	}
+
+	public Retry getRetry() {
+		return retry;
+	}
+
+	public Keyset getKeyset() {
+		return keyset;
+	}
+
+	public CountCache getCountCache() {
+		return countCache;
+	}
+
 	public DomaConfigBuilder initializeDomaConfigBuilder() {
 		return new DomaConfigBuilder(this).dialect(dialect.create())
 				.sqlFileRepository(sqlFileRepository.create()).naming(naming.naming());
@@ -255,15 +365,381 @@ public class DomaProperties {
 		}
 	}
 
+	public static class Event {
+
+		/**
+		 * How Doma events are delivered to handlers. With DISPATCH, handlers run before
+		 * other listeners of the events regardless of their order.
+		 */
+		private DeliveryMode deliveryMode = DeliveryMode.DISPATCH;
+
+		/**
+		 * Parallelism of the pool that runs parallel event handlers. The common
+		 * fork-join pool is used unless this value is greater than 0.
+		 */
+		private int parallelism = 0;
+
+		/**
+		 * Whether to dispatch batch events around batch Dao methods. They are also
+		 * dispatched when the count cache is enabled.
+		 */
+		private boolean batchEnabled = false;
+
+		/**
+		 * Settings of the handlers run asynchronously after commit.
+		 */
+		private final Async async = new Async();
+
+		public DeliveryMode getDeliveryMode() {
+			return deliveryMode;
+		}
+
+		public void setDeliveryMode(DeliveryMode deliveryMode) {
+			this.deliveryMode = deliveryMode;
+		}
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		public void setParallelism(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		public boolean isBatchEnabled() {
+			return batchEnabled;
+		}
+
+		public void setBatchEnabled(boolean batchEnabled) {
+			this.batchEnabled = batchEnabled;
+		}
+
+		public Async getAsync() {
+			return async;
+		}
+
+		@Override
+		public String toString() {
+			return "Event{" + "deliveryMode=" + deliveryMode + ", parallelism="
+					+ parallelism + ", batchEnabled=" + batchEnabled + ", async=" + async
+					+ '}';
+		}
+	}
+
+	public static class Async {
+
+		/**
+		 * Maximum number of threads running asynchronous event handlers.
+		 */
+		private int poolSize = 2;
+
+		/**
+		 * Maximum number of asynchronous event handlers waiting for a thread.
+		 */
+		private int queueCapacity = 1024;
+
+		/**
+		 * What to do with asynchronous event handlers when the queue is full.
+		 */
+		private SaturationPolicy saturationPolicy = SaturationPolicy.CALLER_RUNS;
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public void setPoolSize(int poolSize) {
+			this.poolSize = poolSize;
+		}
+
+		public int getQueueCapacity() {
+			return queueCapacity;
+		}
+
+		public void setQueueCapacity(int queueCapacity) {
+			this.queueCapacity = queueCapacity;
+		}
+
+		public SaturationPolicy getSaturationPolicy() {
+			return saturationPolicy;
+		}
+
+		public void setSaturationPolicy(SaturationPolicy saturationPolicy) {
+			this.saturationPolicy = saturationPolicy;
+		}
+
+		public DomaEventAsyncExecutor create() {
+			return new DomaEventAsyncExecutor(poolSize, queueCapacity, saturationPolicy);
+		}
+
+		@Override
+		public String toString() {
+			return "Async{" + "poolSize=" + poolSize + ", queueCapacity="
+					+ queueCapacity + ", saturationPolicy=" + saturationPolicy + '}';
+		}
+	}
+
+	public static class Outbox {
+
+		/**
+		 * Whether to write the post-events of entities annotated with
+		 * {@link org.seasar.doma.boot.outbox.Outbox} to the outbox table.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Name of the outbox table.
+		 */
+		private String tableName = "DOMA_OUTBOX";
+
+		/**
+		 * Maximum number of messages drained from the outbox table in a transaction.
+		 */
+		private int batchSize = 100;
+
+		/**
+		 * Interval between polls of the outbox table.
+		 */
+		private Duration pollInterval = Duration.ofSeconds(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getTableName() {
+			return tableName;
+		}
+
+		public void setTableName(String tableName) {
+			this.tableName = tableName;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public void setBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+		}
+
+		public Duration getPollInterval() {
+			return pollInterval;
+		}
+
+		public void setPollInterval(Duration pollInterval) {
+			this.pollInterval = pollInterval;
+		}
+
+		@Override
+		public String toString() {
+			return "Outbox{" + "enabled=" + enabled + ", tableName='" + tableName
+					+ '\'' + ", batchSize=" + batchSize + ", pollInterval="
+					+ pollInterval + '}';
+		}
+	}
+
+	public static class Audit {
+
+		/**
+		 * Whether to append the post-events of entities annotated with
+		 * {@link org.seasar.doma.boot.audit.Audited} to the audit journal.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Directory of the segment files of the audit journal.
+		 */
+		private String directory = "doma-audit";
+
+		/**
+		 * Size of a segment file of the audit journal.
+		 */
+		private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+		/**
+		 * When appended records are forced to the storage.
+		 */
+		private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+
+		/**
+		 * Minimum interval between forces when fsync-policy is INTERVAL.
+		 */
+		private Duration fsyncInterval = Duration.ofSeconds(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getDirectory() {
+			return directory;
+		}
+
+		public void setDirectory(String directory) {
+			this.directory = directory;
+		}
+
+		public DataSize getSegmentSize() {
+			return segmentSize;
+		}
+
+		public void setSegmentSize(DataSize segmentSize) {
+			this.segmentSize = segmentSize;
+		}
+
+		public FsyncPolicy getFsyncPolicy() {
+			return fsyncPolicy;
+		}
+
+		public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+			this.fsyncPolicy = fsyncPolicy;
+		}
+
+		public Duration getFsyncInterval() {
+			return fsyncInterval;
+		}
+
+		public void setFsyncInterval(Duration fsyncInterval) {
+			this.fsyncInterval = fsyncInterval;
+		}
+
+		@Override
+		public String toString() {
+			return "Audit{" + "enabled=" + enabled + ", directory='" + directory + '\''
+					+ ", segmentSize=" + segmentSize + ", fsyncPolicy=" + fsyncPolicy
+					+ ", fsyncInterval=" + fsyncInterval + '}';
+		}
+	}
+
+	public static class Retry {
+
+		/**
+		 * Retries allowed per call of a retryable method, which limits the retries
+		 * during an outage.
+		 */
+		private double budgetRatio = 0.1;
+
+		/**
+		 * Maximum number of retries allowed in a burst.
+		 */
+		private int budgetCapacity = 100;
+
+		public double getBudgetRatio() {
+			return budgetRatio;
+		}
+
+		public void setBudgetRatio(double budgetRatio) {
+			this.budgetRatio = budgetRatio;
+		}
+
+		public int getBudgetCapacity() {
+			return budgetCapacity;
+		}
+
+		public void setBudgetCapacity(int budgetCapacity) {
+			this.budgetCapacity = budgetCapacity;
+		}
+
+		@Override
+		public String toString() {
+			return "Retry{" + "budgetRatio=" + budgetRatio + ", budgetCapacity="
+					+ budgetCapacity + '}';
+		}
+	}
+
+	public static class Keyset {
+
+		/**
+		 * Secret key to sign the cursor tokens of keyset pagination, at least 16 bytes
+		 * in UTF-8. Enables the {@link org.seasar.doma.boot.KeysetCursorCodec} bean.
+		 */
+		private String cursorSecret;
+
+		public String getCursorSecret() {
+			return cursorSecret;
+		}
+
+		public void setCursorSecret(String cursorSecret) {
+			this.cursorSecret = cursorSecret;
+		}
+
+		@Override
+		public String toString() {
+			return "Keyset{" + "cursorSecret=" + (cursorSecret != null ? "******" : null)
+					+ '}';
+		}
+	}
+
+	public static class CountCache {
+
+		/**
+		 * Whether to cache the total counts of paginated selects.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Time to live of the cached counts.
+		 */
+		private Duration ttl = Duration.ofSeconds(30);
+
+		/**
+		 * Maximum number of the cached counts.
+		 */
+		private int maxSize = 1000;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getTtl() {
+			return ttl;
+		}
+
+		public void setTtl(Duration ttl) {
+			this.ttl = ttl;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public String toString() {
+			return "CountCache{" + "enabled=" + enabled + ", ttl=" + ttl + ", maxSize="
+					+ maxSize + '}';
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "DomaProperties{" + "dialect=" + dialect + ", sqlFileRepository="
 				+ sqlFileRepository + ", naming=" + naming
 				+ ", exceptionTranslationEnabled=" + exceptionTranslationEnabled
+				+ ", exceptionTranslationLazyMessage=" + exceptionTranslationLazyMessage
+				+ ", exceptionTranslationStacklessCategories="
+				+ exceptionTranslationStacklessCategories
+				+ ", exceptionTranslationMetricsMaxSeries="
+				+ exceptionTranslationMetricsMaxSeries
 				+ ", dataSourceName='" + dataSourceName + '\'' + ", exceptionSqlLogType="
 				+ exceptionSqlLogType + ", jdbcLogger="
 				+ jdbcLogger + ", maxRows=" + maxRows + ", fetchSize="
 				+ fetchSize + ", queryTimeout=" + queryTimeout + ", batchSize="
-				+ batchSize + '}';
+				+ batchSize + ", event=" + event + ", outbox=" + outbox + ", audit="
+				+ audit + ", retry=" + retry + ", keyset=" + keyset + ", countCache="
+				+ countCache + '}';
 	}
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.autoconfigure;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.seasar.doma.boot.DomaCountCache;
+import org.seasar.doma.boot.DomaCountCacheMetrics;
+
+/**
+ * {@link DomaCountCacheMetrics} that counts the lookups of {@link DomaCountCache} with
+ * Micrometer. <br>
+ * <br>
+ * The {@code doma.count.cache.gets} counter is tagged with {@code entity} and
+ * {@code result}, which is {@code hit} or {@code miss}.
+ */
+public class MicrometerDomaCountCacheMetrics implements DomaCountCacheMetrics {
+
+	private final MeterRegistry registry;
+	private final ConcurrentMap<Class<?>, Counter> hits = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Class<?>, Counter> misses = new ConcurrentHashMap<>();
+
+	public MicrometerDomaCountCacheMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void hit(Class<?> entityClass) {
+		hits.computeIfAbsent(entityClass, c -> register(c, "hit")).increment();
+	}
+
+	@Override
+	public void miss(Class<?> entityClass) {
+		misses.computeIfAbsent(entityClass, c -> register(c, "miss")).increment();
+	}
+
+	private Counter register(Class<?> entityClass, String result) {
+		return Counter.builder("doma.count.cache.gets")
+				.tag("entity", entityClass.getName()).tag("result", result)
+				.description("Lookups of the total counts of paginated selects")
+				.register(registry);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.autoconfigure;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutorMetrics;
+
+/**
+ * {@link DomaEventAsyncExecutorMetrics} that registers the state of
+ * {@link DomaEventAsyncExecutor} to Micrometer. <br>
+ * <br>
+ * The {@code doma.event.async.queue.size} and {@code doma.event.async.active} gauges
+ * show the handlers waiting for a thread and the threads running handlers, the
+ * {@code doma.event.async.completed} and {@code doma.event.async.dropped} counters
+ * the handlers that have been run and dropped, and the {@code doma.event.async.lag}
+ * and {@code doma.event.async.lag.max} gauges the time between commit and the start
+ * of a handler.
+ */
+public class MicrometerDomaEventAsyncExecutorMetrics
+		implements DomaEventAsyncExecutorMetrics {
+
+	private final MeterRegistry registry;
+
+	public MicrometerDomaEventAsyncExecutorMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void bind(DomaEventAsyncExecutor executor) {
+		Gauge.builder("doma.event.async.queue.size", executor,
+				DomaEventAsyncExecutor::getQueueSize)
+				.description("Asynchronous handlers waiting for a thread")
+				.register(registry);
+		Gauge.builder("doma.event.async.active", executor,
+				DomaEventAsyncExecutor::getActiveCount)
+				.description("Threads running asynchronous handlers").register(registry);
+		FunctionCounter.builder("doma.event.async.completed", executor,
+				DomaEventAsyncExecutor::getCompletedCount)
+				.description("Asynchronous handlers that have been run")
+				.register(registry);
+		FunctionCounter.builder("doma.event.async.dropped", executor,
+				DomaEventAsyncExecutor::getDroppedCount)
+				.description("Asynchronous handlers dropped because the queue was full")
+				.register(registry);
+		TimeGauge.builder("doma.event.async.lag", executor, TimeUnit.NANOSECONDS,
+				e -> e.getLastLag().toNanos())
+				.description("Lag of the asynchronous handler started most recently")
+				.register(registry);
+		TimeGauge.builder("doma.event.async.lag.max", executor, TimeUnit.NANOSECONDS,
+				e -> e.getMaxLag().toNanos())
+				.description("Maximum lag of the asynchronous handlers")
+				.register(registry);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.autoconfigure;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import org.seasar.doma.boot.event.DomaEventHandlerMetrics;
+
+/**
+ * {@link DomaEventHandlerMetrics} that records the handler methods to Micrometer. <br>
+ * <br>
+ * Each handler method and phase has a {@code doma.event.handler} timer, which counts
+ * invocations and publishes a latency histogram, and a
+ * {@code doma.event.handler.errors} counter of the exceptions thrown. Both are tagged
+ * with {@code bean}, {@code method}, {@code entity} and {@code phase}.
+ */
+public class MicrometerDomaEventHandlerMetrics implements DomaEventHandlerMetrics {
+
+	private final MeterRegistry registry;
+
+	public MicrometerDomaEventHandlerMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public Recorder recorder(String beanName, Method method, Class<?> entityClass,
+			String phase) {
+		Tags tags = Tags.of("bean", beanName, "method", method.getName(), "entity",
+				entityClass.getName(), "phase", phase);
+		Timer timer = Timer.builder("doma.event.handler").tags(tags)
+				.description("Invocations of Doma event handler methods")
+				.publishPercentileHistogram().register(registry);
+		Counter errors = Counter.builder("doma.event.handler.errors").tags(tags)
+				.description("Exceptions thrown by Doma event handler methods")
+				.register(registry);
+		return (durationNanos, failure) -> {
+			timer.record(durationNanos, TimeUnit.NANOSECONDS);
+			if (failure != null) {
+				errors.increment();
+			}
+		};
+	}
+}
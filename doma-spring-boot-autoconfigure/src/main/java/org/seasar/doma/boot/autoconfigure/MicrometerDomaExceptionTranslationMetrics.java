@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.autoconfigure;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.seasar.doma.boot.DomaExceptionTranslationMetrics;
+import org.seasar.doma.jdbc.JdbcException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * {@link DomaExceptionTranslationMetrics} that counts the translated exceptions with
+ * Micrometer. <br>
+ * <br>
+ * The {@code doma.exception.translations} counter is tagged with {@code exception},
+ * {@code category}, {@code error.code} and {@code sql.file}. Error codes and SQL files
+ * are unbounded, so at most {@code maxSeries} counters are tagged with them. Once the
+ * limit is reached, new combinations are counted with {@code error.code} and
+ * {@code sql.file} set to {@code other}, which keeps the number of series bounded by
+ * the number of exception types during a failure storm.
+ */
+public class MicrometerDomaExceptionTranslationMetrics
+		implements DomaExceptionTranslationMetrics {
+
+	static final String NONE = "none";
+	static final String OTHER = "other";
+
+	private final MeterRegistry registry;
+	private final int maxSeries;
+	private final ConcurrentMap<List<Object>, Counter> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<List<Object>, Counter> overflowCounters = new ConcurrentHashMap<>();
+
+	/**
+	 * @param registry registry of the counters
+	 * @param maxSeries maximum number of counters tagged with error codes and SQL files
+	 */
+	public MicrometerDomaExceptionTranslationMetrics(MeterRegistry registry,
+			int maxSeries) {
+		this.registry = registry;
+		this.maxSeries = maxSeries;
+	}
+
+	@Override
+	public void record(Class<? extends JdbcException> exceptionType,
+			Class<? extends DataAccessException> translatedType, Integer errorCode,
+			String sqlFilePath) {
+		List<Object> key = Arrays.asList(exceptionType, translatedType, errorCode,
+				sqlFilePath);
+		Counter counter = counters.get(key);
+		if (counter == null) {
+			if (counters.size() < maxSeries) {
+				// May exceed the limit by the number of racing threads
+				counter = counters.computeIfAbsent(key,
+						k -> register(exceptionType, translatedType,
+								errorCode != null ? errorCode.toString() : NONE,
+								sqlFilePath != null ? sqlFilePath : NONE));
+			} else {
+				counter = overflowCounters.computeIfAbsent(
+						Arrays.asList(exceptionType, translatedType),
+						k -> register(exceptionType, translatedType, OTHER, OTHER));
+			}
+		}
+		counter.increment();
+	}
+
+	private Counter register(Class<?> exceptionType, Class<?> translatedType,
+			String errorCode, String sqlFilePath) {
+		return Counter.builder("doma.exception.translations")
+				.tag("exception", exceptionType.getName())
+				.tag("category", translatedType.getSimpleName())
+				.tag("error.code", errorCode).tag("sql.file", sqlFilePath)
+				.description("Doma exceptions translated into DataAccessExceptions")
+				.register(registry);
+	}
+}
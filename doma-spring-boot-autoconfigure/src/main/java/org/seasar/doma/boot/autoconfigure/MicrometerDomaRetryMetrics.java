@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.autoconfigure;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import org.seasar.doma.boot.retry.DomaRetryBudget;
+import org.seasar.doma.boot.retry.DomaRetryMetrics;
+
+/**
+ * {@link DomaRetryMetrics} that records the retryable methods to Micrometer. <br>
+ * <br>
+ * Each retryable method has a {@code doma.retry.attempts} counter of the first attempts
+ * and a {@code doma.retry.retries} counter of the retries, both tagged with
+ * {@code class} and {@code method}, and a {@code doma.retry.give-ups} counter per
+ * {@code reason}. The {@code doma.retry.budget} gauge shows the retries left in the
+ * {@link DomaRetryBudget}.
+ */
+public class MicrometerDomaRetryMetrics implements DomaRetryMetrics {
+
+	private final MeterRegistry registry;
+
+	public MicrometerDomaRetryMetrics(MeterRegistry registry, DomaRetryBudget budget) {
+		this.registry = registry;
+		Gauge.builder("doma.retry.budget", budget, DomaRetryBudget::getAvailableRetries)
+				.description("Retries left in the retry budget").register(registry);
+	}
+
+	@Override
+	public Recorder recorder(Class<?> targetClass, Method method) {
+		Tags tags = Tags.of("class", targetClass.getName(), "method", method.getName());
+		Counter attempts = Counter.builder("doma.retry.attempts").tags(tags)
+				.description("First attempts of retryable methods").register(registry);
+		Counter retries = Counter.builder("doma.retry.retries").tags(tags)
+				.description("Retries of retryable methods").register(registry);
+		Map<GiveUpReason, Counter> giveUps = new EnumMap<>(GiveUpReason.class);
+		for (GiveUpReason reason : GiveUpReason.values()) {
+			giveUps.put(reason, Counter.builder("doma.retry.give-ups").tags(tags)
+					.tag("reason", reason.name())
+					.description("Retryable methods that stopped retrying")
+					.register(registry));
+		}
+		return new Recorder() {
+
+			@Override
+			public void attempt(int attempt) {
+				(attempt == 1 ? attempts : retries).increment();
+			}
+
+			@Override
+			public void giveUp(GiveUpReason reason, Throwable failure) {
+				giveUps.get(reason).increment();
+			}
+		};
+	}
+}
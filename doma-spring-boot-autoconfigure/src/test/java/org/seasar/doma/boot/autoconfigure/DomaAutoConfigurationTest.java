@@ -18,25 +18,61 @@ package org.seasar.doma.boot.autoconfigure;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.seasar.doma.boot.DomaCountCache;
+import org.seasar.doma.boot.DomaCountCacheMetrics;
+import org.seasar.doma.boot.DomaExceptionMapping;
+import org.seasar.doma.boot.DomaExceptionTranslationMetrics;
 import org.seasar.doma.boot.DomaPersistenceExceptionTranslator;
+import org.seasar.doma.boot.KeysetCursor;
+import org.seasar.doma.boot.KeysetCursorCodec;
+import org.seasar.doma.boot.event.DomaBatchEventPostProcessor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutorMetrics;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor.SaturationPolicy;
+import org.seasar.doma.boot.event.DomaEventDispatcher;
+import org.seasar.doma.boot.event.DomaEventDispatcher.DeliveryMode;
+import org.seasar.doma.boot.event.DomaEventHandlerMetrics;
+import org.seasar.doma.boot.event.annotation.HandlePreInsert;
+import org.seasar.doma.boot.event.DomaEventEntityListener;
+import org.seasar.doma.boot.audit.AuditJournal;
+import org.seasar.doma.boot.audit.AuditRecorder;
+import org.seasar.doma.boot.audit.AuditSerializer;
+import org.seasar.doma.boot.outbox.OutboxDrainer;
+import org.seasar.doma.boot.retry.DomaRetryBudget;
+import org.seasar.doma.boot.retry.DomaRetryMetrics;
+import org.seasar.doma.boot.retry.DomaRetryPostProcessor;
+import org.seasar.doma.boot.outbox.OutboxEntityListener;
+import org.seasar.doma.boot.outbox.OutboxRecorder;
+import org.seasar.doma.boot.outbox.OutboxSerializer;
+import org.seasar.doma.boot.outbox.OutboxSink;
 import org.seasar.doma.jdbc.Config;
 import org.seasar.doma.jdbc.EntityListenerProvider;
 import org.seasar.doma.jdbc.GreedyCacheSqlFileRepository;
 import org.seasar.doma.jdbc.JdbcException;
 import org.seasar.doma.jdbc.JdbcLogger;
 import org.seasar.doma.jdbc.Naming;
+import org.seasar.doma.jdbc.OptimisticLockException;
+import org.seasar.doma.jdbc.SqlKind;
+import org.seasar.doma.jdbc.SqlLogType;
 import org.seasar.doma.jdbc.NoCacheSqlFileRepository;
+import org.seasar.doma.jdbc.UniqueConstraintException;
 import org.seasar.doma.jdbc.UtilLoggingJdbcLogger;
 import org.seasar.doma.jdbc.SqlFileRepository;
 import org.seasar.doma.jdbc.UtilLoggingJdbcLogger;
@@ -50,6 +86,7 @@ import org.seasar.doma.jdbc.dialect.StandardDialect;
 import org.seasar.doma.message.Message;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
@@ -57,8 +94,10 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.MutablePropertySources;
 import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.dao.QueryTimeoutException;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
@@ -208,6 +247,38 @@ public class DomaAutoConfigurationTest {
 		}
 	}
 
+	@Test
+	public void testExceptionMappingBean() {
+		this.context.register(ExceptionMappingConfigure.class,
+				DomaAutoConfiguration.class, DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		PersistenceExceptionTranslator translator = this.context
+				.getBean(PersistenceExceptionTranslator.class);
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(new OptimisticLockException(
+						SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null));
+		assertThat(dataAccessException,
+				is(instanceOf(ConcurrencyFailureException.class)));
+	}
+
+	@Test
+	public void testExceptionTranslationStacklessCategories() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.exception-translation-lazy-message:true",
+				"doma.exception-translation-stackless-categories:optimistic-lock,duplicate-key");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		PersistenceExceptionTranslator translator = this.context
+				.getBean(PersistenceExceptionTranslator.class);
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(new OptimisticLockException(
+						SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null));
+		assertThat(dataAccessException,
+				is(instanceOf(OptimisticLockingFailureException.class)));
+		assertThat(dataAccessException.getStackTrace().length, is(0));
+	}
+
 	@Test
 	public void testAutoRegisteredCriteriaAPI() {
 		this.context.register(DomaAutoConfiguration.class, DataSourceAutoConfiguration.class);
@@ -231,6 +302,250 @@ public class DomaAutoConfigurationTest {
 		assertNotNull(nativeSqlBeans.get("myNativeSql"));
 	}
 
+	@Test
+	public void testAutoRegisteredDomaEventDispatcher() {
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		DomaEventDispatcher dispatcher = this.context.getBean(DomaEventDispatcher.class);
+		assertThat(dispatcher, is(notNullValue()));
+		assertThat(this.context.getBean(DomaEventEntityListener.class),
+				is(notNullValue()));
+	}
+
+	@Test
+	public void testDomaEventDeliveryMode() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.event.delivery-mode:DIRECT");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaProperties.class).getEvent()
+				.getDeliveryMode(), is(DeliveryMode.DIRECT));
+	}
+
+	@Test
+	public void testAutoRegisteredDomaEventAsyncExecutor() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.event.async.pool-size:4", "doma.event.async.queue-capacity:16",
+				"doma.event.async.saturation-policy:DROP");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		DomaProperties.Async async = this.context.getBean(DomaProperties.class)
+				.getEvent().getAsync();
+		assertThat(async.getPoolSize(), is(4));
+		assertThat(async.getQueueCapacity(), is(16));
+		assertThat(async.getSaturationPolicy(), is(SaturationPolicy.DROP));
+		assertThat(this.context.getBeanFactory()
+				.containsSingleton("domaEventAsyncExecutor"), is(false));
+		assertThat(this.context.getBean(DomaEventAsyncExecutor.class),
+				is(notNullValue()));
+	}
+
+	@Test
+	public void testDomaEventAsyncExecutorMetrics() {
+		this.context.register(MetricsConfigure.class, DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaEventAsyncExecutorMetrics.class),
+				is(instanceOf(MicrometerDomaEventAsyncExecutorMetrics.class)));
+		MeterRegistry registry = this.context.getBean(MeterRegistry.class);
+		assertThat(registry.find("doma.event.async.queue.size").gauge(),
+				is(nullValue()));
+		this.context.getBean(DomaEventAsyncExecutor.class);
+		assertThat(registry.get("doma.event.async.queue.size").gauge().value(),
+				is(0.0));
+		assertThat(registry.get("doma.event.async.dropped").functionCounter().count(),
+				is(0.0));
+		assertThat(registry.get("doma.event.async.lag.max").timeGauge()
+				.value(TimeUnit.NANOSECONDS), is(0.0));
+	}
+
+	@Test
+	public void testDomaEventHandlerMetrics() {
+		this.context.register(MetricsConfigure.class, DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaEventHandlerMetrics.class),
+				is(instanceOf(MicrometerDomaEventHandlerMetrics.class)));
+		MeterRegistry registry = this.context.getBean(MeterRegistry.class);
+		assertThat(registry.get("doma.event.handler").tag("entity", MetricsEntity.class.getName())
+				.tag("method", "handle").tag("phase", "PreInsert").timer().count(),
+				is(0L));
+	}
+
+	@Test
+	public void testExceptionTranslationMetrics() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.exception-translation-metrics-max-series:1");
+		this.context.register(MetricsConfigure.class, DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaExceptionTranslationMetrics.class),
+				is(instanceOf(MicrometerDomaExceptionTranslationMetrics.class)));
+		PersistenceExceptionTranslator translator = this.context
+				.getBean(PersistenceExceptionTranslator.class);
+		for (String sqlFilePath : new String[] { "TodoDao/insert.sql",
+				"TodoDao/insert.sql", "TodoDao/insertAll.sql", "TodoDao/copy.sql" }) {
+			translator.translateExceptionIfPossible(new UniqueConstraintException(
+					SqlLogType.FORMATTED, SqlKind.INSERT, "insert", "insert",
+					sqlFilePath, new SQLException("duplicate", "23505", 23505)));
+		}
+		MeterRegistry registry = this.context.getBean(MeterRegistry.class);
+		assertThat(registry.get("doma.exception.translations")
+				.tag("exception", UniqueConstraintException.class.getName())
+				.tag("category", "DuplicateKeyException").tag("error.code", "23505")
+				.tag("sql.file", "TodoDao/insert.sql").counter().count(), is(2.0));
+		// Beyond the maximum number of series
+		assertThat(registry.get("doma.exception.translations")
+				.tag("sql.file", "other").counter().count(), is(2.0));
+		assertThat(registry.get("doma.exception.translations").counters().size(),
+				is(2));
+	}
+
+	@Test
+	public void testRetry() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.retry.budget-capacity:5");
+		this.context.register(MetricsConfigure.class, DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaRetryPostProcessor.class),
+				is(notNullValue()));
+		assertThat(this.context.getBean(DomaRetryBudget.class).getAvailableRetries(),
+				is(5L));
+		assertThat(this.context.getBean(DomaRetryMetrics.class),
+				is(instanceOf(MicrometerDomaRetryMetrics.class)));
+		MeterRegistry registry = this.context.getBean(MeterRegistry.class);
+		assertThat(registry.get("doma.retry.budget").gauge().value(), is(5.0));
+	}
+
+	@Test
+	public void testBatchEventsDisabledByDefault() {
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBeansOfType(DomaBatchEventPostProcessor.class)
+				.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testBatchEventsEnabled() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.event.batch-enabled:true");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaBatchEventPostProcessor.class),
+				is(notNullValue()));
+	}
+
+	@Test
+	public void testBatchEventsEnabledByCountCache() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.count-cache.enabled:true");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(DomaBatchEventPostProcessor.class),
+				is(notNullValue()));
+	}
+
+	@Test
+	public void testCountCacheDisabledByDefault() {
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBeansOfType(DomaCountCache.class).isEmpty(),
+				is(true));
+	}
+
+	@Test
+	public void testCountCacheEnabled() {
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.count-cache.enabled:true", "doma.count-cache.ttl:1m",
+				"doma.count-cache.max-size:10");
+		this.context.register(MetricsConfigure.class, DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		DomaCountCache cache = this.context.getBean(DomaCountCache.class);
+		JdbcLogger jdbcLogger = this.context.getBean(Config.class).getJdbcLogger();
+		assertThat(cache.jdbcLogger(jdbcLogger), is(sameInstance(jdbcLogger)));
+		assertThat(this.context.getBean(DomaCountCacheMetrics.class),
+				is(instanceOf(MicrometerDomaCountCacheMetrics.class)));
+	}
+
+	@Test
+	public void testOutboxDisabledByDefault() {
+		this.context.register(OutboxConfigure.class, DataSourceAutoConfiguration.class,
+				DataSourceTransactionManagerAutoConfiguration.class,
+				DomaAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBeansOfType(OutboxRecorder.class).isEmpty(),
+				is(true));
+		assertThat(this.context.getBean(DomaEventEntityListener.class),
+				is(not(instanceOf(OutboxEntityListener.class))));
+	}
+
+	@Test
+	public void testOutboxEnabled() {
+		EnvironmentTestUtils.addEnvironment(this.context, "doma.outbox.enabled:true");
+		this.context.register(OutboxConfigure.class, DataSourceAutoConfiguration.class,
+				DataSourceTransactionManagerAutoConfiguration.class,
+				DomaAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(OutboxRecorder.class), is(notNullValue()));
+		assertThat(this.context.getBean(OutboxDrainer.class), is(notNullValue()));
+		assertThat(this.context.getBean(DomaEventEntityListener.class),
+				is(instanceOf(OutboxEntityListener.class)));
+	}
+
+	@Test
+	public void testKeysetCursorCodec() {
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBeansOfType(KeysetCursorCodec.class).isEmpty(),
+				is(true));
+		this.context.close();
+
+		this.context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"doma.keyset.cursor-secret:0123456789abcdef");
+		this.context.register(DomaAutoConfiguration.class,
+				DataSourceAutoConfiguration.class);
+		this.context.refresh();
+		KeysetCursorCodec codec = this.context.getBean(KeysetCursorCodec.class);
+		KeysetCursor cursor = KeysetCursor.of("foo", 1);
+		assertThat(codec.decode(codec.encode(cursor)), is(cursor));
+	}
+
+	@Test
+	public void testAuditDisabledByDefault() {
+		this.context.register(AuditConfigure.class, DataSourceAutoConfiguration.class,
+				DomaAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBeansOfType(AuditJournal.class).isEmpty(), is(true));
+		assertThat(this.context.getBeansOfType(AuditRecorder.class).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testAuditEnabled() throws Exception {
+		Path directory = Files.createTempDirectory("doma-audit");
+		EnvironmentTestUtils.addEnvironment(this.context, "doma.audit.enabled:true",
+				"doma.audit.directory:" + directory, "doma.audit.segment-size:1MB",
+				"doma.audit.fsync-policy:ALWAYS");
+		this.context.register(AuditConfigure.class, DataSourceAutoConfiguration.class,
+				DomaAutoConfiguration.class);
+		this.context.refresh();
+		assertThat(this.context.getBean(AuditRecorder.class), is(notNullValue()));
+		AuditJournal journal = this.context.getBean(AuditJournal.class);
+		assertThat(journal.getDirectory(), is(directory));
+		assertThat(Files.size(directory.resolve("00000000000000000000.journal")),
+				is(1024L * 1024L));
+	}
+
 	@Test
 	public void testDialectByDataSourceUrl() {
 		MutablePropertySources sources = context.getEnvironment()
@@ -319,14 +634,62 @@ public class DomaAutoConfigurationTest {
 
 	private static class EnvironmentTestUtils {
 		public static void addEnvironment(ConfigurableApplicationContext context,
-				String pair) {
+				String... pairs) {
 			MutablePropertySources sources = context.getEnvironment()
 					.getPropertySources();
-			String[] split = pair.split(":");
-			String key = split[0];
-			String value = split[1];
-			sources.addFirst(new MapPropertySource("test", Collections.singletonMap(key,
-					value)));
+			Map<String, Object> map = new HashMap<>();
+			for (String pair : pairs) {
+				String[] split = pair.split(":");
+				map.put(split[0], split[1]);
+			}
+			sources.addFirst(new MapPropertySource("test", map));
+		}
+	}
+
+	@Configuration
+	public static class MetricsConfigure {
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+		@HandlePreInsert
+		public void handle(MetricsEntity entity) {
+		}
+	}
+
+	@org.seasar.doma.Entity
+	public static class MetricsEntity {
+	}
+
+	@Configuration
+	public static class OutboxConfigure {
+		@Bean
+		OutboxSerializer outboxSerializer() {
+			return (entity, eventType) -> entity.toString();
+		}
+
+		@Bean
+		OutboxSink outboxSink() {
+			return messages -> {
+			};
+		}
+	}
+
+	@Configuration
+	public static class ExceptionMappingConfigure {
+		@Bean
+		DomaExceptionMapping<OptimisticLockException> optimisticLockMapping() {
+			return DomaExceptionMapping.of(OptimisticLockException.class,
+					ex -> new ConcurrencyFailureException(ex.getMessage(), ex));
+		}
+	}
+
+	@Configuration
+	public static class AuditConfigure {
+		@Bean
+		AuditSerializer auditSerializer() {
+			return (entity, eventType) -> entity.toString().getBytes();
 		}
 	}
 
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.seasar.doma.jdbc.dialect.Db2Dialect;
+import org.seasar.doma.jdbc.dialect.Dialect;
+import org.seasar.doma.jdbc.dialect.H212126Dialect;
+import org.seasar.doma.jdbc.dialect.HsqldbDialect;
+import org.seasar.doma.jdbc.dialect.Mssql2008Dialect;
+import org.seasar.doma.jdbc.dialect.MysqlDialect;
+import org.seasar.doma.jdbc.dialect.Oracle11Dialect;
+import org.seasar.doma.jdbc.dialect.PostgresDialect;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.CannotSerializeTransactionException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PermissionDeniedDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.InvalidResultSetAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.util.function.SingletonSupplier;
+
+/**
+ * {@link SQLExceptionTranslator} that classifies vendor error codes, or SQL states for
+ * PostgreSQL, with lookup tables selected by the Doma {@link Dialect}.
+ * <p>
+ * The tables hold the same codes as the {@code sql-error-codes.xml} of Spring Framework,
+ * so unlike {@link org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator}
+ * neither a connection to read the database metadata nor XML parsing is needed.
+ * Exceptions not found in the table are passed to the fallback translator, which is
+ * created on its first use.
+ */
+public class DialectSQLExceptionTranslator implements SQLExceptionTranslator {
+
+	private static final ErrorCodes DB2 = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR,
+					"-007,-029,-097,-104,-109,-115,-128,-199,-204,-206,-301,-408,-441,-491")
+			.add(Category.DUPLICATE_KEY, "-803")
+			.add(Category.DATA_INTEGRITY_VIOLATION,
+					"-407,-530,-531,-532,-543,-544,-545,-603,-667")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "-904,-971")
+			.add(Category.TRANSIENT_DATA_ACCESS_RESOURCE, "-1035,-1218,-30080,-30081")
+			.add(Category.DEADLOCK_LOSER, "-911,-913");
+
+	private static final ErrorCodes H2 = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR,
+					"42000,42001,42101,42102,42111,42112,42121,42122,42132")
+			.add(Category.DUPLICATE_KEY, "23001,23505")
+			.add(Category.DATA_INTEGRITY_VIOLATION,
+					"22001,22003,22012,22018,22025,23000,23002,23003,23502,23503,23506,23507,23513")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "90046,90100,90117,90121,90126")
+			.add(Category.CANNOT_ACQUIRE_LOCK, "50200");
+
+	private static final ErrorCodes HSQLDB = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR, "-22,-28")
+			.add(Category.DUPLICATE_KEY, "-104")
+			.add(Category.DATA_INTEGRITY_VIOLATION, "-9")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "-80");
+
+	private static final ErrorCodes MSSQL = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR, "156,170,207,208,209")
+			.add(Category.PERMISSION_DENIED, "229")
+			.add(Category.DUPLICATE_KEY, "2601,2627")
+			.add(Category.DATA_INTEGRITY_VIOLATION, "544,8114,8115")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "4060")
+			.add(Category.CANNOT_ACQUIRE_LOCK, "1222")
+			.add(Category.DEADLOCK_LOSER, "1205");
+
+	private static final ErrorCodes MYSQL = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR, "1054,1064,1146")
+			.add(Category.DUPLICATE_KEY, "1062")
+			.add(Category.DATA_INTEGRITY_VIOLATION,
+					"630,839,840,893,1169,1215,1216,1217,1364,1451,1452,1557")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "1")
+			.add(Category.CANNOT_ACQUIRE_LOCK, "1205,3572")
+			.add(Category.DEADLOCK_LOSER, "1213");
+
+	private static final ErrorCodes ORACLE = new ErrorCodes(false)
+			.add(Category.BAD_SQL_GRAMMAR, "900,903,904,917,936,942,17006,6550")
+			.add(Category.INVALID_RESULT_SET_ACCESS, "17003")
+			.add(Category.DUPLICATE_KEY, "1")
+			.add(Category.DATA_INTEGRITY_VIOLATION, "1400,1722,2291,2292")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "17002,17447")
+			.add(Category.CANNOT_ACQUIRE_LOCK, "54,30006")
+			.add(Category.CANNOT_SERIALIZE_TRANSACTION, "8177")
+			.add(Category.DEADLOCK_LOSER, "60");
+
+	private static final ErrorCodes POSTGRES = new ErrorCodes(true)
+			.add(Category.BAD_SQL_GRAMMAR, "03000,42000,42601,42602,42622,42804,42P01")
+			.add(Category.DUPLICATE_KEY, "23505")
+			.add(Category.DATA_INTEGRITY_VIOLATION, "23000,23502,23503,23514")
+			.add(Category.DATA_ACCESS_RESOURCE_FAILURE, "53000,53100,53200,53300")
+			.add(Category.CANNOT_ACQUIRE_LOCK, "55P03")
+			.add(Category.CANNOT_SERIALIZE_TRANSACTION, "40001")
+			.add(Category.DEADLOCK_LOSER, "40P01");
+
+	private final ErrorCodes errorCodes;
+	private final Supplier<SQLExceptionTranslator> fallbackTranslator;
+
+	/**
+	 * @param dialect dialect of the database
+	 * @param fallbackTranslator supplier of the translator for the exceptions not found
+	 * in the table, called at most once
+	 */
+	public DialectSQLExceptionTranslator(Dialect dialect,
+			Supplier<SQLExceptionTranslator> fallbackTranslator) {
+		this.errorCodes = errorCodesOf(dialect);
+		this.fallbackTranslator = SingletonSupplier.of(fallbackTranslator);
+	}
+
+	private static ErrorCodes errorCodesOf(Dialect dialect) {
+		if (dialect instanceof H212126Dialect) {
+			return H2;
+		} else if (dialect instanceof PostgresDialect) {
+			return POSTGRES;
+		} else if (dialect instanceof MysqlDialect) {
+			return MYSQL;
+		} else if (dialect instanceof Oracle11Dialect) {
+			return ORACLE;
+		} else if (dialect instanceof Mssql2008Dialect) {
+			return MSSQL;
+		} else if (dialect instanceof Db2Dialect) {
+			return DB2;
+		} else if (dialect instanceof HsqldbDialect) {
+			return HSQLDB;
+		}
+		return null;
+	}
+
+	@Override
+	public DataAccessException translate(String task, String sql, SQLException ex) {
+		DataAccessException dae = doTranslate(task, sql, ex);
+		if (dae != null) {
+			return dae;
+		}
+		SQLExceptionTranslator fallback = fallbackTranslator.get();
+		if (fallback != null) {
+			dae = fallback.translate(task, sql, ex);
+			if (dae != null) {
+				return dae;
+			}
+		}
+		return new UncategorizedSQLException(task, sql, ex);
+	}
+
+	/**
+	 * @return the exception classified by the table, or {@code null} if not found
+	 */
+	DataAccessException doTranslate(String task, String sql, SQLException ex) {
+		if (errorCodes == null) {
+			return null;
+		}
+		SQLException sqlEx = ex;
+		if (sqlEx instanceof BatchUpdateException && sqlEx.getNextException() != null) {
+			// The cause of the failed statement in the batch
+			SQLException nestedSqlEx = sqlEx.getNextException();
+			if (nestedSqlEx.getErrorCode() > 0 || nestedSqlEx.getSQLState() != null) {
+				sqlEx = nestedSqlEx;
+			}
+		}
+		String code = errorCodes.useSqlState ? sqlEx.getSQLState()
+				: Integer.toString(sqlEx.getErrorCode());
+		Category category = code != null ? errorCodes.categories.get(code) : null;
+		return category != null ? category.create(task, sql, sqlEx) : null;
+	}
+
+	private static final class ErrorCodes {
+
+		final boolean useSqlState;
+		final Map<String, Category> categories = new HashMap<>();
+
+		ErrorCodes(boolean useSqlState) {
+			this.useSqlState = useSqlState;
+		}
+
+		ErrorCodes add(Category category, String codes) {
+			for (String code : codes.split(",")) {
+				// The first category wins, as in SQLErrorCodeSQLExceptionTranslator
+				categories.putIfAbsent(code, category);
+			}
+			return this;
+		}
+	}
+
+	private enum Category {
+
+		BAD_SQL_GRAMMAR {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new BadSqlGrammarException(task, sql != null ? sql : "", ex);
+			}
+		},
+
+		INVALID_RESULT_SET_ACCESS {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new InvalidResultSetAccessException(task, sql != null ? sql : "",
+						ex);
+			}
+		},
+
+		DUPLICATE_KEY {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new DuplicateKeyException(buildMessage(task, sql, ex), ex);
+			}
+		},
+
+		DATA_INTEGRITY_VIOLATION {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new DataIntegrityViolationException(buildMessage(task, sql, ex),
+						ex);
+			}
+		},
+
+		PERMISSION_DENIED {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new PermissionDeniedDataAccessException(
+						buildMessage(task, sql, ex), ex);
+			}
+		},
+
+		DATA_ACCESS_RESOURCE_FAILURE {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new DataAccessResourceFailureException(
+						buildMessage(task, sql, ex), ex);
+			}
+		},
+
+		TRANSIENT_DATA_ACCESS_RESOURCE {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new TransientDataAccessResourceException(
+						buildMessage(task, sql, ex), ex);
+			}
+		},
+
+		CANNOT_ACQUIRE_LOCK {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new CannotAcquireLockException(buildMessage(task, sql, ex), ex);
+			}
+		},
+
+		DEADLOCK_LOSER {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new DeadlockLoserDataAccessException(buildMessage(task, sql, ex),
+						ex);
+			}
+		},
+
+		CANNOT_SERIALIZE_TRANSACTION {
+			@Override
+			DataAccessException create(String task, String sql, SQLException ex) {
+				return new CannotSerializeTransactionException(
+						buildMessage(task, sql, ex), ex);
+			}
+		};
+
+		abstract DataAccessException create(String task, String sql, SQLException ex);
+
+		static String buildMessage(String task, String sql, SQLException ex) {
+			return task + "; " + (sql != null ? "SQL [" + sql + "]; " : "")
+					+ ex.getMessage();
+		}
+	}
+}
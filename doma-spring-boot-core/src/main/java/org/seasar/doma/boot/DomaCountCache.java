@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.seasar.doma.boot.event.PostBatchDeleteEvent;
+import org.seasar.doma.boot.event.PostBatchInsertEvent;
+import org.seasar.doma.boot.event.PostDeleteEvent;
+import org.seasar.doma.boot.event.PostInsertEvent;
+import org.seasar.doma.jdbc.JdbcLogger;
+import org.seasar.doma.jdbc.Sql;
+import org.seasar.doma.jdbc.SqlParameter;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Cache of the total counts of
+ * {@link Pageables#toPage(org.springframework.data.domain.Pageable, DomaCountCache, Class, java.util.function.Function)},
+ * keyed by the entity class, the SQL file path and the
+ * bind parameters of the select, so that turning pages does not count the rows again.
+ * <p>
+ * Counts expire after the TTL, and the least recently used ones are evicted beyond the
+ * maximum size. The counts of an entity class are invalidated by the post-insert and
+ * post-delete events of the entity, including batch ones, and once more when the
+ * transaction completes, since other transactions may count the rows until then.
+ * Updates do not invalidate counts, so the TTL bounds how long a count stays stale when
+ * an update changes the rows a select matches. Events are not published with
+ * {@link org.seasar.doma.boot.event.DomaEventDispatcher.DeliveryMode#DIRECT}, so call
+ * {@link #invalidate(Class)} in that case.
+ * <p>
+ * The SQL is captured by the {@link JdbcLogger} of {@link #jdbcLogger(JdbcLogger)}, which
+ * must be the logger of the Doma config. Selects not read from SQL files, such as
+ * Criteria queries, are counted every time.
+ * <p>
+ * This class must be registered as a bean to receive the events.
+ */
+public class DomaCountCache implements SmartApplicationListener {
+
+	private final long ttlNanos;
+	private final Map<Key, Entry> entries;
+	private final ConcurrentMap<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+	private DomaCountCacheMetrics metrics = DomaCountCacheMetrics.NOOP;
+	LongSupplier clock = System::nanoTime;
+
+	/**
+	 * @param ttl time to live of the counts
+	 * @param maxSize maximum number of the counts
+	 */
+	public DomaCountCache(Duration ttl, int maxSize) {
+		if (ttl.isNegative() || ttl.isZero()) {
+			throw new IllegalArgumentException("ttl must be positive");
+		}
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.ttlNanos = ttl.toNanos();
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param delegate logger of the Doma config
+	 * @return the logger that captures the SQL of the selects for this cache
+	 */
+	public JdbcLogger jdbcLogger(JdbcLogger delegate) {
+		return delegate instanceof SqlCapturingJdbcLogger ? delegate
+				: new SqlCapturingJdbcLogger(delegate);
+	}
+
+	/**
+	 * @param entityClass entity class of the select
+	 * @param sql select that was run, or {@code null} if it was not captured
+	 * @param counter counts the rows on a miss
+	 * @return the count
+	 */
+	long get(Class<?> entityClass, Sql<?> sql, LongSupplier counter) {
+		if (sql == null || sql.getSqlFilePath() == null) {
+			metrics.miss(entityClass);
+			return counter.getAsLong();
+		}
+		List<Object> parameters = new ArrayList<>(sql.getParameters().size());
+		for (SqlParameter parameter : sql.getParameters()) {
+			parameters.add(parameter.getValue());
+		}
+		Key key = new Key(entityClass, sql.getSqlFilePath(), parameters);
+		// Read before counting, so that an invalidation while counting is not lost
+		long generation = generationOf(entityClass).get();
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry != null && entry.generation == generation
+				&& entry.expiresAt - clock.getAsLong() > 0) {
+			metrics.hit(entityClass);
+			return entry.count;
+		}
+		metrics.miss(entityClass);
+		long count = counter.getAsLong();
+		entry = new Entry(count, generation, clock.getAsLong() + ttlNanos);
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		return count;
+	}
+
+	/**
+	 * Invalidates the counts of the entity class and its superclasses, now and when the
+	 * current transaction completes.
+	 *
+	 * @param entityClass entity class
+	 */
+	public void invalidate(Class<?> entityClass) {
+		bump(entityClass);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			Invalidation invalidation = (Invalidation) TransactionSynchronizationManager
+					.getResource(this);
+			if (invalidation == null) {
+				invalidation = new Invalidation();
+				TransactionSynchronizationManager.bindResource(this, invalidation);
+				TransactionSynchronizationManager.registerSynchronization(invalidation);
+			}
+			invalidation.entityClasses.add(entityClass);
+		}
+	}
+
+	/**
+	 * Invalidates all the counts.
+	 */
+	public void invalidateAll() {
+		generations.values().forEach(AtomicLong::incrementAndGet);
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return the number of the counts, including expired ones not evicted yet
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public void setMetrics(DomaCountCacheMetrics metrics) {
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	private AtomicLong generationOf(Class<?> entityClass) {
+		return generations.computeIfAbsent(entityClass, c -> new AtomicLong());
+	}
+
+	private void bump(Class<?> entityClass) {
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			AtomicLong generation = generations.get(c);
+			if (generation != null) {
+				generation.incrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsEventType(Class<? extends ApplicationEvent> eventType) {
+		return PostInsertEvent.class.isAssignableFrom(eventType)
+				|| PostDeleteEvent.class.isAssignableFrom(eventType)
+				|| PostBatchInsertEvent.class.isAssignableFrom(eventType)
+				|| PostBatchDeleteEvent.class.isAssignableFrom(eventType);
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		Object source = event.getSource();
+		if (source instanceof List) {
+			List<?> entities = (List<?>) source;
+			if (entities.isEmpty()) {
+				return;
+			}
+			source = entities.get(0);
+		}
+		invalidate(source.getClass());
+	}
+
+	private final class Invalidation extends TransactionSynchronizationAdapter {
+
+		final Set<Class<?>> entityClasses = new LinkedHashSet<>();
+
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(DomaCountCache.this);
+		}
+
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(DomaCountCache.this, this);
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(
+					DomaCountCache.this);
+			entityClasses.forEach(DomaCountCache.this::bump);
+		}
+	}
+
+	private static final class Key {
+		private final Class<?> entityClass;
+		private final String sqlFilePath;
+		private final List<Object> parameters;
+
+		Key(Class<?> entityClass, String sqlFilePath, List<Object> parameters) {
+			this.entityClass = entityClass;
+			this.sqlFilePath = sqlFilePath;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Key == false) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return entityClass == other.entityClass
+					&& sqlFilePath.equals(other.sqlFilePath)
+					&& parameters.equals(other.parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(entityClass, sqlFilePath, parameters);
+		}
+	}
+
+	private static final class Entry {
+		final long count;
+		final long generation;
+		final long expiresAt;
+
+		Entry(long count, long generation, long expiresAt) {
+			this.count = count;
+			this.generation = generation;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
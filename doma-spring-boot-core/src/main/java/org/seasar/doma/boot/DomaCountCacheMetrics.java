@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+/**
+ * Records the lookups of {@link DomaCountCache}.
+ * <p>
+ * Register an implementation as a bean to enable it.
+ */
+public interface DomaCountCacheMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	DomaCountCacheMetrics NOOP = new DomaCountCacheMetrics() {
+
+		@Override
+		public void hit(Class<?> entityClass) {
+		}
+
+		@Override
+		public void miss(Class<?> entityClass) {
+		}
+	};
+
+	/**
+	 * @param entityClass entity class of the count
+	 */
+	void hit(Class<?> entityClass);
+
+	/**
+	 * @param entityClass entity class of the count, which is counted by the database
+	 */
+	void miss(Class<?> entityClass);
+}
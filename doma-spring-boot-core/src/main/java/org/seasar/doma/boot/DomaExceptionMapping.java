@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.seasar.doma.jdbc.JdbcException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * Mapping from a type of Doma's {@link JdbcException} to Spring's
+ * {@link DataAccessException}, used by {@link DomaPersistenceExceptionTranslator}.
+ * <p>
+ * A mapping applies to the exception type and its subtypes unless a subtype has its own
+ * mapping. Registering a mapping as a Spring bean adds it to the auto-configured
+ * translator, overriding the built-in mapping of the same exception type. If the
+ * function returns {@code null}, the exception is translated as an unmapped one, i.e.
+ * by its {@link java.sql.SQLException} cause.
+ *
+ * @param <E> type of the exception
+ */
+public final class DomaExceptionMapping<E extends JdbcException> {
+
+	private final Class<E> exceptionType;
+	private final Function<? super E, ? extends DataAccessException> function;
+
+	private DomaExceptionMapping(Class<E> exceptionType,
+			Function<? super E, ? extends DataAccessException> function) {
+		this.exceptionType = Objects.requireNonNull(exceptionType);
+		this.function = Objects.requireNonNull(function);
+	}
+
+	/**
+	 * @param exceptionType type of the exception
+	 * @param function function translating the exception
+	 * @param <E> type of the exception
+	 * @return the mapping
+	 */
+	public static <E extends JdbcException> DomaExceptionMapping<E> of(
+			Class<E> exceptionType,
+			Function<? super E, ? extends DataAccessException> function) {
+		return new DomaExceptionMapping<>(exceptionType, function);
+	}
+
+	public Class<E> getExceptionType() {
+		return exceptionType;
+	}
+
+	DataAccessException translate(JdbcException ex) {
+		return function.apply(exceptionType.cast(ex));
+	}
+}
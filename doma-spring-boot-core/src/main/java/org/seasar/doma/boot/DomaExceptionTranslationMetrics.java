@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import org.seasar.doma.jdbc.JdbcException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * Records the exceptions translated by {@link DomaPersistenceExceptionTranslator}, e.g.
+ * to watch bursts of duplicate keys or optimistic lock failures on hot rows.
+ * <p>
+ * Register an implementation as a bean to enable it.
+ */
+@FunctionalInterface
+public interface DomaExceptionTranslationMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	DomaExceptionTranslationMetrics NOOP = (exceptionType, translatedType, errorCode,
+			sqlFilePath) -> {
+	};
+
+	/**
+	 * @param exceptionType type of the Doma exception
+	 * @param translatedType type of the translated exception
+	 * @param errorCode vendor error code of the {@link java.sql.SQLException} cause, or
+	 * {@code null} if the cause is not a {@code SQLException}
+	 * @param sqlFilePath path of the SQL file that was executed, or {@code null} if the
+	 * SQL was not read from a file
+	 */
+	void record(Class<? extends JdbcException> exceptionType,
+			Class<? extends DataAccessException> translatedType, Integer errorCode,
+			String sqlFilePath);
+}
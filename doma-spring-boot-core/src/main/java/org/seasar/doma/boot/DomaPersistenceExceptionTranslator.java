@@ -16,6 +16,14 @@
 package org.seasar.doma.boot;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.seasar.doma.jdbc.JdbcException;
 import org.seasar.doma.jdbc.NoResultException;
@@ -39,6 +47,15 @@ import org.springframework.jdbc.support.SQLExceptionTranslator;
 
 /**
  * Converts Doma's {@link JdbcException} into Spring's {@link DataAccessException}.
+ * <p>
+ * The translation of each exception class is resolved once through the
+ * {@link DomaExceptionMapping}s of the class and its superclasses and cached in a
+ * {@link ClassValue}. Exceptions other than {@link JdbcException} are rejected with a
+ * single type check.
+ * <p>
+ * For workloads where failures such as optimistic lock failures are expected, the
+ * exceptions of the built-in mappings can be made cheaper with
+ * {@link #setLazyMessage(boolean)} and {@link #setStacklessCategories(Collection)}.
  * @author Toshiaki Maki
  * @author Kazuki Shimizu
  */
@@ -46,9 +63,106 @@ public class DomaPersistenceExceptionTranslator implements PersistenceExceptionT
 
 	private final SQLExceptionTranslator translator;
 
+	private final Map<Class<?>, DomaExceptionMapping<?>> mappings;
+
+	private volatile boolean lazyMessage;
+
+	private volatile Set<Category> stacklessCategories = EnumSet.noneOf(Category.class);
+
+	private volatile DomaExceptionTranslationMetrics metrics = DomaExceptionTranslationMetrics.NOOP;
+
+	private final ClassValue<DomaExceptionMapping<?>> resolvedMappings = new ClassValue<DomaExceptionMapping<?>>() {
+		@Override
+		protected DomaExceptionMapping<?> computeValue(Class<?> exceptionType) {
+			// The mapping of the nearest superclass wins
+			for (Class<?> type = exceptionType; type != null; type = type.getSuperclass()) {
+				DomaExceptionMapping<?> mapping = mappings.get(type);
+				if (mapping != null) {
+					return mapping;
+				}
+			}
+			return null;
+		}
+	};
+
 	public DomaPersistenceExceptionTranslator(
 			SQLExceptionTranslator sqlExceptionTranslator) {
+		this(sqlExceptionTranslator, Collections.emptyList());
+	}
+
+	/**
+	 * @param sqlExceptionTranslator translator of the {@link SQLException} causes
+	 * @param mappings additional mappings, which override the built-in mappings of the
+	 * same exception types
+	 */
+	public DomaPersistenceExceptionTranslator(
+			SQLExceptionTranslator sqlExceptionTranslator,
+			Collection<? extends DomaExceptionMapping<?>> mappings) {
 		this.translator = sqlExceptionTranslator;
+		Map<Class<?>, DomaExceptionMapping<?>> map = new HashMap<>();
+		for (DomaExceptionMapping<?> mapping : defaultMappings()) {
+			map.put(mapping.getExceptionType(), mapping);
+		}
+		for (DomaExceptionMapping<?> mapping : mappings) {
+			map.put(mapping.getExceptionType(), mapping);
+		}
+		this.mappings = map;
+	}
+
+	private List<DomaExceptionMapping<?>> defaultMappings() {
+		List<DomaExceptionMapping<?>> mappings = new ArrayList<>();
+		mappings.add(DomaExceptionMapping.of(OptimisticLockException.class,
+				ex -> translate(Category.OPTIMISTIC_LOCK, ex)));
+		mappings.add(DomaExceptionMapping.of(UniqueConstraintException.class,
+				ex -> translate(Category.DUPLICATE_KEY, ex)));
+		mappings.add(DomaExceptionMapping.of(NonUniqueResultException.class,
+				ex -> translate(Category.INCORRECT_RESULT_SIZE, ex)));
+		mappings.add(DomaExceptionMapping.of(NonSingleColumnException.class,
+				ex -> translate(Category.INCORRECT_RESULT_SIZE, ex)));
+		mappings.add(DomaExceptionMapping.of(NoResultException.class,
+				ex -> translate(Category.EMPTY_RESULT, ex)));
+		mappings.add(DomaExceptionMapping.of(UnknownColumnException.class,
+				ex -> translate(Category.TYPE_MISMATCH, ex)));
+		mappings.add(DomaExceptionMapping.of(ResultMappingException.class,
+				ex -> translate(Category.TYPE_MISMATCH, ex)));
+		return mappings;
+	}
+
+	private DataAccessException translate(Category category, JdbcException ex) {
+		boolean stackTrace = !stacklessCategories.contains(category);
+		if (!lazyMessage && stackTrace) {
+			return category.create(ex.getMessage(), ex);
+		}
+		return category.createLightweight(lazyMessage ? null : ex.getMessage(), ex,
+				stackTrace);
+	}
+
+	/**
+	 * Sets whether the translated exceptions of the built-in mappings derive their
+	 * messages from the Doma exceptions only when the messages are requested.
+	 * @param lazyMessage {@code true} to derive the messages lazily
+	 */
+	public void setLazyMessage(boolean lazyMessage) {
+		this.lazyMessage = lazyMessage;
+	}
+
+	/**
+	 * Sets the categories whose translated exceptions are created without capturing
+	 * the stack trace. The Doma exception, which is the cause, keeps its stack trace.
+	 * @param stacklessCategories categories of expected failures such as
+	 * {@link Category#OPTIMISTIC_LOCK}
+	 */
+	public void setStacklessCategories(Collection<Category> stacklessCategories) {
+		this.stacklessCategories = stacklessCategories.isEmpty()
+				? EnumSet.noneOf(Category.class) : EnumSet.copyOf(stacklessCategories);
+	}
+
+	/**
+	 * Sets the metrics of the translated exceptions.
+	 * @param metrics metrics, or {@link DomaExceptionTranslationMetrics#NOOP}
+	 */
+	public void setMetrics(DomaExceptionTranslationMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -58,18 +172,21 @@ public class DomaPersistenceExceptionTranslator implements PersistenceExceptionT
 			return null;
 		}
 
-		if (ex instanceof OptimisticLockException) {
-			return new OptimisticLockingFailureException(ex.getMessage(), ex);
-		} else if (ex instanceof UniqueConstraintException) {
-			return new DuplicateKeyException(ex.getMessage(), ex);
-		} else if (ex instanceof NonUniqueResultException
-				|| ex instanceof NonSingleColumnException) {
-			return new IncorrectResultSizeDataAccessException(ex.getMessage(), 1, ex);
-		} else if (ex instanceof NoResultException) {
-			return new EmptyResultDataAccessException(ex.getMessage(), 1, ex);
-		} else if (ex instanceof UnknownColumnException
-				|| ex instanceof ResultMappingException) {
-			return new TypeMismatchDataAccessException(ex.getMessage(), ex);
+		DataAccessException dae = translate((JdbcException) ex);
+		DomaExceptionTranslationMetrics metrics = this.metrics;
+		if (metrics != DomaExceptionTranslationMetrics.NOOP) {
+			record(metrics, (JdbcException) ex, dae);
+		}
+		return dae;
+	}
+
+	private DataAccessException translate(JdbcException ex) {
+		DomaExceptionMapping<?> mapping = resolvedMappings.get(ex.getClass());
+		if (mapping != null) {
+			DataAccessException dae = mapping.translate(ex);
+			if (dae != null) {
+				return dae;
+			}
 		}
 
 		if (ex.getCause() instanceof SQLException) {
@@ -85,4 +202,138 @@ public class DomaPersistenceExceptionTranslator implements PersistenceExceptionT
 		return new UncategorizedDataAccessException(ex.getMessage(), ex) {
 		};
 	}
+
+	private static void record(DomaExceptionTranslationMetrics metrics,
+			JdbcException ex, DataAccessException dae) {
+		// Report the Spring type instead of the subclasses of this translator
+		Class<?> translatedType = dae.getClass();
+		while (translatedType.isAnonymousClass() || translatedType
+				.getEnclosingClass() == LightweightDataAccessExceptions.class) {
+			translatedType = translatedType.getSuperclass();
+		}
+		Integer errorCode = ex.getCause() instanceof SQLException
+				? ((SQLException) ex.getCause()).getErrorCode() : null;
+		metrics.record(ex.getClass(), translatedType.asSubclass(DataAccessException.class),
+				errorCode, sqlFilePathOf(ex));
+	}
+
+	private static String sqlFilePathOf(JdbcException ex) {
+		// The exceptions of Doma have no common type for the SQL file path
+		if (ex instanceof SqlExecutionException) {
+			return ((SqlExecutionException) ex).getSqlFilePath();
+		} else if (ex instanceof OptimisticLockException) {
+			return ((OptimisticLockException) ex).getSqlFilePath();
+		} else if (ex instanceof UniqueConstraintException) {
+			return ((UniqueConstraintException) ex).getSqlFilePath();
+		} else if (ex instanceof NoResultException) {
+			return ((NoResultException) ex).getSqlFilePath();
+		} else if (ex instanceof NonUniqueResultException) {
+			return ((NonUniqueResultException) ex).getSqlFilePath();
+		} else if (ex instanceof NonSingleColumnException) {
+			return ((NonSingleColumnException) ex).getSqlFilePath();
+		} else if (ex instanceof UnknownColumnException) {
+			return ((UnknownColumnException) ex).getSqlFilePath();
+		} else if (ex instanceof ResultMappingException) {
+			return ((ResultMappingException) ex).getSqlFilePath();
+		}
+		return null;
+	}
+
+	/**
+	 * Categories of the exceptions translated by the built-in mappings.
+	 */
+	public enum Category {
+
+		/**
+		 * {@link OptimisticLockException} into {@link OptimisticLockingFailureException}.
+		 */
+		OPTIMISTIC_LOCK {
+			@Override
+			DataAccessException create(String message, JdbcException ex) {
+				return new OptimisticLockingFailureException(message, ex);
+			}
+
+			@Override
+			DataAccessException createLightweight(String message, JdbcException ex,
+					boolean stackTrace) {
+				return new LightweightDataAccessExceptions.OptimisticLockingFailure(
+						message, ex, stackTrace);
+			}
+		},
+
+		/**
+		 * {@link UniqueConstraintException} into {@link DuplicateKeyException}.
+		 */
+		DUPLICATE_KEY {
+			@Override
+			DataAccessException create(String message, JdbcException ex) {
+				return new DuplicateKeyException(message, ex);
+			}
+
+			@Override
+			DataAccessException createLightweight(String message, JdbcException ex,
+					boolean stackTrace) {
+				return new LightweightDataAccessExceptions.DuplicateKey(message, ex,
+						stackTrace);
+			}
+		},
+
+		/**
+		 * {@link NonUniqueResultException} and {@link NonSingleColumnException} into
+		 * {@link IncorrectResultSizeDataAccessException}.
+		 */
+		INCORRECT_RESULT_SIZE {
+			@Override
+			DataAccessException create(String message, JdbcException ex) {
+				return new IncorrectResultSizeDataAccessException(message, 1, ex);
+			}
+
+			@Override
+			DataAccessException createLightweight(String message, JdbcException ex,
+					boolean stackTrace) {
+				return new LightweightDataAccessExceptions.IncorrectResultSize(message,
+						ex, stackTrace);
+			}
+		},
+
+		/**
+		 * {@link NoResultException} into {@link EmptyResultDataAccessException}.
+		 */
+		EMPTY_RESULT {
+			@Override
+			DataAccessException create(String message, JdbcException ex) {
+				return new EmptyResultDataAccessException(message, 1, ex);
+			}
+
+			@Override
+			DataAccessException createLightweight(String message, JdbcException ex,
+					boolean stackTrace) {
+				return new LightweightDataAccessExceptions.EmptyResult(message, ex,
+						stackTrace);
+			}
+		},
+
+		/**
+		 * {@link UnknownColumnException} and {@link ResultMappingException} into
+		 * {@link TypeMismatchDataAccessException}.
+		 */
+		TYPE_MISMATCH {
+			@Override
+			DataAccessException create(String message, JdbcException ex) {
+				return new TypeMismatchDataAccessException(message, ex);
+			}
+
+			@Override
+			DataAccessException createLightweight(String message, JdbcException ex,
+					boolean stackTrace) {
+				return new LightweightDataAccessExceptions.TypeMismatch(message, ex,
+						stackTrace);
+			}
+		};
+
+		abstract DataAccessException create(String message, JdbcException ex);
+
+		abstract DataAccessException createLightweight(String message, JdbcException ex,
+				boolean stackTrace);
+	}
 }
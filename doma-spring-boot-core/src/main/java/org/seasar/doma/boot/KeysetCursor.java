@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Position of keyset pagination, which holds the sort key values of the last row of a
+ * page.
+ * <p>
+ * The next page is selected with the rows after the cursor instead of an offset, so the
+ * database seeks the first row with an index and does not scan the skipped rows. In a
+ * SQL file, the values are bound with {@link #get(int)}:
+ *
+ * <pre>
+ * select * from employee
+ * where
+ * &#47;*%if !cursor.isFirst() *&#47;
+ *   (salary, id) &gt; (&#47;* cursor.get(0) *&#47;0, &#47;* cursor.get(1) *&#47;0)
+ * &#47;*%end*&#47;
+ * order by salary, id
+ * </pre>
+ *
+ * Doma DAOs do not accept {@code null} for a cursor parameter, so the first page is
+ * selected with {@link #FIRST}. The sort keys must identify a row, e.g. by ending with
+ * the primary key. See
+ * {@link Keysets} for Criteria queries and {@link KeysetCursorCodec} for exchanging
+ * cursors with clients.
+ *
+ * @see Keysets
+ */
+public final class KeysetCursor {
+
+	/**
+	 * Cursor of the first page, which has no values.
+	 */
+	public static final KeysetCursor FIRST = new KeysetCursor(Collections.emptyList());
+
+	private final List<Object> values;
+
+	private KeysetCursor(List<Object> values) {
+		this.values = values;
+	}
+
+	/**
+	 * @param values sort key values of the last row, in the order of the sort keys
+	 * @return the cursor, or {@link #FIRST} if the values are empty
+	 */
+	public static KeysetCursor of(Object... values) {
+		return of(Arrays.asList(values));
+	}
+
+	/**
+	 * @param values sort key values of the last row, in the order of the sort keys
+	 * @return the cursor, or {@link #FIRST} if the values are empty
+	 */
+	public static KeysetCursor of(List<?> values) {
+		if (values.isEmpty()) {
+			return FIRST;
+		}
+		return new KeysetCursor(Collections.unmodifiableList(new ArrayList<>(values)));
+	}
+
+	/**
+	 * @param index index of the sort key
+	 * @return the value of the sort key
+	 */
+	public Object get(int index) {
+		return values.get(index);
+	}
+
+	/**
+	 * @return the number of sort keys
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * @return {@code true} if this is the cursor of the first page
+	 */
+	public boolean isFirst() {
+		return values.isEmpty();
+	}
+
+	public List<Object> getValues() {
+		return values;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof KeysetCursor && values.equals(((KeysetCursor) obj).values);
+	}
+
+	@Override
+	public int hashCode() {
+		return values.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "KeysetCursor" + values;
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Converts {@link KeysetCursor} to and from an opaque token for REST endpoints.
+ * <p>
+ * The token is the URL-safe Base64 of the typed values followed by an HMAC-SHA256 of
+ * them, so clients cannot forge a cursor to seek an arbitrary position. The values are
+ * not encrypted; do not put secrets in cursors. Supported value types are
+ * {@link String}, {@link Integer}, {@link Long}, {@link Short}, {@link BigDecimal},
+ * {@link BigInteger}, {@link Boolean}, {@link LocalDate}, {@link LocalDateTime},
+ * {@link LocalTime}, {@link Instant}, {@link UUID} and {@code null}.
+ * <p>
+ * This class is thread safe.
+ */
+public class KeysetCursorCodec {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int MIN_SECRET_LENGTH = 16;
+	private static final int MAC_LENGTH = 16;
+	private static final byte VERSION = 1;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte SHORT = 4;
+	private static final byte BIG_DECIMAL = 5;
+	private static final byte BIG_INTEGER = 6;
+	private static final byte BOOLEAN = 7;
+	private static final byte LOCAL_DATE = 8;
+	private static final byte LOCAL_DATE_TIME = 9;
+	private static final byte LOCAL_TIME = 10;
+	private static final byte INSTANT = 11;
+	private static final byte UUID_TYPE = 12;
+
+	private final ThreadLocal<Mac> macs;
+
+	/**
+	 * @param secret key of the HMAC, at least 16 bytes, shared by all the instances of
+	 * the application
+	 */
+	public KeysetCursorCodec(byte[] secret) {
+		if (secret.length < MIN_SECRET_LENGTH) {
+			throw new IllegalArgumentException(
+					"Secret must be at least " + MIN_SECRET_LENGTH + " bytes");
+		}
+		SecretKeySpec key = new SecretKeySpec(secret.clone(), ALGORITHM);
+		this.macs = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	/**
+	 * @param cursor cursor
+	 * @return the token, or {@code null} if the cursor is {@code null}
+	 * @throws IllegalArgumentException if a value of the cursor is not supported
+	 */
+	public String encode(KeysetCursor cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			out.writeShort(cursor.size());
+			for (Object value : cursor.getValues()) {
+				writeValue(out, value);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] payload = bytes.toByteArray();
+		byte[] token = Arrays.copyOf(payload, payload.length + MAC_LENGTH);
+		System.arraycopy(sign(payload), 0, token, payload.length, MAC_LENGTH);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+	}
+
+	/**
+	 * @param token token created by {@link #encode(KeysetCursor)}
+	 * @return the cursor, or {@link KeysetCursor#FIRST} if the token is {@code null} or
+	 * empty
+	 * @throws IllegalArgumentException if the token is malformed or tampered with
+	 */
+	public KeysetCursor decode(String token) {
+		if (token == null || token.isEmpty()) {
+			return KeysetCursor.FIRST;
+		}
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(token);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Malformed cursor token", e);
+		}
+		if (bytes.length <= MAC_LENGTH) {
+			throw new IllegalArgumentException("Malformed cursor token");
+		}
+		byte[] payload = Arrays.copyOf(bytes, bytes.length - MAC_LENGTH);
+		byte[] mac = Arrays.copyOfRange(bytes, payload.length, bytes.length);
+		if (!MessageDigest.isEqual(mac, Arrays.copyOf(sign(payload), MAC_LENGTH))) {
+			throw new IllegalArgumentException("Invalid cursor token signature");
+		}
+		try (DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(payload))) {
+			if (in.readByte() != VERSION) {
+				throw new IllegalArgumentException("Unsupported cursor token version");
+			}
+			int size = in.readUnsignedShort();
+			List<Object> values = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				values.add(readValue(in));
+			}
+			if (in.available() > 0) {
+				throw new IllegalArgumentException("Malformed cursor token");
+			}
+			return KeysetCursor.of(values);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Malformed cursor token", e);
+		}
+	}
+
+	private byte[] sign(byte[] payload) {
+		Mac mac = macs.get();
+		return mac.doFinal(payload);
+	}
+
+	private static void writeValue(DataOutputStream out, Object value)
+			throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			out.writeByte(BIG_DECIMAL);
+			out.writeInt(decimal.scale());
+			writeBytes(out, decimal.unscaledValue().toByteArray());
+		} else if (value instanceof BigInteger) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(out, ((BigInteger) value).toByteArray());
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof LocalDate) {
+			out.writeByte(LOCAL_DATE);
+			out.writeLong(((LocalDate) value).toEpochDay());
+		} else if (value instanceof LocalDateTime) {
+			LocalDateTime dateTime = (LocalDateTime) value;
+			out.writeByte(LOCAL_DATE_TIME);
+			out.writeLong(dateTime.toLocalDate().toEpochDay());
+			out.writeLong(dateTime.toLocalTime().toNanoOfDay());
+		} else if (value instanceof LocalTime) {
+			out.writeByte(LOCAL_TIME);
+			out.writeLong(((LocalTime) value).toNanoOfDay());
+		} else if (value instanceof Instant) {
+			Instant instant = (Instant) value;
+			out.writeByte(INSTANT);
+			out.writeLong(instant.getEpochSecond());
+			out.writeInt(instant.getNano());
+		} else if (value instanceof UUID) {
+			UUID uuid = (UUID) value;
+			out.writeByte(UUID_TYPE);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		} else {
+			throw new IllegalArgumentException(
+					"Unsupported cursor value type: " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL:
+			return null;
+		case STRING:
+			return in.readUTF();
+		case INTEGER:
+			return in.readInt();
+		case LONG:
+			return in.readLong();
+		case SHORT:
+			return in.readShort();
+		case BIG_DECIMAL:
+			int scale = in.readInt();
+			return new BigDecimal(new BigInteger(readBytes(in)), scale);
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(in));
+		case BOOLEAN:
+			return in.readBoolean();
+		case LOCAL_DATE:
+			return LocalDate.ofEpochDay(in.readLong());
+		case LOCAL_DATE_TIME:
+			LocalDate date = LocalDate.ofEpochDay(in.readLong());
+			return LocalDateTime.of(date, LocalTime.ofNanoOfDay(in.readLong()));
+		case LOCAL_TIME:
+			return LocalTime.ofNanoOfDay(in.readLong());
+		case INSTANT:
+			return Instant.ofEpochSecond(in.readLong(), in.readInt());
+		case UUID_TYPE:
+			return new UUID(in.readLong(), in.readLong());
+		default:
+			throw new IllegalArgumentException("Unsupported cursor value type: " + type);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes)
+			throws IOException {
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedShort()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.seasar.doma.jdbc.SelectOptions;
+import org.seasar.doma.jdbc.criteria.declaration.ComparisonDeclaration;
+import org.seasar.doma.jdbc.criteria.metamodel.PropertyMetamodel;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Utilities for keyset pagination with {@link KeysetCursor}, as an alternative to
+ * {@link Pageables#toSelectOptions(org.springframework.data.domain.Pageable)} for deep
+ * pages.
+ */
+public final class Keysets {
+
+	private Keysets() {
+	}
+
+	/**
+	 * Converts the page size to {@link SelectOptions}, which limit the rows without an
+	 * offset.
+	 *
+	 * @param size page size
+	 * @return {@link SelectOptions} object to select a page after a cursor
+	 */
+	public static SelectOptions toSelectOptions(int size) {
+		return SelectOptions.get().limit(size);
+	}
+
+	/**
+	 * Creates the cursor of the next page from the last row of a page.
+	 *
+	 * @param rows rows of a page
+	 * @param sortKeys functions that extract the sort key values from a row
+	 * @param <T> type of the rows
+	 * @return the cursor, or {@code null} if the page is empty, i.e. there is no next
+	 * page
+	 */
+	@SafeVarargs
+	public static <T> KeysetCursor nextCursor(List<T> rows,
+			Function<? super T, ?>... sortKeys) {
+		if (rows.isEmpty()) {
+			return null;
+		}
+		T last = rows.get(rows.size() - 1);
+		List<Object> values = new ArrayList<>(sortKeys.length);
+		for (Function<? super T, ?> sortKey : sortKeys) {
+			values.add(sortKey.apply(last));
+		}
+		return KeysetCursor.of(values);
+	}
+
+	/**
+	 * Declares the condition of the rows after the cursor in ascending order of the
+	 * sort keys. Does nothing for the first page.
+	 *
+	 * @param c where declaration of a Criteria query
+	 * @param cursor cursor, {@link KeysetCursor#FIRST} or {@code null}
+	 * @param sortKeys sort keys, in the order of the {@code orderBy} of the query
+	 * @see #after(ComparisonDeclaration, KeysetCursor, Sort.Direction, List)
+	 */
+	public static void after(ComparisonDeclaration c, KeysetCursor cursor,
+			PropertyMetamodel<?>... sortKeys) {
+		after(c, cursor, Sort.Direction.ASC, Arrays.asList(sortKeys));
+	}
+
+	/**
+	 * Declares the condition of the rows after the cursor, i.e.
+	 * {@code (k1 > v1) or (k1 = v1 and k2 > v2) or ...} for ascending order, grouped so
+	 * that it can be combined with other conditions. Row value comparisons are not
+	 * supported by every database, so the condition is expanded. Does nothing for the
+	 * first page.
+	 *
+	 * @param c where declaration of a Criteria query
+	 * @param cursor cursor, {@link KeysetCursor#FIRST} or {@code null}
+	 * @param direction direction of all the sort keys
+	 * @param sortKeys sort keys, in the order of the {@code orderBy} of the query
+	 */
+	public static void after(ComparisonDeclaration c, KeysetCursor cursor,
+			Sort.Direction direction, List<? extends PropertyMetamodel<?>> sortKeys) {
+		if (cursor == null || cursor.isFirst()) {
+			return;
+		}
+		if (cursor.size() != sortKeys.size()) {
+			throw new IllegalArgumentException("Cursor has " + cursor.size()
+					+ " values for " + sortKeys.size() + " sort keys");
+		}
+		c.and(() -> {
+			for (int i = 0; i < sortKeys.size(); i++) {
+				int last = i;
+				Runnable block = () -> {
+					for (int j = 0; j < last; j++) {
+						c.eq(cast(sortKeys.get(j)), cursor.get(j));
+					}
+					if (direction.isAscending()) {
+						c.gt(cast(sortKeys.get(last)), cursor.get(last));
+					} else {
+						c.lt(cast(sortKeys.get(last)), cursor.get(last));
+					}
+				};
+				if (i == 0) {
+					c.and(block);
+				} else {
+					c.or(block);
+				}
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static PropertyMetamodel<Object> cast(PropertyMetamodel<?> sortKey) {
+		return (PropertyMetamodel<Object>) sortKey;
+	}
+}
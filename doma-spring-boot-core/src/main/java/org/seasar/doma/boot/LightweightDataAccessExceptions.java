@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.TypeMismatchDataAccessException;
+
+/**
+ * Subclasses of Spring's {@link org.springframework.dao.DataAccessException}s created by
+ * {@link DomaPersistenceExceptionTranslator} for expected failures.
+ * <p>
+ * A {@code null} message is derived from the cause when it is requested, and the stack
+ * trace is captured only if asked to. Both are implemented by {@link Lightweight}, which
+ * the subclasses delegate to. {@link Throwable} calls the overridden
+ * {@code fillInStackTrace()} before the fields of a subclass are initialized, so it does
+ * nothing and {@link Lightweight} captures the stack trace explicitly.
+ */
+final class LightweightDataAccessExceptions {
+
+	private LightweightDataAccessExceptions() {
+	}
+
+	static String messageOf(Throwable cause) {
+		return NestedExceptionUtils.buildMessage(cause.getMessage(), cause);
+	}
+
+	/**
+	 * Lazy message and optional stack trace of an exception.
+	 */
+	static final class Lightweight {
+
+		private final boolean lazyMessage;
+
+		/**
+		 * Must be called by the constructor of the exception.
+		 *
+		 * @param exception exception being constructed
+		 * @param message message of the exception, or {@code null} to derive it from the
+		 * cause
+		 * @param stackTrace whether to capture the stack trace
+		 */
+		Lightweight(Throwable exception, String message, boolean stackTrace) {
+			this.lazyMessage = message == null;
+			if (stackTrace) {
+				StackTraceElement[] trace = new Throwable().getStackTrace();
+				// Skip this constructor and the constructor of the exception
+				exception.setStackTrace(Arrays.copyOfRange(trace, 2, trace.length));
+			}
+		}
+
+		String getMessage(Throwable exception, Supplier<String> message) {
+			return lazyMessage ? messageOf(exception.getCause()) : message.get();
+		}
+	}
+
+	static class OptimisticLockingFailure extends OptimisticLockingFailureException {
+
+		private final Lightweight lightweight;
+
+		OptimisticLockingFailure(String message, Throwable cause, boolean stackTrace) {
+			super(message, cause);
+			this.lightweight = new Lightweight(this, message, stackTrace);
+		}
+
+		@Override
+		public String getMessage() {
+			return lightweight.getMessage(this, super::getMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static class DuplicateKey extends DuplicateKeyException {
+
+		private final Lightweight lightweight;
+
+		DuplicateKey(String message, Throwable cause, boolean stackTrace) {
+			super(message, cause);
+			this.lightweight = new Lightweight(this, message, stackTrace);
+		}
+
+		@Override
+		public String getMessage() {
+			return lightweight.getMessage(this, super::getMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static class IncorrectResultSize extends IncorrectResultSizeDataAccessException {
+
+		private final Lightweight lightweight;
+
+		IncorrectResultSize(String message, Throwable cause, boolean stackTrace) {
+			super(message, 1, cause);
+			this.lightweight = new Lightweight(this, message, stackTrace);
+		}
+
+		@Override
+		public String getMessage() {
+			return lightweight.getMessage(this, super::getMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static class EmptyResult extends EmptyResultDataAccessException {
+
+		private final Lightweight lightweight;
+
+		EmptyResult(String message, Throwable cause, boolean stackTrace) {
+			super(message, 1, cause);
+			this.lightweight = new Lightweight(this, message, stackTrace);
+		}
+
+		@Override
+		public String getMessage() {
+			return lightweight.getMessage(this, super::getMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static class TypeMismatch extends TypeMismatchDataAccessException {
+
+		private final Lightweight lightweight;
+
+		TypeMismatch(String message, Throwable cause, boolean stackTrace) {
+			super(message, cause);
+			this.lightweight = new Lightweight(this, message, stackTrace);
+		}
+
+		@Override
+		public String getMessage() {
+			return lightweight.getMessage(this, super::getMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+}
@@ -15,11 +15,27 @@
  */
 package org.seasar.doma.boot;
 
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.seasar.doma.boot.SqlCapturingJdbcLogger.Captured;
 import org.seasar.doma.jdbc.SelectOptions;
+import org.seasar.doma.jdbc.dialect.Dialect;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.repository.support.PageableExecutionUtils;
 
 /**
  * Converts Utilities for {@link Pageable} to be used with Doma.
+ * <p>
+ * The {@code toPage} and {@code toSlice} methods run a select with the
+ * {@link SelectOptions} of the page, e.g.
+ * {@code Pageables.toPage(pageable, options -> dao.selectAll(options))}, and wrap the
+ * result with the total count as the strategy specifies.
  *
  * @author Toshiaki Maki
  */
@@ -36,4 +52,173 @@ public final class Pageables {
 		final int limit = pageable.getPageSize();
 		return SelectOptions.get().offset(offset).limit(limit);
 	}
+
+	/**
+	 * Selects a page and counts the rows with {@link CountStrategy#SEPARATE}.
+	 *
+	 * @param pageable page to select
+	 * @param select select of a DAO that accepts the {@link SelectOptions}
+	 * @param <T> type of the rows
+	 * @return the page
+	 */
+	public static <T> Page<T> toPage(Pageable pageable,
+			Function<SelectOptions, List<T>> select) {
+		return toPage(pageable, CountStrategy.SEPARATE, select);
+	}
+
+	/**
+	 * Selects a page and counts the rows with the strategy.
+	 *
+	 * @param pageable page to select
+	 * @param strategy how to count the rows
+	 * @param select select of a DAO that accepts the {@link SelectOptions}
+	 * @param <T> type of the rows
+	 * @return the page
+	 */
+	public static <T> Page<T> toPage(Pageable pageable, CountStrategy strategy,
+			Function<SelectOptions, List<T>> select) {
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(select.apply(SelectOptions.get()));
+		}
+		switch (strategy) {
+		case SEPARATE:
+			SelectOptions options = toSelectOptions(pageable).count();
+			List<T> content = select.apply(options);
+			return new PageImpl<>(content, pageable, options.getCount());
+		case SKIP_SHORT_PAGE:
+			return PageableExecutionUtils.getPage(
+					select.apply(toSelectOptions(pageable)), pageable,
+					() -> count(select));
+		default:
+			throw new IllegalArgumentException(strategy.name());
+		}
+	}
+
+	/**
+	 * Selects a page and serves the count from the cache. The count is not needed when
+	 * the page shows the total, as {@link CountStrategy#SKIP_SHORT_PAGE}. Otherwise the
+	 * cached count of the same SQL file and bind parameters is used, or the rows are
+	 * counted and cached on a miss.
+	 *
+	 * @param pageable page to select
+	 * @param cache cache of the counts
+	 * @param entityClass entity class whose inserts and deletes invalidate the count
+	 * @param select select of a DAO that accepts the {@link SelectOptions}
+	 * @param <T> type of the rows
+	 * @return the page
+	 */
+	public static <T> Page<T> toPage(Pageable pageable, DomaCountCache cache,
+			Class<?> entityClass, Function<SelectOptions, List<T>> select) {
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(select.apply(SelectOptions.get()));
+		}
+		Captured<List<T>> captured = SqlCapturingJdbcLogger
+				.capture(() -> select.apply(toSelectOptions(pageable)));
+		return PageableExecutionUtils.getPage(captured.result, pageable,
+				() -> cache.get(entityClass, captured.sql, () -> count(select)));
+	}
+
+	/**
+	 * Selects a page whose rows carry the total count, which is the single round-trip
+	 * strategy. The SQL selects {@code COUNT(*) OVER()} into a property of the rows,
+	 * e.g. {@code select m.*, count(*) over() as total_count from message m}. Databases
+	 * compute the window function before the offset and limit, so each row has the
+	 * count of all the rows. Only when a page after the first is empty, the first row
+	 * is selected again to get the count.
+	 *
+	 * @param pageable page to select
+	 * @param select select of a DAO that accepts the {@link SelectOptions}
+	 * @param totalCount function that extracts the total count from a row
+	 * @param <T> type of the rows
+	 * @return the page
+	 * @see #supportsWindowCount(Dialect)
+	 */
+	public static <T> Page<T> toPage(Pageable pageable,
+			Function<SelectOptions, List<T>> select,
+			ToLongFunction<? super T> totalCount) {
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(select.apply(SelectOptions.get()));
+		}
+		List<T> content = select.apply(toSelectOptions(pageable));
+		long total;
+		if (!content.isEmpty()) {
+			total = totalCount.applyAsLong(content.get(0));
+		} else if (pageable.getPageNumber() == 0) {
+			total = 0;
+		} else {
+			List<T> first = select.apply(SelectOptions.get().limit(1));
+			total = first.isEmpty() ? 0 : totalCount.applyAsLong(first.get(0));
+		}
+		return new PageImpl<>(content, pageable, total);
+	}
+
+	/**
+	 * Selects a slice, which never counts the rows. One more row than the page size is
+	 * selected to know whether the next slice exists.
+	 *
+	 * @param pageable slice to select
+	 * @param select select of a DAO that accepts the {@link SelectOptions}
+	 * @param <T> type of the rows
+	 * @return the slice
+	 */
+	public static <T> Slice<T> toSlice(Pageable pageable,
+			Function<SelectOptions, List<T>> select) {
+		if (pageable.isUnpaged()) {
+			return new SliceImpl<>(select.apply(SelectOptions.get()));
+		}
+		final int offset = pageable.getPageNumber() * pageable.getPageSize();
+		final int limit = pageable.getPageSize();
+		List<T> content = select
+				.apply(SelectOptions.get().offset(offset).limit(limit + 1));
+		boolean hasNext = content.size() > limit;
+		return new SliceImpl<>(hasNext ? content.subList(0, limit) : content, pageable,
+				hasNext);
+	}
+
+	/**
+	 * Whether the database of the dialect supports {@code COUNT(*) OVER()} in all the
+	 * versions supported by Doma, which is required by
+	 * {@link #toPage(Pageable, Function, ToLongFunction)}.
+	 *
+	 * @param dialect dialect of the database
+	 * @return {@code true} if the database supports {@code COUNT(*) OVER()}
+	 */
+	public static boolean supportsWindowCount(Dialect dialect) {
+		switch (dialect.getName()) {
+		case "db2":
+		case "h2":
+		case "mssql":
+		case "oracle":
+		case "postgres":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static long count(Function<SelectOptions, ?> select) {
+		SelectOptions options = SelectOptions.get().limit(1).count();
+		select.apply(options);
+		return options.getCount();
+	}
+
+	/**
+	 * Strategies to count the rows of a {@link Page}.
+	 */
+	public enum CountStrategy {
+
+		/**
+		 * Selects the page with {@link SelectOptions#count()}, so Doma always runs a
+		 * count query besides the select.
+		 */
+		SEPARATE,
+
+		/**
+		 * Skips the count query when the total is known from the page, i.e. the first
+		 * page is not full or the last page is selected. Otherwise the count query
+		 * runs with a select of one row, so prefer {@link #SEPARATE} when most pages
+		 * are full.
+		 */
+		SKIP_SHORT_PAGE
+	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.seasar.doma.jdbc.Naming;
+import org.seasar.doma.jdbc.criteria.declaration.OrderByNameDeclaration;
+import org.seasar.doma.jdbc.criteria.metamodel.EntityMetamodel;
+import org.seasar.doma.jdbc.criteria.metamodel.PropertyMetamodel;
+import org.seasar.doma.jdbc.entity.EntityPropertyType;
+import org.seasar.doma.jdbc.entity.EntityType;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Translates {@link Sort} of a {@link org.springframework.data.domain.Pageable} into an
+ * ORDER BY of Doma queries, so that the database sorts the rows before paging.
+ * <p>
+ * Only the whitelisted properties of an entity can be sorted, because the properties
+ * usually come from request parameters. They are mapped to the columns with the Doma
+ * metamodel of the entity and the {@link Naming} of the
+ * {@link org.seasar.doma.jdbc.Config}. In a SQL file, the fragment is embedded with an embedded variable:
+ *
+ * <pre>
+ * select * from message order by &#47;*# orderBy *&#47;id
+ * </pre>
+ *
+ * where {@code orderBy} is {@code mapping.toOrderBy(pageable.getSort())} and ends with a
+ * comma unless it is empty, so that the unique key after it keeps the order stable. For
+ * Entityql, use {@link #orderBy(OrderByNameDeclaration, EntityMetamodel, Sort)}.
+ * <p>
+ * Instances are immutable and can be shared.
+ */
+public final class SortMapping {
+
+	private final Map<String, String> columns;
+
+	private SortMapping(Map<String, String> columns) {
+		this.columns = columns;
+	}
+
+	/**
+	 * @param entityType metamodel of the entity, e.g.
+	 * {@code _Message.getSingletonInternal()} or {@code new Message_().asType()}
+	 * @param naming naming convention of the columns
+	 * @param properties names of the properties that can be sorted
+	 * @return the mapping
+	 * @throws IllegalArgumentException if the entity does not have a property
+	 */
+	public static SortMapping of(EntityType<?> entityType, Naming naming,
+			String... properties) {
+		Map<String, String> columns = new LinkedHashMap<>();
+		for (String property : properties) {
+			EntityPropertyType<?, ?> propertyType = entityType
+					.getEntityPropertyType(property);
+			if (propertyType == null) {
+				throw new IllegalArgumentException("Entity " + entityType.getName()
+						+ " does not have property " + property);
+			}
+			columns.put(property, propertyType.getColumnName(naming::apply));
+		}
+		return new SortMapping(Collections.unmodifiableMap(columns));
+	}
+
+	/**
+	 * @param alias alias of the table in the SQL
+	 * @return the mapping whose columns are qualified with the alias
+	 */
+	public SortMapping withTableAlias(String alias) {
+		Map<String, String> qualified = new LinkedHashMap<>();
+		columns.forEach((property, column) -> qualified.put(property,
+				alias + "." + column));
+		return new SortMapping(Collections.unmodifiableMap(qualified));
+	}
+
+	/**
+	 * @param sort sort to translate
+	 * @return the ORDER BY items followed by a comma, e.g. {@code "text desc, "}, or an
+	 * empty string if the sort is unsorted
+	 * @throws IllegalArgumentException if a property is not whitelisted or the order
+	 * cannot be translated
+	 */
+	public String toOrderBy(Sort sort) {
+		StringBuilder orderBy = new StringBuilder();
+		for (Sort.Order order : sort) {
+			orderBy.append(columnOf(order))
+					.append(order.isAscending() ? " asc, " : " desc, ");
+		}
+		return orderBy.toString();
+	}
+
+	/**
+	 * Declares the order of an Entityql or NativeSql query.
+	 *
+	 * @param c order by declaration of a Criteria query
+	 * @param entity metamodel of the entity in the query
+	 * @param sort sort to translate
+	 * @throws IllegalArgumentException if a property is not whitelisted or the order
+	 * cannot be translated
+	 */
+	public void orderBy(OrderByNameDeclaration c, EntityMetamodel<?> entity, Sort sort) {
+		for (Sort.Order order : sort) {
+			columnOf(order);
+			PropertyMetamodel<?> property = entity.allPropertyMetamodels().stream()
+					.filter(p -> p.getName().equals(order.getProperty())).findFirst()
+					.orElseThrow(() -> new IllegalArgumentException(
+							"Entity metamodel does not have property "
+									+ order.getProperty()));
+			if (order.isAscending()) {
+				c.asc(property);
+			} else {
+				c.desc(property);
+			}
+		}
+	}
+
+	private String columnOf(Sort.Order order) {
+		String column = columns.get(order.getProperty());
+		if (column == null) {
+			throw new IllegalArgumentException(
+					"Property " + order.getProperty() + " cannot be sorted");
+		}
+		// Both change the order silently when they are dropped
+		if (order.isIgnoreCase()) {
+			throw new IllegalArgumentException(
+					"Ignore case of property " + order.getProperty() + " is not supported");
+		}
+		if (order.getNullHandling() != Sort.NullHandling.NATIVE) {
+			throw new IllegalArgumentException("Null handling of property "
+					+ order.getProperty() + " is not supported");
+		}
+		return column;
+	}
+
+	@Override
+	public String toString() {
+		return "SortMapping" + columns;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.seasar.doma.jdbc.JdbcLogger;
+import org.seasar.doma.jdbc.Sql;
+import org.seasar.doma.jdbc.SqlExecutionSkipCause;
+import org.seasar.doma.jdbc.SqlKind;
+
+/**
+ * {@link JdbcLogger} that remembers the first select run by the current thread within
+ * {@link #capture(Supplier)}, and delegates everything to another logger. Doma passes
+ * every SQL to {@link JdbcLogger#logSql(String, String, Sql)} whatever the log level is,
+ * so this sees the SQL file path and the bind parameters of DAO selects.
+ */
+final class SqlCapturingJdbcLogger implements JdbcLogger {
+
+	private static final ThreadLocal<Capture> CAPTURE = new ThreadLocal<>();
+
+	private final JdbcLogger delegate;
+
+	SqlCapturingJdbcLogger(JdbcLogger delegate) {
+		this.delegate = Objects.requireNonNull(delegate);
+	}
+
+	/**
+	 * @param action action that runs a select
+	 * @param <R> result type of the action
+	 * @return the result and the first select of the action, which is {@code null} if
+	 * the config of the select does not use this logger
+	 */
+	static <R> Captured<R> capture(Supplier<R> action) {
+		Capture outer = CAPTURE.get();
+		Capture capture = new Capture();
+		CAPTURE.set(capture);
+		try {
+			return new Captured<>(action.get(), capture.sql);
+		} finally {
+			if (outer != null) {
+				CAPTURE.set(outer);
+			} else {
+				CAPTURE.remove();
+			}
+		}
+	}
+
+	@Override
+	public void logSql(String callerClassName, String callerMethodName, Sql<?> sql) {
+		Capture capture = CAPTURE.get();
+		if (capture != null && capture.sql == null && sql.getKind() == SqlKind.SELECT) {
+			capture.sql = sql;
+		}
+		delegate.logSql(callerClassName, callerMethodName, sql);
+	}
+
+	@Override
+	public void logDaoMethodEntering(String callerClassName, String callerMethodName,
+			Object... args) {
+		delegate.logDaoMethodEntering(callerClassName, callerMethodName, args);
+	}
+
+	@Override
+	public void logDaoMethodExiting(String callerClassName, String callerMethodName,
+			Object result) {
+		delegate.logDaoMethodExiting(callerClassName, callerMethodName, result);
+	}
+
+	@Override
+	public void logDaoMethodThrowing(String callerClassName, String callerMethodName,
+			RuntimeException e) {
+		delegate.logDaoMethodThrowing(callerClassName, callerMethodName, e);
+	}
+
+	@Override
+	public void logSqlExecutionSkipping(String callerClassName, String callerMethodName,
+			SqlExecutionSkipCause cause) {
+		delegate.logSqlExecutionSkipping(callerClassName, callerMethodName, cause);
+	}
+
+	@Override
+	public void logTransactionBegun(String callerClassName, String callerMethodName,
+			String transactionId) {
+		delegate.logTransactionBegun(callerClassName, callerMethodName, transactionId);
+	}
+
+	@Override
+	public void logTransactionEnded(String callerClassName, String callerMethodName,
+			String transactionId) {
+		delegate.logTransactionEnded(callerClassName, callerMethodName, transactionId);
+	}
+
+	@Override
+	public void logTransactionCommitted(String callerClassName, String callerMethodName,
+			String transactionId) {
+		delegate.logTransactionCommitted(callerClassName, callerMethodName,
+				transactionId);
+	}
+
+	@Override
+	public void logTransactionSavepointCreated(String callerClassName,
+			String callerMethodName, String transactionId, String savepointName) {
+		delegate.logTransactionSavepointCreated(callerClassName, callerMethodName,
+				transactionId, savepointName);
+	}
+
+	@Override
+	public void logTransactionRolledback(String callerClassName, String callerMethodName,
+			String transactionId) {
+		delegate.logTransactionRolledback(callerClassName, callerMethodName,
+				transactionId);
+	}
+
+	@Override
+	public void logTransactionSavepointRolledback(String callerClassName,
+			String callerMethodName, String transactionId, String savepointName) {
+		delegate.logTransactionSavepointRolledback(callerClassName, callerMethodName,
+				transactionId, savepointName);
+	}
+
+	@Override
+	public void logTransactionSavepointReleased(String callerClassName,
+			String callerMethodName, String transactionId, String savepointName) {
+		delegate.logTransactionSavepointReleased(callerClassName, callerMethodName,
+				transactionId, savepointName);
+	}
+
+	@Override
+	public void logTransactionRollbackFailure(String callerClassName,
+			String callerMethodName, String transactionId, SQLException e) {
+		delegate.logTransactionRollbackFailure(callerClassName, callerMethodName,
+				transactionId, e);
+	}
+
+	@Override
+	public void logAutoCommitEnablingFailure(String callerClassName,
+			String callerMethodName, SQLException e) {
+		delegate.logAutoCommitEnablingFailure(callerClassName, callerMethodName, e);
+	}
+
+	@Override
+	public void logTransactionIsolationSettingFailure(String callerClassName,
+			String callerMethodName, int transactionIsolationLevel, SQLException e) {
+		delegate.logTransactionIsolationSettingFailure(callerClassName,
+				callerMethodName, transactionIsolationLevel, e);
+	}
+
+	@Override
+	public void logConnectionClosingFailure(String callerClassName,
+			String callerMethodName, SQLException e) {
+		delegate.logConnectionClosingFailure(callerClassName, callerMethodName, e);
+	}
+
+	@Override
+	public void logStatementClosingFailure(String callerClassName,
+			String callerMethodName, SQLException e) {
+		delegate.logStatementClosingFailure(callerClassName, callerMethodName, e);
+	}
+
+	@Override
+	public void logResultSetClosingFailure(String callerClassName,
+			String callerMethodName, SQLException e) {
+		delegate.logResultSetClosingFailure(callerClassName, callerMethodName, e);
+	}
+
+	private static final class Capture {
+		Sql<?> sql;
+	}
+
+	static final class Captured<R> {
+		final R result;
+		final Sql<?> sql;
+
+		Captured(R result, Sql<?> sql) {
+			this.result = result;
+			this.sql = sql;
+		}
+	}
+}
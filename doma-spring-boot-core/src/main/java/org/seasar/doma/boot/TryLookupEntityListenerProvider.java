@@ -15,7 +15,8 @@
  */
 package org.seasar.doma.boot;
 
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
 
 import org.seasar.doma.jdbc.EntityListenerProvider;
@@ -23,33 +24,63 @@ import org.seasar.doma.jdbc.entity.EntityListener;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ApplicationContextEvent;
 
 /**
  * {@link EntityListenerProvider} implementation that {@link EntityListener} managed by
  * Spring Framework, or else created by Doma.
+ * <p>
+ * Singleton listeners, and listeners created by Doma, are cached per listener class, so
+ * the bean lookup runs only once for each class. Listeners of other scopes, such as
+ * prototype, are looked up on every call. The cache is cleared whenever the
+ * application context, or one of its child contexts, is refreshed or closed.
  * 
  * @author backpaper0
  *
  */
 public class TryLookupEntityListenerProvider implements EntityListenerProvider,
-		ApplicationContextAware {
+		ApplicationContextAware, ApplicationListener<ApplicationContextEvent> {
+
+	private final ConcurrentMap<Class<?>, EntityListener<?>> listeners = new ConcurrentHashMap<>();
 
 	private ApplicationContext context;
 
 	@Override
 	public <ENTITY, LISTENER extends EntityListener<ENTITY>> LISTENER get(
 			Class<LISTENER> listenerClass, Supplier<LISTENER> listenerSupplier) {
-		Map<String, LISTENER> beans = context.getBeansOfType(listenerClass);
-		if (beans.size() > 1) {
-			throw new IllegalStateException("Bean type of " + listenerClass
-					+ " bean must be unique!");
+		EntityListener<?> listener = listeners.get(listenerClass);
+		if (listener == null) {
+			String[] beanNames = context.getBeanNamesForType(listenerClass);
+			if (beanNames.length > 1) {
+				throw new IllegalStateException("Bean type of " + listenerClass
+						+ " bean must be unique!");
+			}
+			if (beanNames.length == 1 && context.isSingleton(beanNames[0]) == false) {
+				// Prototype and scoped listeners must be resolved every time
+				return context.getBean(beanNames[0], listenerClass);
+			}
+			listener = beanNames.length == 1
+					? context.getBean(beanNames[0], listenerClass)
+					: listenerSupplier.get();
+			EntityListener<?> existing = listeners.putIfAbsent(listenerClass, listener);
+			if (existing != null) {
+				listener = existing;
+			}
 		}
-		return beans.values().stream().findAny().orElseGet(listenerSupplier);
+		return listenerClass.cast(listener);
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationContextEvent event) {
+		// Bean definitions may have changed, so resolve listeners again
+		listeners.clear();
 	}
 
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext)
 			throws BeansException {
 		this.context = applicationContext;
+		this.listeners.clear();
 	}
 }
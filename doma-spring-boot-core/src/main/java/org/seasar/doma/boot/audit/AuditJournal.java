@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of {@link AuditRecord}s stored in memory-mapped segment files.
+ * <br>
+ * <br>
+ * Each call of {@link #append(List)} writes one frame, which holds the records of a
+ * transaction, so the records of a transaction are read all or nothing. Appending
+ * threads reserve their frames with a compare-and-set on the position of the current
+ * segment and copy them into the mapped memory without locking. When the current
+ * segment is full, a new segment file is created and mapped. <br>
+ * <br>
+ * Frames are made durable according to the {@link FsyncPolicy}. A frame consists of its
+ * length, the CRC-32 of its content, a magic number and the content itself. Frames whose
+ * checksum does not match, such as frames torn by a crash, are skipped by
+ * {@link AuditJournalReader}. Since frames are reserved concurrently, a crash can also
+ * leave a reserved frame without a header before frames that were written completely;
+ * such gaps are skipped by searching for the magic number of the next valid frame.
+ * Segment files are named after their sequence numbers, e.g.
+ * {@code 00000000000000000000.journal}, and are never deleted by this class.
+ */
+public class AuditJournal implements Closeable {
+
+	static final String SEGMENT_SUFFIX = ".journal";
+	static final int FRAME_HEADER_SIZE = 12;
+	private static final int FRAME_MAGIC = 0x41554446;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final FsyncPolicy fsyncPolicy;
+	private final AtomicLong lastFsync = new AtomicLong(System.nanoTime());
+	private volatile long fsyncIntervalNanos = Duration.ofSeconds(1).toNanos();
+	private volatile Segment current;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the journal, continuing after the last frame of the last segment file if the
+	 * directory already contains segment files.
+	 *
+	 * @param directory directory of the segment files
+	 * @param segmentSize size of a segment file in bytes
+	 * @param fsyncPolicy when to force appended frames to the storage
+	 * @throws IOException if the segment file cannot be mapped
+	 */
+	public AuditJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy)
+			throws IOException {
+		if (segmentSize <= FRAME_HEADER_SIZE) {
+			throw new IllegalArgumentException("Segment size is too small: "
+					+ segmentSize);
+		}
+		this.directory = Objects.requireNonNull(directory);
+		this.segmentSize = segmentSize;
+		this.fsyncPolicy = Objects.requireNonNull(fsyncPolicy);
+		Files.createDirectories(directory);
+		List<Path> segments = AuditJournalReader.segments(directory);
+		this.current = segments.isEmpty() ? Segment.open(directory, 0, segmentSize)
+				: Segment.open(directory,
+						AuditJournalReader.sequenceOf(segments.get(segments.size() - 1)),
+						segmentSize);
+	}
+
+	/**
+	 * Appends the records as one frame.
+	 *
+	 * @param records records of a transaction
+	 * @throws IllegalArgumentException if the frame does not fit in a segment
+	 * @throws UncheckedIOException if a new segment file cannot be mapped
+	 */
+	public void append(List<AuditRecord> records) {
+		if (records.isEmpty()) {
+			return;
+		}
+		byte[] frame = encode(records);
+		checkFrameSize(frame.length - FRAME_HEADER_SIZE);
+		for (;;) {
+			if (closed) {
+				throw new IllegalStateException("Audit journal is closed");
+			}
+			Segment segment = current;
+			int offset = segment.reserve(frame.length);
+			if (offset >= 0) {
+				segment.write(offset, frame);
+				fsync(segment);
+				return;
+			}
+			rotate(segment);
+		}
+	}
+
+	/**
+	 * Sets the minimum interval between forces for {@link FsyncPolicy#INTERVAL}.
+	 *
+	 * @param fsyncInterval interval
+	 */
+	public void setFsyncInterval(Duration fsyncInterval) {
+		this.fsyncIntervalNanos = fsyncInterval.toNanos();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Checks that the records of a transaction fit in a frame before they are appended.
+	 *
+	 * @param contentSize size of the records in bytes
+	 * @throws IllegalArgumentException if the frame does not fit in a segment
+	 * @see #contentSize(List)
+	 */
+	void checkFrameSize(long contentSize) {
+		long frameSize = FRAME_HEADER_SIZE + contentSize;
+		if (frameSize > segmentSize) {
+			throw new IllegalArgumentException("Frame of " + frameSize
+					+ " bytes exceeds segment size " + segmentSize);
+		}
+	}
+
+	/**
+	 * @param records records
+	 * @return the size of the records in a frame in bytes
+	 */
+	static long contentSize(List<AuditRecord> records) {
+		long size = 0;
+		for (AuditRecord record : records) {
+			size += 8 + 1 + 2 + record.getEntityType().getBytes(StandardCharsets.UTF_8).length
+					+ 4 + record.getPayload().length;
+		}
+		return size;
+	}
+
+	private void fsync(Segment segment) {
+		switch (fsyncPolicy) {
+		case ALWAYS:
+			segment.buffer.force();
+			break;
+		case INTERVAL:
+			long now = System.nanoTime();
+			long last = lastFsync.get();
+			if (now - last >= fsyncIntervalNanos && lastFsync.compareAndSet(last, now)) {
+				segment.buffer.force();
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private synchronized void rotate(Segment full) {
+		// Another thread may have rotated while this thread was waiting
+		if (current != full || closed) {
+			return;
+		}
+		if (fsyncPolicy != FsyncPolicy.NEVER) {
+			full.buffer.force();
+		}
+		try {
+			current = Segment.open(directory, full.sequence + 1, segmentSize);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Forces the current segment to the storage. The mapped memory is released when it
+	 * is garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed == false) {
+			closed = true;
+			current.buffer.force();
+		}
+	}
+
+	private static byte[] encode(List<AuditRecord> records) {
+		int size = FRAME_HEADER_SIZE;
+		byte[][] entityTypes = new byte[records.size()][];
+		for (int i = 0; i < entityTypes.length; i++) {
+			AuditRecord record = records.get(i);
+			entityTypes[i] = record.getEntityType().getBytes(StandardCharsets.UTF_8);
+			size += 8 + 1 + 2 + entityTypes[i].length + 4 + record.getPayload().length;
+		}
+		ByteBuffer frame = ByteBuffer.allocate(size);
+		((Buffer) frame).position(FRAME_HEADER_SIZE);
+		for (int i = 0; i < entityTypes.length; i++) {
+			AuditRecord record = records.get(i);
+			frame.putLong(record.getTimestamp().toEpochMilli());
+			frame.put((byte) record.getEventType().ordinal());
+			frame.putShort((short) entityTypes[i].length);
+			frame.put(entityTypes[i]);
+			frame.putInt(record.getPayload().length);
+			frame.put(record.getPayload());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(frame.array(), FRAME_HEADER_SIZE, size - FRAME_HEADER_SIZE);
+		frame.putInt(0, size);
+		frame.putInt(4, (int) crc.getValue());
+		frame.putInt(8, FRAME_MAGIC);
+		return frame.array();
+	}
+
+	/**
+	 * Passes the content of each valid frame to the consumer.
+	 *
+	 * @param buffer content of a segment file
+	 * @param consumer consumer of the frame contents
+	 * @return the offset next to the last frame that has a header, where appending can
+	 * continue without overwriting written frames
+	 */
+	static int forEachFrame(ByteBuffer buffer, Consumer<ByteBuffer> consumer) {
+		int offset = 0;
+		int end = 0;
+		while (offset + FRAME_HEADER_SIZE <= buffer.limit()) {
+			int length = lengthAt(buffer, offset);
+			if (length < 0) {
+				// Unused space at the end of the segment, or a frame reserved by a
+				// writer that crashed before writing its header. Frames reserved after
+				// it may have been written, so look for the next one
+				offset = nextFrame(buffer, offset + 1);
+				if (offset < 0) {
+					break;
+				}
+				continue;
+			}
+			ByteBuffer content = contentAt(buffer, offset, length);
+			if (checksumMatches(buffer, offset, content)) {
+				consumer.accept(content.slice());
+			}
+			offset += length;
+			end = offset;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the length of the frame at the offset, or {@code -1} if there is no frame
+	 * header at the offset
+	 */
+	private static int lengthAt(ByteBuffer buffer, int offset) {
+		if (offset + FRAME_HEADER_SIZE > buffer.limit()
+				|| buffer.getInt(offset + 8) != FRAME_MAGIC) {
+			return -1;
+		}
+		int length = buffer.getInt(offset);
+		if (length <= FRAME_HEADER_SIZE || length > buffer.limit() - offset) {
+			return -1;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the offset of the first valid frame at or after the offset, or {@code -1}
+	 * if there is none
+	 */
+	private static int nextFrame(ByteBuffer buffer, int offset) {
+		for (int i = offset; i + FRAME_HEADER_SIZE <= buffer.limit(); i++) {
+			int length = lengthAt(buffer, i);
+			// The magic number may appear in the content of a torn frame by chance, so
+			// the checksum has to match as well
+			if (length >= 0 && checksumMatches(buffer, i, contentAt(buffer, i, length))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static ByteBuffer contentAt(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer content = buffer.duplicate();
+		((Buffer) content).limit(offset + length);
+		((Buffer) content).position(offset + FRAME_HEADER_SIZE);
+		return content;
+	}
+
+	private static boolean checksumMatches(ByteBuffer buffer, int offset,
+			ByteBuffer content) {
+		CRC32 crc = new CRC32();
+		crc.update(content.duplicate());
+		return (int) crc.getValue() == buffer.getInt(offset + 4);
+	}
+
+	/**
+	 * When appended frames are forced to the storage.
+	 */
+	public enum FsyncPolicy {
+
+		/**
+		 * Forces after every append, before the appending thread returns.
+		 */
+		ALWAYS,
+
+		/**
+		 * Forces on an append if the fsync interval has elapsed since the last force.
+		 */
+		INTERVAL,
+
+		/**
+		 * Leaves writing back to the operating system, except on rotation and close.
+		 */
+		NEVER
+	}
+
+	private static final class Segment {
+
+		final long sequence;
+		final MappedByteBuffer buffer;
+		final AtomicInteger position;
+
+		private Segment(long sequence, MappedByteBuffer buffer, int position) {
+			this.sequence = sequence;
+			this.buffer = buffer;
+			this.position = new AtomicInteger(position);
+		}
+
+		static Segment open(Path directory, long sequence, int segmentSize)
+				throws IOException {
+			Path path = directory.resolve(AuditJournalReader.fileName(sequence));
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long size = channel.size() > 0 ? channel.size() : segmentSize;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+						size);
+				// Continue after the last frame of an existing segment, which may be
+				// preceded by frames torn by a crash
+				int position = forEachFrame(buffer, content -> {
+				});
+				return new Segment(sequence, buffer, position);
+			}
+		}
+
+		/**
+		 * @return the offset of the reserved space, or {@code -1} if the segment is full
+		 */
+		int reserve(int length) {
+			for (;;) {
+				int offset = position.get();
+				if (offset + length > buffer.capacity()) {
+					return -1;
+				}
+				if (position.compareAndSet(offset, offset + length)) {
+					return offset;
+				}
+			}
+		}
+
+		void write(int offset, byte[] frame) {
+			ByteBuffer target = buffer.duplicate();
+			// The length and the magic number first, so that readers can skip this
+			// frame until its checksum has been written
+			target.putInt(offset, frame.length);
+			target.putInt(offset + 8, FRAME_MAGIC);
+			((Buffer) target).position(offset + FRAME_HEADER_SIZE);
+			target.put(frame, FRAME_HEADER_SIZE, frame.length - FRAME_HEADER_SIZE);
+			((Buffer) target).position(offset + 4);
+			target.put(frame, 4, 4);
+		}
+	}
+}
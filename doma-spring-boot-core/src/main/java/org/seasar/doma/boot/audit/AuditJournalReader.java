@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the records of an {@link AuditJournal} in the order they were appended.
+ */
+public class AuditJournalReader {
+
+	private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("\\d{20}"
+			+ Pattern.quote(AuditJournal.SEGMENT_SUFFIX));
+	private static final AuditEventType[] EVENT_TYPES = AuditEventType.values();
+
+	private final Path directory;
+
+	/**
+	 * @param directory directory of the segment files
+	 */
+	public AuditJournalReader(Path directory) {
+		this.directory = Objects.requireNonNull(directory);
+	}
+
+	/**
+	 * Passes every record of the journal to the consumer, from the oldest segment file to
+	 * the newest one.
+	 *
+	 * @param consumer consumer of the records
+	 * @throws IOException if a segment file cannot be read
+	 */
+	public void replay(Consumer<? super AuditRecord> consumer) throws IOException {
+		for (Path segment : segments(directory)) {
+			try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+				AuditJournal.forEachFrame(buffer, frame -> decode(frame, consumer));
+			}
+		}
+	}
+
+	/**
+	 * @return all records of the journal
+	 * @throws IOException if a segment file cannot be read
+	 */
+	public List<AuditRecord> readAll() throws IOException {
+		List<AuditRecord> records = new ArrayList<>();
+		replay(records::add);
+		return records;
+	}
+
+	private static void decode(ByteBuffer frame, Consumer<? super AuditRecord> consumer) {
+		while (frame.hasRemaining()) {
+			Instant timestamp = Instant.ofEpochMilli(frame.getLong());
+			AuditEventType eventType = EVENT_TYPES[frame.get()];
+			byte[] entityType = new byte[Short.toUnsignedInt(frame.getShort())];
+			frame.get(entityType);
+			byte[] payload = new byte[frame.getInt()];
+			frame.get(payload);
+			consumer.accept(new AuditRecord(timestamp, eventType,
+					new String(entityType, StandardCharsets.UTF_8), payload));
+		}
+	}
+
+	static List<Path> segments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+		if (Files.isDirectory(directory) == false) {
+			return segments;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				if (SEGMENT_FILE_NAME.matcher(path.getFileName().toString()).matches()) {
+					segments.add(path);
+				}
+			}
+		}
+		// Zero padded, so the names are in the order of the sequence numbers
+		Collections.sort(segments);
+		return segments;
+	}
+
+	static String fileName(long sequence) {
+		return String.format("%020d%s", sequence, AuditJournal.SEGMENT_SUFFIX);
+	}
+
+	static long sequenceOf(Path segment) {
+		String fileName = segment.getFileName().toString();
+		return Long.parseLong(fileName.substring(0,
+				fileName.length() - AuditJournal.SEGMENT_SUFFIX.length()));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.audit;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A record of the audit journal.
+ */
+public class AuditRecord {
+
+	private final Instant timestamp;
+	private final AuditEventType eventType;
+	private final String entityType;
+	private final byte[] payload;
+
+	public AuditRecord(Instant timestamp, AuditEventType eventType, String entityType,
+			byte[] payload) {
+		this.timestamp = Objects.requireNonNull(timestamp);
+		this.eventType = Objects.requireNonNull(eventType);
+		this.entityType = Objects.requireNonNull(entityType);
+		this.payload = Objects.requireNonNull(payload);
+	}
+
+	/**
+	 * @return when the event occurred, in milliseconds precision
+	 */
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	public AuditEventType getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return the name of the entity class
+	 */
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	@Override
+	public String toString() {
+		return "AuditRecord{" + "timestamp=" + timestamp + ", eventType=" + eventType
+				+ ", entityType='" + entityType + '\'' + ", payload=" + payload.length
+				+ " bytes}";
+	}
+}
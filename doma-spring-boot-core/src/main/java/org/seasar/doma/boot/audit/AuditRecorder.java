@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.audit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.seasar.doma.boot.event.PostDeleteEvent;
+import org.seasar.doma.boot.event.PostInsertEvent;
+import org.seasar.doma.boot.event.PostUpdateEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.core.ResolvableType;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Appends the post-events of entities annotated with {@link Audited} to the
+ * {@link AuditJournal}. <br>
+ * <br>
+ * Within a Spring transaction, records are buffered and appended as one frame after the
+ * transaction commits, so the records of rolled back transactions are never appended.
+ * Without a transaction, each record is appended immediately. Records that do not fit in a
+ * frame are rejected with an {@link IllegalArgumentException} when they are recorded, so
+ * that the transaction rolls back instead of losing them after the commit. <br>
+ * <br>
+ * This listener only receives the events created by
+ * {@link org.seasar.doma.boot.event.DomaEventEntityListener}, so it has no effect in the
+ * {@link org.seasar.doma.boot.event.DomaEventDispatcher.DeliveryMode#DIRECT} delivery
+ * mode. <br>
+ * <br>
+ * Doma raises the post-events for each entity of a batch Dao method as well, so the
+ * entities of a batch are recorded from those, and batch events are ignored so that
+ * they are not recorded twice.
+ */
+public class AuditRecorder implements GenericApplicationListener {
+
+	private static final ClassValue<Set<AuditEventType>> eventTypes = new ClassValue<Set<AuditEventType>>() {
+		@Override
+		protected Set<AuditEventType> computeValue(Class<?> entityClass) {
+			Audited audited = entityClass.getAnnotation(Audited.class);
+			if (audited == null || audited.value().length == 0) {
+				return Collections.emptySet();
+			}
+			return Collections.unmodifiableSet(EnumSet.of(audited.value()[0],
+					audited.value()));
+		}
+	};
+
+	private final AuditJournal journal;
+	private final AuditSerializer serializer;
+
+	/**
+	 * @param journal journal to append the records to
+	 * @param serializer serializer of the entities
+	 */
+	public AuditRecorder(AuditJournal journal, AuditSerializer serializer) {
+		this.journal = Objects.requireNonNull(journal);
+		this.serializer = Objects.requireNonNull(serializer);
+	}
+
+	@Override
+	public boolean supportsEventType(ResolvableType eventType) {
+		return eventTypeOf(eventType.toClass()) != null;
+	}
+
+	@Override
+	public boolean supportsSourceType(Class<?> sourceType) {
+		return sourceType == null || eventTypes.get(sourceType).isEmpty() == false;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		AuditEventType eventType = eventTypeOf(event.getClass());
+		if (eventType == null) {
+			return;
+		}
+		if (eventTypes.get(event.getSource().getClass()).contains(eventType)) {
+			record(Collections.singletonList(toRecord(eventType, event.getSource())));
+		}
+	}
+
+	private AuditRecord toRecord(AuditEventType eventType, Object entity) {
+		return new AuditRecord(Instant.now(), eventType, entity.getClass().getName(),
+				serializer.serialize(entity, eventType));
+	}
+
+	private void record(List<AuditRecord> records) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			Batch batch = (Batch) TransactionSynchronizationManager.getResource(this);
+			if (batch == null) {
+				batch = new Batch();
+				TransactionSynchronizationManager.bindResource(this, batch);
+				TransactionSynchronizationManager.registerSynchronization(batch);
+			}
+			batch.add(records);
+		} else {
+			journal.append(records);
+		}
+	}
+
+	private static AuditEventType eventTypeOf(Class<?> eventClass) {
+		if (eventClass == null) {
+			return null;
+		} else if (PostInsertEvent.class.isAssignableFrom(eventClass)) {
+			return AuditEventType.INSERT;
+		} else if (PostUpdateEvent.class.isAssignableFrom(eventClass)) {
+			return AuditEventType.UPDATE;
+		} else if (PostDeleteEvent.class.isAssignableFrom(eventClass)) {
+			return AuditEventType.DELETE;
+		}
+		return null;
+	}
+
+	/**
+	 * Records of a transaction, bound to the transaction as a resource.
+	 */
+	private class Batch extends TransactionSynchronizationAdapter {
+
+		final List<AuditRecord> records = new ArrayList<>();
+		long contentSize;
+
+		void add(List<AuditRecord> added) {
+			long size = contentSize + AuditJournal.contentSize(added);
+			journal.checkFrameSize(size);
+			records.addAll(added);
+			contentSize = size;
+		}
+
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(AuditRecorder.this);
+		}
+
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(AuditRecorder.this, this);
+		}
+
+		@Override
+		public void afterCommit() {
+			// Group commit of the records of the transaction
+			journal.append(records);
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(AuditRecorder.this);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+
+/**
+ * Abstract base class for the contexts of batch events, which are published once per
+ * invocation of a Dao method annotated with {@link org.seasar.doma.BatchInsert},
+ * {@link org.seasar.doma.BatchUpdate} or {@link org.seasar.doma.BatchDelete}.
+ *
+ * @param <E> Entity class
+ */
+public abstract class BatchContext<E> {
+
+	private final Class<E> entityClass;
+	private final Method method;
+
+	BatchContext(Class<E> entityClass, Method method) {
+		this.entityClass = Objects.requireNonNull(entityClass);
+		this.method = Objects.requireNonNull(method);
+	}
+
+	/**
+	 * @return the entity class of the batch
+	 */
+	public Class<E> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * @return the Dao method
+	 */
+	public Method getMethod() {
+		return method;
+	}
+}
@@ -6,43 +6,163 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Collections;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import org.seasar.doma.Entity;
+import org.seasar.doma.boot.event.DomaEventHandlerMetrics.Recorder;
 import org.seasar.doma.boot.event.annotation.HandleDomaEvent;
+import org.seasar.doma.jdbc.ClassHelper;
+import org.seasar.doma.jdbc.entity.EntityType;
+import org.seasar.doma.jdbc.entity.EntityTypeFactory;
+import org.seasar.doma.jdbc.entity.EntityTypeNotFoundException;
+import org.seasar.doma.jdbc.entity.PostUpdateContext;
+import org.seasar.doma.jdbc.entity.PreUpdateContext;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
 
-public class DomaApplicationListener implements ApplicationListener<DomaEvent<?, ?>> {
+public class DomaApplicationListener implements ApplicationListener<DomaEvent<?, ?>>,
+		Ordered {
 
 	private final Set<Class<?>> contextClasses;
+	private final Set<Class<?>> asyncContextClasses;
+	private final Set<Class<?>> parallelContextClasses;
+	private final Set<Class<?>> coalesceContextClasses;
+	private final String[] preUpdateProperties;
+	private final String[] postUpdateProperties;
+	private final int order;
+	private final Class<?> entityClass;
+	private final boolean batch;
 	private final String beanName;
 	private final Method method;
+	private final DomaEventHandlerInvoker invoker;
 	private final BeanFactory beanFactory;
+	private final Class<?>[] phaseContextClasses;
+	private final Recorder[] recorders;
+	private volatile Object singletonTarget;
+	private volatile DomaEventAsyncExecutor asyncExecutor;
 
 	public DomaApplicationListener(String beanName, Method method, BeanFactory beanFactory) {
+		this(beanName, method, beanFactory, DomaEventHandlerMetrics.NOOP);
+	}
 
-		int parameterCount = method.getParameterCount();
-		if (parameterCount < 1) {
-			throw new IllegalArgumentException("Must receive an entity");
-		} else if (parameterCount > 2) {
-			throw new IllegalArgumentException("Too many parameters");
-		}
-
-		Class<?> entityClass = method.getParameterTypes()[0];
-		if (entityClass.isAnnotationPresent(Entity.class) == false) {
-			throw new IllegalArgumentException("First parameter must be entity class");
-		}
+	/**
+	 * @param beanName name of the bean that declares the handler method
+	 * @param method handler method
+	 * @param beanFactory bean factory to look up the bean
+	 * @param metrics metrics of the handler method
+	 */
+	public DomaApplicationListener(String beanName, Method method,
+			BeanFactory beanFactory, DomaEventHandlerMetrics metrics) {
 
 		Set<Class<?>> contextClasses = Collections.newSetFromMap(new IdentityHashMap<>());
+		Set<Class<?>> asyncContextClasses = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		Set<Class<?>> parallelContextClasses = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		Set<Class<?>> coalesceContextClasses = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		String[] preUpdateProperties = null;
+		String[] postUpdateProperties = null;
 		Annotation[] annotations = AnnotationUtils.getAnnotations(method);
 		for (Annotation annotation : annotations) {
 			HandleDomaEvent handleDomaEvent = AnnotationUtils.findAnnotation(
 					annotation.annotationType(), HandleDomaEvent.class);
 			if (handleDomaEvent != null) {
 				contextClasses.add(handleDomaEvent.contextClass());
+				if (Boolean.TRUE.equals(AnnotationUtils.getValue(annotation, "async"))) {
+					asyncContextClasses.add(handleDomaEvent.contextClass());
+				}
+				if (Boolean.TRUE
+						.equals(AnnotationUtils.getValue(annotation, "parallel"))) {
+					parallelContextClasses.add(handleDomaEvent.contextClass());
+				}
+				if (Boolean.TRUE
+						.equals(AnnotationUtils.getValue(annotation, "coalesce"))) {
+					coalesceContextClasses.add(handleDomaEvent.contextClass());
+				}
+				Object properties = AnnotationUtils.getValue(annotation, "properties");
+				if (properties instanceof String[] && ((String[]) properties).length > 0) {
+					if (handleDomaEvent.contextClass() == PreUpdateContext.class) {
+						preUpdateProperties = (String[]) properties;
+					} else if (handleDomaEvent.contextClass() == PostUpdateContext.class) {
+						postUpdateProperties = (String[]) properties;
+					}
+				}
+			}
+		}
+
+		boolean batch = false;
+		for (Class<?> contextClass : contextClasses) {
+			batch |= BatchContext.class.isAssignableFrom(contextClass);
+		}
+		if (batch && contextClasses.size() > 1) {
+			throw new IllegalArgumentException(
+					"Batch event annotations must not be combined with other annotations");
+		}
+
+		Class<?> entityClass = resolveEntityClass(method, contextClasses, batch);
+		validateProperties(entityClass, preUpdateProperties);
+		validateProperties(entityClass, postUpdateProperties);
+
+		this.contextClasses = Objects.requireNonNull(contextClasses);
+		this.asyncContextClasses = asyncContextClasses;
+		this.parallelContextClasses = parallelContextClasses;
+		this.coalesceContextClasses = coalesceContextClasses;
+		this.preUpdateProperties = preUpdateProperties;
+		this.postUpdateProperties = postUpdateProperties;
+		Order order = AnnotatedElementUtils.findMergedAnnotation(method, Order.class);
+		this.order = order != null ? order.value() : Ordered.LOWEST_PRECEDENCE;
+		this.entityClass = entityClass;
+		this.batch = batch;
+		this.beanName = Objects.requireNonNull(beanName);
+		this.method = Objects.requireNonNull(method);
+		this.invoker = DomaEventHandlerInvoker.of(method);
+		this.beanFactory = Objects.requireNonNull(beanFactory);
+		this.phaseContextClasses = contextClasses.toArray(new Class<?>[0]);
+		this.recorders = new Recorder[phaseContextClasses.length];
+		for (int i = 0; i < phaseContextClasses.length; i++) {
+			String contextName = phaseContextClasses[i].getSimpleName();
+			String phase = contextName.endsWith("Context")
+					? contextName.substring(0, contextName.length() - "Context".length())
+					: contextName;
+			recorders[i] = metrics.recorder(beanName, method, entityClass, phase);
+		}
+	}
+
+	private static Class<?> resolveEntityClass(Method method, Set<Class<?>> contextClasses,
+			boolean batch) {
+		int parameterCount = method.getParameterCount();
+		if (parameterCount < 1) {
+			throw new IllegalArgumentException("Must receive an entity");
+		} else if (parameterCount > 2) {
+			throw new IllegalArgumentException("Too many parameters");
+		}
+
+		Class<?> entityClass;
+		if (batch) {
+			if (method.getParameterTypes()[0].isAssignableFrom(List.class) == false) {
+				throw new IllegalArgumentException(
+						"First parameter must be a list of entities");
+			}
+			entityClass = ResolvableType.forMethodParameter(method, 0).asCollection()
+					.resolveGeneric(0);
+			if (entityClass == null
+					|| entityClass.isAnnotationPresent(Entity.class) == false) {
+				throw new IllegalArgumentException(
+						"First parameter must be a list of entities");
+			}
+		} else {
+			entityClass = method.getParameterTypes()[0];
+			if (entityClass.isAnnotationPresent(Entity.class) == false) {
+				throw new IllegalArgumentException("First parameter must be entity class");
 			}
 		}
 
@@ -66,33 +186,243 @@ public class DomaApplicationListener implements ApplicationListener<DomaEvent<?,
 				}
 			}
 		}
+		return entityClass;
+	}
 
-		ReflectionUtils.makeAccessible(method);
-
-		this.contextClasses = Objects.requireNonNull(contextClasses);
-		this.beanName = Objects.requireNonNull(beanName);
-		this.method = Objects.requireNonNull(method);
-		this.beanFactory = Objects.requireNonNull(beanFactory);
+	/**
+	 * Checks the properties of interest at startup, since Doma throws on every update
+	 * event for a property that the entity does not have.
+	 */
+	private static void validateProperties(Class<?> entityClass, String[] properties) {
+		if (properties == null) {
+			return;
+		}
+		EntityType<?> entityType;
+		try {
+			entityType = EntityTypeFactory.getEntityType(entityClass, new ClassHelper() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public <T> Class<T> forName(String className) throws Exception {
+					return (Class<T>) ClassUtils.forName(className,
+							entityClass.getClassLoader());
+				}
+			});
+		} catch (EntityTypeNotFoundException e) {
+			// Not processed by Doma, so the entity never raises update events
+			return;
+		}
+		for (String property : properties) {
+			if (entityType.getEntityPropertyType(property) == null) {
+				throw new IllegalArgumentException("Entity " + entityClass.getName()
+						+ " does not have property " + property);
+			}
+		}
 	}
 
 	@Override
 	public void onApplicationEvent(DomaEvent<?, ?> event) {
+		if (event.isDispatched()) {
+			// Already handled by DomaEventDispatcher
+			return;
+		}
 		Object entity = event.getSource();
 		Object context = event.getContext();
-		if (shouldHandle(context.getClass())
-				&& method.getParameterTypes()[0].isAssignableFrom(entity.getClass())) {
-			Object[] args;
-			if (method.getParameterCount() == 1) {
-				args = new Object[] { entity };
-			} else {
-				args = new Object[] { entity, context };
+		if (shouldHandle(context.getClass()) == false) {
+			return;
+		}
+		Class<?> eventEntityClass = batch
+				? ((BatchContext<?>) context).getEntityClass()
+				: entity.getClass();
+		if (entityClass.isAssignableFrom(eventEntityClass)) {
+			handle(entity, context);
+		}
+	}
+
+	/**
+	 * Invokes the handler method without checking the entity and the event context.
+	 * Update events are skipped unless any of the properties of interest has been
+	 * changed. Events of coalescing handlers are buffered by {@link DomaEventCoalescer} until
+	 * commit. Asynchronous handlers are handed to {@link DomaEventAsyncExecutor} to be
+	 * invoked after commit.
+	 *
+	 * @param entity entity
+	 * @param context event context
+	 */
+	void handle(Object entity, Object context) {
+		if (route(entity, context)) {
+			invoke(entity, context);
+		}
+	}
+
+	/**
+	 * Filters, coalesces or hands the event to {@link DomaEventAsyncExecutor} like
+	 * {@link #handle(Object, Object)}, without invoking the handler method. This depends
+	 * on the transaction synchronization of the thread, so it must be called on the
+	 * thread that raised the event.
+	 *
+	 * @param entity entity
+	 * @param context event context
+	 * @return whether the handler method has to be invoked now with
+	 * {@link #invoke(Object, Object)}
+	 */
+	boolean route(Object entity, Object context) {
+		if (isAnyPropertyChanged(context) == false) {
+			return false;
+		}
+		if (coalesceContextClasses.isEmpty() == false
+				&& matches(coalesceContextClasses, context.getClass())
+				&& DomaEventCoalescer.coalesce(this, entity, context)) {
+			return false;
+		}
+		if (isAsync(context)) {
+			getAsyncExecutor().executeAfterCommit(() -> invoke(entity, context));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether any of the properties the handler is interested in has been
+	 * changed, or {@code true} for the events not filtered by properties
+	 */
+	private boolean isAnyPropertyChanged(Object context) {
+		if (preUpdateProperties != null && context instanceof PreUpdateContext) {
+			PreUpdateContext<?> preUpdateContext = (PreUpdateContext<?>) context;
+			for (String property : preUpdateProperties) {
+				if (preUpdateContext.isPropertyChanged(property)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (postUpdateProperties != null && context instanceof PostUpdateContext) {
+			PostUpdateContext<?> postUpdateContext = (PostUpdateContext<?>) context;
+			for (String property : postUpdateProperties) {
+				if (postUpdateContext.isPropertyChanged(property)) {
+					return true;
+				}
 			}
-			Object target = beanFactory.getBean(beanName);
-			ReflectionUtils.invokeMethod(method, target, args);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Invokes the handler method, or hands it to {@link DomaEventAsyncExecutor} if
+	 * asynchronous, once the transaction has committed. Synchronizations registered
+	 * after commit are never invoked, so asynchronous handlers are run without waiting
+	 * for the transaction.
+	 *
+	 * @param entity entity
+	 * @param context event context
+	 */
+	void deliverAfterCommit(Object entity, Object context) {
+		if (isAsync(context)) {
+			getAsyncExecutor().execute(() -> invoke(entity, context));
+		} else {
+			invoke(entity, context);
 		}
 	}
 
+	private boolean isAsync(Object context) {
+		return asyncContextClasses.isEmpty() == false
+				&& matches(asyncContextClasses, context.getClass());
+	}
+
+	/**
+	 * Invokes the handler method, recording its metrics.
+	 *
+	 * @param entity entity
+	 * @param context event context
+	 */
+	void invoke(Object entity, Object context) {
+		Object target = getTarget();
+		Recorder recorder = getRecorder(context.getClass());
+		if (recorder == Recorder.NOOP) {
+			try {
+				invoker.invoke(target, entity, context);
+			} catch (Throwable ex) {
+				ReflectionUtils.rethrowRuntimeException(ex);
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			invoker.invoke(target, entity, context);
+		} catch (Throwable ex) {
+			recorder.record(System.nanoTime() - start, ex);
+			ReflectionUtils.rethrowRuntimeException(ex);
+			return;
+		}
+		recorder.record(System.nanoTime() - start, null);
+	}
+
+	private Recorder getRecorder(Class<?> contextClass) {
+		for (int i = 0; i < phaseContextClasses.length; i++) {
+			if (phaseContextClasses[i].isAssignableFrom(contextClass)) {
+				return recorders[i];
+			}
+		}
+		return Recorder.NOOP;
+	}
+
+	/**
+	 * Returns the bean that declares the handler method. Singleton beans are looked up
+	 * once, on the first event, and held afterwards. Beans of any other scope are looked
+	 * up on each event.
+	 *
+	 * @return the target bean
+	 */
+	private Object getTarget() {
+		Object target = this.singletonTarget;
+		if (target == null) {
+			target = beanFactory.getBean(beanName);
+			if (beanFactory.isSingleton(beanName)) {
+				this.singletonTarget = target;
+			}
+		}
+		return target;
+	}
+
+	private DomaEventAsyncExecutor getAsyncExecutor() {
+		DomaEventAsyncExecutor asyncExecutor = this.asyncExecutor;
+		if (asyncExecutor == null) {
+			asyncExecutor = beanFactory.getBean(DomaEventAsyncExecutor.class);
+			this.asyncExecutor = asyncExecutor;
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * @return the value of {@link Order} on the handler method, or
+	 * {@link Ordered#LOWEST_PRECEDENCE}
+	 */
+	@Override
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * @param contextClass context class of an event type
+	 * @return whether the handler runs in parallel with other handlers of the events
+	 */
+	boolean isParallel(Class<?> contextClass) {
+		return parallelContextClasses.contains(contextClass);
+	}
+
+	Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	Set<Class<?>> getContextClasses() {
+		return contextClasses;
+	}
+
 	private boolean shouldHandle(Class<?> clazz) {
+		return matches(contextClasses, clazz);
+	}
+
+	private static boolean matches(Set<Class<?>> contextClasses, Class<?> clazz) {
 		for (Class<?> contextClasse : contextClasses) {
 			if (contextClasse.isAssignableFrom(clazz)) {
 				return true;
@@ -0,0 +1,140 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.seasar.doma.BatchDelete;
+import org.seasar.doma.BatchInsert;
+import org.seasar.doma.BatchUpdate;
+import org.seasar.doma.jdbc.BatchResult;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotationUtils;
+
+/**
+ * Dispatches batch events around the invocation of a Dao method annotated with
+ * {@link BatchInsert}, {@link BatchUpdate} or {@link BatchDelete}, once per batch.
+ * Post-batch events carry the entities of the {@link BatchResult} if the method returns
+ * one.
+ */
+class DomaBatchEventInterceptor implements MethodInterceptor {
+
+	private final BeanFactory beanFactory;
+	private final Map<Method, BatchMethod> batchMethods = new ConcurrentHashMap<>();
+	private volatile DomaEventDispatcher dispatcher;
+
+	DomaBatchEventInterceptor(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		BatchMethod batchMethod = batchMethods.computeIfAbsent(invocation.getMethod(),
+				BatchMethod::of);
+		if (batchMethod == BatchMethod.NONE) {
+			return invocation.proceed();
+		}
+		List<?> entities = toList(invocation.getArguments()[0]);
+		if (entities.isEmpty()) {
+			return invocation.proceed();
+		}
+		Method method = invocation.getMethod();
+		DomaEventDispatcher dispatcher = getDispatcher();
+		dispatcher.dispatch(batchMethod.preType, batchMethod.entityClass, entities,
+				batchMethod.preType.newBatchContext(batchMethod.entityClass, method));
+		Object result = invocation.proceed();
+		if (result instanceof BatchResult) {
+			// Immutable entities are returned with the values set by Doma
+			entities = Collections.unmodifiableList(((BatchResult<?>) result).getEntities());
+		}
+		dispatcher.dispatch(batchMethod.postType, batchMethod.entityClass, entities,
+				batchMethod.postType.newBatchContext(batchMethod.entityClass, method));
+		return result;
+	}
+
+	private DomaEventDispatcher getDispatcher() {
+		DomaEventDispatcher dispatcher = this.dispatcher;
+		if (dispatcher == null) {
+			dispatcher = beanFactory.getBean(DomaEventDispatcher.class);
+			this.dispatcher = dispatcher;
+		}
+		return dispatcher;
+	}
+
+	private static List<?> toList(Object entities) {
+		if (entities == null) {
+			return Collections.emptyList();
+		}
+		if (entities instanceof List) {
+			return Collections.unmodifiableList((List<?>) entities);
+		}
+		List<Object> list = new ArrayList<>();
+		for (Object entity : (Iterable<?>) entities) {
+			list.add(entity);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Whether the method is a batch Dao method whose events can be dispatched.
+	 */
+	static boolean isBatchMethod(Method method) {
+		return batchTypes(method) != null;
+	}
+
+	private static DomaEventType[] batchTypes(Method method) {
+		if (AnnotationUtils.findAnnotation(method, BatchInsert.class) != null) {
+			return new DomaEventType[] { DomaEventType.PRE_BATCH_INSERT,
+					DomaEventType.POST_BATCH_INSERT };
+		}
+		if (AnnotationUtils.findAnnotation(method, BatchUpdate.class) != null) {
+			return new DomaEventType[] { DomaEventType.PRE_BATCH_UPDATE,
+					DomaEventType.POST_BATCH_UPDATE };
+		}
+		if (AnnotationUtils.findAnnotation(method, BatchDelete.class) != null) {
+			return new DomaEventType[] { DomaEventType.PRE_BATCH_DELETE,
+					DomaEventType.POST_BATCH_DELETE };
+		}
+		return null;
+	}
+
+	private static final class BatchMethod {
+
+		static final BatchMethod NONE = new BatchMethod(null, null, null);
+
+		final Class<?> entityClass;
+		final DomaEventType preType;
+		final DomaEventType postType;
+
+		private BatchMethod(Class<?> entityClass, DomaEventType preType,
+				DomaEventType postType) {
+			this.entityClass = entityClass;
+			this.preType = preType;
+			this.postType = postType;
+		}
+
+		/**
+		 * @return {@link #NONE} if the method is not a batch method, or the entity class
+		 * cannot be resolved (e.g. {@code sqlFile = true} with a raw parameter)
+		 */
+		static BatchMethod of(Method method) {
+			DomaEventType[] types = batchTypes(method);
+			if (types == null || method.getParameterCount() < 1
+					|| Iterable.class.isAssignableFrom(
+							method.getParameterTypes()[0]) == false) {
+				return NONE;
+			}
+			ResolvableType parameterType = ResolvableType.forMethodParameter(method, 0);
+			Class<?> entityClass = parameterType.as(Iterable.class).resolveGeneric(0);
+			if (entityClass == null) {
+				return NONE;
+			}
+			return new BatchMethod(entityClass, types[0], types[1]);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+import org.seasar.doma.Dao;
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+
+/**
+ * Proxies Dao beans to publish batch events, such as {@link PreBatchInsertEvent} and
+ * {@link PostBatchInsertEvent}, around the methods annotated with
+ * {@link org.seasar.doma.BatchInsert}, {@link org.seasar.doma.BatchUpdate} or
+ * {@link org.seasar.doma.BatchDelete}. <br>
+ * <br>
+ * Doma does not call {@link org.seasar.doma.jdbc.entity.EntityListener} once per
+ * batch, so batch events are dispatched by intercepting the Dao method. The events are
+ * dispatched by the {@link DomaEventDispatcher} bean.
+ */
+@SuppressWarnings("serial")
+public class DomaBatchEventPostProcessor
+		extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+
+	public DomaBatchEventPostProcessor() {
+		setBeforeExistingAdvisors(true);
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		super.setBeanFactory(beanFactory);
+		this.advisor = new DefaultPointcutAdvisor(new BatchMethodPointcut(),
+				new DomaBatchEventInterceptor(beanFactory));
+	}
+
+	private static class BatchMethodPointcut extends StaticMethodMatcherPointcut {
+
+		BatchMethodPointcut() {
+			setClassFilter(
+					clazz -> AnnotationUtils.findAnnotation(clazz, Dao.class) != null);
+		}
+
+		@Override
+		public boolean matches(Method method, Class<?> targetClass) {
+			return DomaBatchEventInterceptor.isBatchMethod(method);
+		}
+	}
+}
@@ -7,6 +7,7 @@ import org.springframework.context.ApplicationEvent;
  */
 public abstract class DomaEvent<T, S> extends ApplicationEvent {
 	private final S context;
+	private boolean dispatched;
 
 	protected DomaEvent(T source, S context) {
 		super(source);
@@ -22,4 +23,16 @@ public abstract class DomaEvent<T, S> extends ApplicationEvent {
 	public S getContext() {
 		return this.context;
 	}
+
+	/**
+	 * Whether {@link DomaEventDispatcher} has already passed this event to the handlers
+	 * created by {@link DomaEventListenerFactory}.
+	 */
+	boolean isDispatched() {
+		return this.dispatched;
+	}
+
+	void markDispatched() {
+		this.dispatched = true;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package org.seasar.doma.boot.event;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs asynchronous event handlers, such as
+ * {@code @HandlePostInsert(async = true)}, on a bounded thread pool once the current
+ * transaction has committed. <br>
+ * <br>
+ * Handlers are never run for a transaction that is rolled back. When no transaction
+ * synchronization is active, each Dao call has already been committed by itself, and
+ * handlers are submitted immediately. <br>
+ * <br>
+ * When the queue is full, {@link SaturationPolicy} decides what happens to the
+ * handler. Queue depth, rejected handlers and lag, the time between commit and the
+ * start of a handler, are exposed to be monitored through
+ * {@link DomaEventAsyncExecutorMetrics}.
+ */
+public class DomaEventAsyncExecutor implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(DomaEventAsyncExecutor.class);
+
+	private final ThreadPoolExecutor executor;
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+	private volatile long lastLagNanos;
+
+	public DomaEventAsyncExecutor() {
+		this(2, 1024, SaturationPolicy.CALLER_RUNS);
+	}
+
+	/**
+	 * @param poolSize maximum number of threads running handlers
+	 * @param queueCapacity maximum number of handlers waiting for a thread
+	 * @param saturationPolicy what to do with handlers when the queue is full
+	 */
+	public DomaEventAsyncExecutor(int poolSize, int queueCapacity,
+			SaturationPolicy saturationPolicy) {
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+				new CustomizableThreadFactory("doma-event-"),
+				saturationPolicy.handler(this));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs the handler once the current transaction has committed.
+	 *
+	 * @param handler handler to run
+	 */
+	public void executeAfterCommit(Runnable handler) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCommit() {
+							execute(handler);
+						}
+					});
+		} else {
+			execute(handler);
+		}
+	}
+
+	/**
+	 * Runs the handler without waiting for the current transaction, for handlers that are
+	 * already run after commit.
+	 *
+	 * @param handler handler to run
+	 */
+	public void execute(Runnable handler) {
+		long committedAt = System.nanoTime();
+		executor.execute(() -> {
+			long lag = System.nanoTime() - committedAt;
+			lastLagNanos = lag;
+			maxLagNanos.accumulate(lag);
+			try {
+				handler.run();
+			} catch (RuntimeException | Error e) {
+				logger.error("Asynchronous Doma event handler failed", e);
+			}
+		});
+	}
+
+	/**
+	 * @return number of handlers waiting for a thread
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return number of threads running handlers
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return number of handlers that have been run
+	 */
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * @return number of handlers dropped by {@link SaturationPolicy#DROP}
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * @return lag of the handler started most recently
+	 */
+	public Duration getLastLag() {
+		return Duration.ofNanos(lastLagNanos);
+	}
+
+	/**
+	 * @return maximum lag ever observed
+	 */
+	public Duration getMaxLag() {
+		return Duration.ofNanos(maxLagNanos.get());
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		executor.shutdown();
+		if (executor.awaitTermination(10, TimeUnit.SECONDS) == false) {
+			logger.warn("Asynchronous Doma event handlers did not finish in time");
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * What to do with a handler when the queue is full.
+	 */
+	public enum SaturationPolicy {
+
+		/**
+		 * Wait until the queue has space for the handler.
+		 */
+		BLOCK {
+			@Override
+			RejectedExecutionHandler handler(DomaEventAsyncExecutor owner) {
+				return (r, executor) -> {
+					if (executor.isShutdown()) {
+						throw new RejectedExecutionException("Executor has been shut down");
+					}
+					try {
+						executor.getQueue().put(r);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(e);
+					}
+				};
+			}
+		},
+
+		/**
+		 * Discard the handler.
+		 */
+		DROP {
+			@Override
+			RejectedExecutionHandler handler(DomaEventAsyncExecutor owner) {
+				return (r, executor) -> {
+					owner.droppedCount.increment();
+					if (logger.isWarnEnabled()) {
+						logger.warn("Asynchronous Doma event handler dropped");
+					}
+				};
+			}
+		},
+
+		/**
+		 * Run the handler in the thread that committed the transaction.
+		 */
+		CALLER_RUNS {
+			@Override
+			RejectedExecutionHandler handler(DomaEventAsyncExecutor owner) {
+				return new ThreadPoolExecutor.CallerRunsPolicy();
+			}
+		};
+
+		abstract RejectedExecutionHandler handler(DomaEventAsyncExecutor owner);
+	}
+}
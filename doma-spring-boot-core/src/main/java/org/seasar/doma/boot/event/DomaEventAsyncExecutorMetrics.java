@@ -0,0 +1,17 @@
+package org.seasar.doma.boot.event;
+
+/**
+ * Monitors the queue depth, the dropped handlers and the lag of
+ * {@link DomaEventAsyncExecutor}. <br>
+ * <br>
+ * {@link #bind(DomaEventAsyncExecutor)} is called once the executor is created, that
+ * is when the first asynchronous handler is run. Register an implementation as a bean
+ * to enable it.
+ */
+public interface DomaEventAsyncExecutorMetrics {
+
+	/**
+	 * @param executor executor to monitor
+	 */
+	void bind(DomaEventAsyncExecutor executor);
+}
@@ -0,0 +1,165 @@
+package org.seasar.doma.boot.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.seasar.doma.jdbc.entity.EntityPropertyType;
+import org.seasar.doma.jdbc.entity.EntityType;
+import org.seasar.doma.jdbc.entity.PostDeleteContext;
+import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PostUpdateContext;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Buffers the events of coalescing handlers, such as
+ * {@code @HandlePostUpdate(coalesce = true)}, in a transaction, and delivers only the
+ * last event of each handler and entity once the transaction has committed. The
+ * transaction cannot be rolled back any more, so handler failures are logged like those
+ * of asynchronous handlers. <br>
+ * <br>
+ * Entities are identified by their class and the values of their id properties, or by
+ * object identity if the entity has no id.
+ */
+final class DomaEventCoalescer extends TransactionSynchronizationAdapter {
+
+	private static final Log logger = LogFactory.getLog(DomaEventCoalescer.class);
+
+	private static final Object RESOURCE_KEY = DomaEventCoalescer.class;
+
+	private final Map<Key, Object[]> pending = new LinkedHashMap<>();
+
+	private DomaEventCoalescer() {
+	}
+
+	/**
+	 * @return {@code false} if no transaction synchronization is active, in which case
+	 * the event is not buffered
+	 */
+	static boolean coalesce(DomaApplicationListener handler, Object entity,
+			Object context) {
+		if (TransactionSynchronizationManager.isSynchronizationActive() == false) {
+			return false;
+		}
+		DomaEventCoalescer coalescer = (DomaEventCoalescer) TransactionSynchronizationManager
+				.getResource(RESOURCE_KEY);
+		if (coalescer == null) {
+			coalescer = new DomaEventCoalescer();
+			TransactionSynchronizationManager.bindResource(RESOURCE_KEY, coalescer);
+			TransactionSynchronizationManager.registerSynchronization(coalescer);
+		}
+		coalescer.pending.put(new Key(handler, entity, context),
+				new Object[] { entity, context });
+		return true;
+	}
+
+	@Override
+	public void suspend() {
+		TransactionSynchronizationManager.unbindResource(RESOURCE_KEY);
+	}
+
+	@Override
+	public void resume() {
+		TransactionSynchronizationManager.bindResource(RESOURCE_KEY, this);
+	}
+
+	@Override
+	public void afterCommit() {
+		for (Map.Entry<Key, Object[]> entry : pending.entrySet()) {
+			Object[] event = entry.getValue();
+			try {
+				entry.getKey().handler.deliverAfterCommit(event[0], event[1]);
+			} catch (RuntimeException | Error e) {
+				logger.error("Coalescing Doma event handler failed", e);
+			}
+		}
+		pending.clear();
+	}
+
+	@Override
+	public void afterCompletion(int status) {
+		TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+	}
+
+	private static EntityType<?> getEntityType(Object context) {
+		if (context instanceof PostUpdateContext) {
+			return ((PostUpdateContext<?>) context).getEntityType();
+		} else if (context instanceof PostInsertContext) {
+			return ((PostInsertContext<?>) context).getEntityType();
+		} else if (context instanceof PostDeleteContext) {
+			return ((PostDeleteContext<?>) context).getEntityType();
+		}
+		return null;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Object getId(Object entity, Object context) {
+		EntityType<?> entityType = getEntityType(context);
+		List<? extends EntityPropertyType<?, ?>> idPropertyTypes = entityType != null
+				? entityType.getIdPropertyTypes()
+				: Collections.emptyList();
+		if (idPropertyTypes.isEmpty()) {
+			return new IdentityKey(entity);
+		}
+		List<Object> id = new ArrayList<>(idPropertyTypes.size());
+		for (EntityPropertyType idPropertyType : idPropertyTypes) {
+			id.add(idPropertyType.createProperty().load(entity).get());
+		}
+		return id;
+	}
+
+	private static final class Key {
+
+		final DomaApplicationListener handler;
+		final Class<?> entityClass;
+		final Object id;
+
+		Key(DomaApplicationListener handler, Object entity, Object context) {
+			this.handler = handler;
+			this.entityClass = entity.getClass();
+			this.id = getId(entity, context);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Key == false) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return handler == other.handler && entityClass == other.entityClass
+					&& id.equals(other.id);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(handler), entityClass, id);
+		}
+	}
+
+	private static final class IdentityKey {
+
+		final Object entity;
+
+		IdentityKey(Object entity) {
+			this.entity = entity;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey) obj).entity == entity;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(entity);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package org.seasar.doma.boot.event;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import org.seasar.doma.boot.event.DomaEventSubscriptions.Subscription;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Dispatches {@link DomaEvent}s from {@link DomaEventEntityListener}. <br>
+ * <br>
+ * Once the application context has been refreshed, the handlers created by
+ * {@link DomaEventListenerFactory} are resolved per entity class and event type, and
+ * invoked directly without going through
+ * {@link org.springframework.context.event.ApplicationEventMulticaster}. Events are
+ * published to the application context only when any other listener may consume them,
+ * so the cost of dispatch does not depend on the number of application listeners. The
+ * handlers and listeners are resolved again when listeners are added to the context. With
+ * {@link DeliveryMode#DIRECT}, no event is created at all. <br>
+ * <br>
+ * Handlers run in the order of {@link org.springframework.core.annotation.Order}.
+ * Consecutive parallel handlers of the same order, such as
+ * {@code @HandlePostInsert(parallel = true)}, run concurrently on the parallel
+ * executor, except that asynchronous and coalescing handlers are still deferred on the
+ * thread that raised the event. <br>
+ * <br>
+ * With {@link DeliveryMode#DISPATCH}, the default, all handlers run before the event is
+ * published to the other listeners of {@link DomaEvent}, such as
+ * {@link org.springframework.context.event.EventListener} methods, whatever their
+ * order. Use {@link DeliveryMode#PUBLISH} if handlers and other listeners must be
+ * ordered together. <br>
+ * <br>
+ * This class must be registered as a bean.
+ */
+public class DomaEventDispatcher implements ApplicationEventPublisherAware,
+		ApplicationListener<ContextRefreshedEvent>, DisposableBean {
+
+	private final DeliveryMode deliveryMode;
+	private Executor parallelExecutor = ForkJoinPool.commonPool();
+	private ForkJoinPool ownedParallelExecutor;
+	private ApplicationEventPublisher eventPublisher;
+	private volatile DomaEventSubscriptions subscriptions;
+
+	public DomaEventDispatcher() {
+		this(DeliveryMode.DISPATCH);
+	}
+
+	/**
+	 * @param deliveryMode how events are delivered to handlers
+	 */
+	public DomaEventDispatcher(DeliveryMode deliveryMode) {
+		this.deliveryMode = Objects.requireNonNull(deliveryMode);
+	}
+
+	void dispatch(DomaEventType type, Object entity, Object context) {
+		dispatch(type, entity.getClass(), entity, context);
+	}
+
+	/**
+	 * @param type event type
+	 * @param entityClass entity class to resolve the handlers by, which is the element
+	 * type of the batch for batch events
+	 * @param entity entity, or list of entities for batch events
+	 * @param context event context
+	 */
+	void dispatch(DomaEventType type, Class<?> entityClass, Object entity,
+			Object context) {
+		DomaEventSubscriptions subscriptions = this.subscriptions;
+		if (subscriptions != null && subscriptions.isStale()) {
+			subscriptions = DomaEventSubscriptions.of(subscriptions.getContext());
+			this.subscriptions = subscriptions;
+		}
+		if (subscriptions == null) {
+			// Until the context is refreshed, not all listeners are known yet
+			eventPublisher.publishEvent(type.newEvent(entity, context));
+			return;
+		}
+		Subscription subscription = subscriptions.get(type, entityClass);
+		if (deliveryMode == DeliveryMode.PUBLISH) {
+			if (subscription.isSubscribed()) {
+				eventPublisher.publishEvent(type.newEvent(entity, context));
+			}
+			return;
+		}
+		for (DomaApplicationListener[] group : subscription.getGroups()) {
+			if (group.length == 1) {
+				group[0].handle(entity, context);
+			} else {
+				handleInParallel(group, entity, context);
+			}
+		}
+		if (deliveryMode == DeliveryMode.DISPATCH && subscription.isListened()) {
+			DomaEvent<?, ?> event = type.newEvent(entity, context);
+			event.markDispatched();
+			eventPublisher.publishEvent(event);
+		}
+	}
+
+	/**
+	 * Runs the handlers concurrently, one of them on the caller thread, and waits for
+	 * all of them. The first exception is rethrown, with the others suppressed. <br>
+	 * <br>
+	 * Pool threads have no transaction synchronization, so the handlers are filtered,
+	 * coalesced and handed to the asynchronous executor on the caller thread, and only
+	 * the remaining synchronous invocations run concurrently.
+	 */
+	private void handleInParallel(DomaApplicationListener[] group, Object entity,
+			Object context) {
+		DomaApplicationListener[] invoked = new DomaApplicationListener[group.length];
+		int count = 0;
+		for (DomaApplicationListener handler : group) {
+			if (handler.route(entity, context)) {
+				invoked[count++] = handler;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[count - 1];
+		for (int i = 0; i < futures.length; i++) {
+			DomaApplicationListener handler = invoked[i];
+			futures[i] = CompletableFuture.runAsync(() -> handler.invoke(entity, context),
+					parallelExecutor);
+		}
+		Throwable failure = null;
+		try {
+			invoked[count - 1].invoke(entity, context);
+		} catch (RuntimeException | Error e) {
+			failure = e;
+		}
+		for (CompletableFuture<?> future : futures) {
+			try {
+				future.join();
+			} catch (CompletionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				} else {
+					failure.addSuppressed(e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			ReflectionUtils.rethrowRuntimeException(failure);
+		}
+	}
+
+	/**
+	 * Sets the executor of parallel handlers. Defaults to
+	 * {@link ForkJoinPool#commonPool()}. The executor is not shut down by this class.
+	 *
+	 * @param parallelExecutor executor of parallel handlers
+	 */
+	public void setParallelExecutor(Executor parallelExecutor) {
+		this.parallelExecutor = Objects.requireNonNull(parallelExecutor);
+		shutdownOwnedParallelExecutor();
+	}
+
+	/**
+	 * Runs parallel handlers on a {@link ForkJoinPool} of the parallelism, which is shut
+	 * down when this bean is destroyed.
+	 *
+	 * @param parallelism number of threads running parallel handlers
+	 */
+	public void setParallelism(int parallelism) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		this.parallelExecutor = pool;
+		shutdownOwnedParallelExecutor();
+		this.ownedParallelExecutor = pool;
+	}
+
+	@Override
+	public void destroy() {
+		shutdownOwnedParallelExecutor();
+	}
+
+	private void shutdownOwnedParallelExecutor() {
+		if (ownedParallelExecutor != null) {
+			ownedParallelExecutor.shutdown();
+			ownedParallelExecutor = null;
+		}
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (event.getApplicationContext() == this.eventPublisher) {
+			this.subscriptions = DomaEventSubscriptions.of(event.getApplicationContext());
+		}
+	}
+
+	/**
+	 * How events are delivered once the application context has been refreshed. Until
+	 * then, events are always published to the application context.
+	 */
+	public enum DeliveryMode {
+
+		/**
+		 * Publish events to the application context, which delivers them to handlers as
+		 * well as to other listeners. Events that nothing consumes are not published.
+		 */
+		PUBLISH,
+
+		/**
+		 * Invoke handlers directly, and publish events to the application context only
+		 * if other listeners may consume them. Those listeners are notified after all
+		 * handlers, regardless of
+		 * {@link org.springframework.core.annotation.Order}.
+		 */
+		DISPATCH,
+
+		/**
+		 * Invoke handlers directly with the entity and the Doma context, without
+		 * creating events at all. Other listeners of {@link DomaEvent} are not notified.
+		 */
+		DIRECT
+	}
+
+	@Override
+	public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+		this.eventPublisher = eventPublisher;
+	}
+}
@@ -3,53 +3,76 @@ package org.seasar.doma.boot.event;
 import org.seasar.doma.jdbc.entity.*;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 /**
  * {@link EntityListener} implementation that publishes {@link DomaEvent}. <br>
  * <br>
  * This class extends {@link NullEntityListener} so that {@link org.seasar.doma.Entity} is
- * available with default parameters.
+ * available with default parameters. <br>
+ * <br>
+ * Once the application context has been refreshed, events that no listener would
+ * consume for the entity class are not published at all. Events are dispatched by
+ * {@link DomaEventDispatcher} if it is set.
  *
  * @param <T> Entity class
  * @author Toshiaki Maki
  */
 public class DomaEventEntityListener<T> extends NullEntityListener<T> implements
-		ApplicationEventPublisherAware {
+		ApplicationEventPublisherAware, ApplicationListener<ContextRefreshedEvent> {
 
-	private ApplicationEventPublisher eventPublisher;
+	private final DomaEventDispatcher publishingDispatcher = new DomaEventDispatcher(
+			DomaEventDispatcher.DeliveryMode.PUBLISH);
+	private DomaEventDispatcher dispatcher = publishingDispatcher;
 
 	@Override
 	public void preInsert(T t, PreInsertContext<T> context) {
-		this.eventPublisher.publishEvent(new PreInsertEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.PRE_INSERT, t, context);
 	}
 
 	@Override
 	public void preUpdate(T t, PreUpdateContext<T> context) {
-		this.eventPublisher.publishEvent(new PreUpdateEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.PRE_UPDATE, t, context);
 	}
 
 	@Override
 	public void preDelete(T t, PreDeleteContext<T> context) {
-		this.eventPublisher.publishEvent(new PreDeleteEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.PRE_DELETE, t, context);
 	}
 
 	@Override
 	public void postInsert(T t, PostInsertContext<T> context) {
-		this.eventPublisher.publishEvent(new PostInsertEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.POST_INSERT, t, context);
 	}
 
 	@Override
 	public void postUpdate(T t, PostUpdateContext<T> context) {
-		this.eventPublisher.publishEvent(new PostUpdateEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.POST_UPDATE, t, context);
 	}
 
 	@Override
 	public void postDelete(T t, PostDeleteContext<T> context) {
-		this.eventPublisher.publishEvent(new PostDeleteEvent<>(t, context));
+		this.dispatcher.dispatch(DomaEventType.POST_DELETE, t, context);
+	}
+
+	/**
+	 * Sets the dispatcher that invokes handlers directly. Unless set, all events are
+	 * published to the application context.
+	 *
+	 * @param dispatcher {@link DomaEventDispatcher} registered as a bean
+	 */
+	public void setDomaEventDispatcher(DomaEventDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		this.publishingDispatcher.onApplicationEvent(event);
 	}
 
 	@Override
 	public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
-		this.eventPublisher = eventPublisher;
+		this.publishingDispatcher.setApplicationEventPublisher(eventPublisher);
 	}
 }
@@ -0,0 +1,116 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Invokes a handler method bound once, instead of reflectively on each event.
+ * <p>
+ * Public methods of public classes are bound to a generated lambda by
+ * {@link LambdaMetafactory}, so dispatch is a plain interface call. Other methods are
+ * invoked through a {@link MethodHandle}. Neither allocates an argument array.
+ */
+@FunctionalInterface
+interface DomaEventHandlerInvoker {
+
+	void invoke(Object target, Object entity, Object context) throws Throwable;
+
+	/**
+	 * Creates an invoker of the handler method.
+	 *
+	 * @param method handler method that receives an entity, and optionally an event
+	 * context
+	 * @return the invoker
+	 */
+	static DomaEventHandlerInvoker of(Method method) {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle handle;
+		try {
+			ReflectionUtils.makeAccessible(method);
+			handle = lookup.unreflect(method);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot access " + method, e);
+		}
+		if (isBindable(method)) {
+			try {
+				return bind(lookup, handle, method);
+			} catch (Throwable ignored) {
+				// Fall back to the method handle
+			}
+		}
+		if (Modifier.isStatic(method.getModifiers())) {
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		}
+		if (method.getParameterCount() == 1) {
+			MethodHandle entityOnly = handle.asType(MethodType.methodType(void.class,
+					Object.class, Object.class));
+			return (target, entity, context) -> {
+				entityOnly.invokeExact(target, entity);
+			};
+		}
+		MethodHandle withContext = handle.asType(MethodType.methodType(void.class,
+				Object.class, Object.class, Object.class));
+		return (target, entity, context) -> {
+			withContext.invokeExact(target, entity, context);
+		};
+	}
+
+	/**
+	 * Whether the generated lambda, which lives in this class loader, can link to the
+	 * handler method.
+	 */
+	static boolean isBindable(Method method) {
+		if (Modifier.isStatic(method.getModifiers())
+				|| Modifier.isPublic(method.getModifiers()) == false) {
+			return false;
+		}
+		ClassLoader classLoader = DomaEventHandlerInvoker.class.getClassLoader();
+		Class<?> declaringClass = method.getDeclaringClass();
+		if (Modifier.isPublic(declaringClass.getModifiers()) == false
+				|| ClassUtils.isVisible(declaringClass, classLoader) == false) {
+			return false;
+		}
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			if (Modifier.isPublic(parameterType.getModifiers()) == false
+					|| ClassUtils.isVisible(parameterType, classLoader) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static DomaEventHandlerInvoker bind(MethodHandles.Lookup lookup, MethodHandle handle,
+			Method method) throws Throwable {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Class<?> declaringClass = method.getDeclaringClass();
+		if (parameterTypes.length == 1) {
+			EntityOnly entityOnly = (EntityOnly) LambdaMetafactory.metafactory(lookup,
+					"invoke", MethodType.methodType(EntityOnly.class),
+					MethodType.methodType(void.class, Object.class, Object.class), handle,
+					MethodType.methodType(void.class, declaringClass, parameterTypes[0]))
+					.getTarget().invokeExact();
+			return (target, entity, context) -> entityOnly.invoke(target, entity);
+		}
+		return (DomaEventHandlerInvoker) LambdaMetafactory.metafactory(lookup, "invoke",
+				MethodType.methodType(DomaEventHandlerInvoker.class),
+				MethodType.methodType(void.class, Object.class, Object.class,
+						Object.class), handle,
+				MethodType.methodType(void.class, declaringClass, parameterTypes[0],
+						parameterTypes[1]))
+				.getTarget().invokeExact();
+	}
+
+	/**
+	 * Invoker of a handler method that receives only an entity.
+	 */
+	@FunctionalInterface
+	interface EntityOnly {
+		void invoke(Object target, Object entity) throws Throwable;
+	}
+}
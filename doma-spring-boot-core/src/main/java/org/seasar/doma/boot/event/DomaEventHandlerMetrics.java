@@ -0,0 +1,51 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+
+/**
+ * Records the invocations of the handler methods annotated with Doma event
+ * annotations, such as {@link org.seasar.doma.boot.event.annotation.HandlePreUpdate}.
+ * <br>
+ * <br>
+ * A {@link Recorder} is created once per handler method and phase, when the handler
+ * is registered, so that recording an invocation does not need to look up or
+ * allocate anything. Register an implementation as a bean to enable it.
+ */
+public interface DomaEventHandlerMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	DomaEventHandlerMetrics NOOP = (beanName, method, entityClass,
+			phase) -> Recorder.NOOP;
+
+	/**
+	 * @param beanName name of the bean that declares the handler method
+	 * @param method handler method
+	 * @param entityClass entity class handled by the method
+	 * @param phase phase of the event, such as {@code PreUpdate} or
+	 * {@code PostBatchInsert}
+	 * @return the recorder of the handler method for the phase
+	 */
+	Recorder recorder(String beanName, Method method, Class<?> entityClass,
+			String phase);
+
+	/**
+	 * Records the invocations of a handler method for a phase.
+	 */
+	@FunctionalInterface
+	interface Recorder {
+
+		/**
+		 * Records nothing.
+		 */
+		Recorder NOOP = (durationNanos, failure) -> {
+		};
+
+		/**
+		 * @param durationNanos time taken by the handler method, in nanoseconds
+		 * @param failure exception thrown by the handler method, or {@code null}
+		 */
+		void record(long durationNanos, Throwable failure);
+	}
+}
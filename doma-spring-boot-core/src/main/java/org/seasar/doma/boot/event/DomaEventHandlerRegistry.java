@@ -0,0 +1,79 @@
+package org.seasar.doma.boot.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable registry of {@link DomaApplicationListener}s created by
+ * {@link DomaEventListenerFactory}, indexed by the exact pair of entity class and event
+ * context class they are declared for.
+ */
+final class DomaEventHandlerRegistry {
+
+	private final List<DomaApplicationListener> handlers;
+	private final Set<DomaApplicationListener> handlerSet;
+	private final Map<Class<?>, Map<Class<?>, List<DomaApplicationListener>>> index;
+
+	/**
+	 * @param handlers handlers in registration order
+	 */
+	DomaEventHandlerRegistry(List<DomaApplicationListener> handlers) {
+		this.handlers = Collections.unmodifiableList(new ArrayList<>(handlers));
+		Set<DomaApplicationListener> handlerSet = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		handlerSet.addAll(handlers);
+		this.handlerSet = Collections.unmodifiableSet(handlerSet);
+		Map<Class<?>, Map<Class<?>, List<DomaApplicationListener>>> index = new HashMap<>();
+		for (DomaApplicationListener handler : handlers) {
+			for (Class<?> contextClass : handler.getContextClasses()) {
+				index.computeIfAbsent(contextClass, key -> new HashMap<>())
+						.computeIfAbsent(handler.getEntityClass(),
+								key -> new ArrayList<>())
+						.add(handler);
+			}
+		}
+		this.index = index;
+	}
+
+	boolean contains(DomaApplicationListener handler) {
+		return handlerSet.contains(handler);
+	}
+
+	/**
+	 * Returns the handlers of the events of the given entity class, including handlers
+	 * declared for its super classes, in registration order.
+	 *
+	 * @param entityClass entity class
+	 * @param contextClass event context class
+	 * @return the handlers
+	 */
+	List<DomaApplicationListener> getHandlers(Class<?> entityClass,
+			Class<?> contextClass) {
+		Set<DomaApplicationListener> matched = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		for (Map.Entry<Class<?>, Map<Class<?>, List<DomaApplicationListener>>> entry : index
+				.entrySet()) {
+			if (entry.getKey().isAssignableFrom(contextClass) == false) {
+				continue;
+			}
+			for (Class<?> c = entityClass; c != null; c = c.getSuperclass()) {
+				List<DomaApplicationListener> exact = entry.getValue().get(c);
+				if (exact != null) {
+					matched.addAll(exact);
+				}
+			}
+		}
+		List<DomaApplicationListener> result = new ArrayList<>(matched.size());
+		for (DomaApplicationListener handler : handlers) {
+			if (matched.contains(handler)) {
+				result.add(handler);
+			}
+		}
+		return result;
+	}
+}
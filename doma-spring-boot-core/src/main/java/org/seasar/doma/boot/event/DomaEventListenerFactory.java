@@ -1,6 +1,8 @@
 package org.seasar.doma.boot.event;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import org.seasar.doma.boot.event.annotation.HandleDomaEvent;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
@@ -15,6 +17,8 @@ public class DomaEventListenerFactory implements EventListenerFactory, Ordered,
 
 	private int order = Ordered.HIGHEST_PRECEDENCE;
 	private BeanFactory beanFactory;
+	private final List<DomaApplicationListener> handlers = new ArrayList<>();
+	private DomaEventHandlerRegistry registry;
 
 	@Override
 	public boolean supportsMethod(Method method) {
@@ -24,7 +28,32 @@ public class DomaEventListenerFactory implements EventListenerFactory, Ordered,
 	@Override
 	public ApplicationListener<?> createApplicationListener(String beanName,
 			Class<?> type, Method method) {
-		return new DomaApplicationListener(beanName, method, beanFactory);
+		DomaApplicationListener listener = new DomaApplicationListener(beanName, method,
+				beanFactory, getMetrics());
+		synchronized (handlers) {
+			handlers.add(listener);
+			registry = null;
+		}
+		return listener;
+	}
+
+	private DomaEventHandlerMetrics getMetrics() {
+		// Handlers are created after all singletons have been instantiated
+		return beanFactory.getBeanProvider(DomaEventHandlerMetrics.class)
+				.getIfUnique(() -> DomaEventHandlerMetrics.NOOP);
+	}
+
+	/**
+	 * @return the registry of the handlers created so far, which is built once after
+	 * they have been created rather than per handler
+	 */
+	DomaEventHandlerRegistry getRegistry() {
+		synchronized (handlers) {
+			if (registry == null) {
+				registry = new DomaEventHandlerRegistry(handlers);
+			}
+			return registry;
+		}
 	}
 
 	@Override
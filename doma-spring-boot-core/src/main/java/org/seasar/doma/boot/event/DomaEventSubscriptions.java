@@ -0,0 +1,287 @@
+package org.seasar.doma.boot.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.context.event.GenericApplicationListenerAdapter;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.util.StringUtils;
+
+/**
+ * Snapshot of the listeners that may consume {@link DomaEvent}s published to an
+ * {@link ApplicationContext}.
+ * <p>
+ * Handlers created by {@link DomaEventListenerFactory} are looked up in its
+ * {@link DomaEventHandlerRegistry}. Any other {@link ApplicationListener} is matched the
+ * same way as {@link org.springframework.context.event.ApplicationEventMulticaster} does.
+ * The result is memoized per entity class.
+ * <p>
+ * The snapshot becomes stale when listeners are added to any of the contexts, e.g. with
+ * {@link org.springframework.context.ConfigurableApplicationContext#addApplicationListener(ApplicationListener)},
+ * and must then be taken again. Listeners added to the multicaster directly are not
+ * detected. Listeners of child contexts are not included, since events published to a
+ * context do not propagate to its children.
+ */
+final class DomaEventSubscriptions {
+
+	/**
+	 * Spring Boot's listener that forwards every event to the listeners configured by
+	 * {@code context.listener.classes}, and does nothing without them.
+	 */
+	private static final String DELEGATING_APPLICATION_LISTENER = "org.springframework.boot.context.config.DelegatingApplicationListener";
+	private static final String DELEGATING_APPLICATION_LISTENER_PROPERTY = "context.listener.classes";
+
+	private final ApplicationContext context;
+	private final List<AbstractApplicationContext> contexts;
+	private final int listenerCount;
+	private final List<DomaEventHandlerRegistry> registries;
+	private final List<GenericApplicationListener> listeners;
+	private final List<Class<?>> listenerBeanTypes;
+
+	private final ClassValue<Subscription[]> subscriptions = new ClassValue<Subscription[]>() {
+		@Override
+		protected Subscription[] computeValue(Class<?> entityClass) {
+			DomaEventType[] types = DomaEventType.values();
+			Subscription[] subscriptions = new Subscription[types.length];
+			for (DomaEventType type : types) {
+				subscriptions[type.ordinal()] = new Subscription(type,
+						findHandlers(type, entityClass), isListened(type, entityClass));
+			}
+			return subscriptions;
+		}
+	};
+
+	private DomaEventSubscriptions(ApplicationContext context,
+			List<AbstractApplicationContext> contexts, int listenerCount,
+			List<DomaEventHandlerRegistry> registries,
+			List<GenericApplicationListener> listeners, List<Class<?>> listenerBeanTypes) {
+		this.context = context;
+		this.contexts = contexts;
+		this.listenerCount = listenerCount;
+		this.registries = registries;
+		this.listeners = listeners;
+		this.listenerBeanTypes = listenerBeanTypes;
+	}
+
+	/**
+	 * Collects the listeners of the given context and its ancestors.
+	 *
+	 * @param context the context events are published to
+	 * @return the subscriptions, or {@code null} if the listeners of the context cannot
+	 * be determined
+	 */
+	static DomaEventSubscriptions of(ApplicationContext context) {
+		List<AbstractApplicationContext> contexts = new ArrayList<>();
+		int listenerCount = 0;
+		List<DomaEventHandlerRegistry> registries = new ArrayList<>();
+		List<GenericApplicationListener> listeners = new ArrayList<>();
+		List<Class<?>> listenerBeanTypes = new ArrayList<>();
+		// Events propagate from the context to its ancestors, in this order
+		for (ApplicationContext ctx = context; ctx != null; ctx = ctx.getParent()) {
+			if (ctx instanceof AbstractApplicationContext == false) {
+				return null;
+			}
+			AbstractApplicationContext aac = (AbstractApplicationContext) ctx;
+			contexts.add(aac);
+			ConfigurableListableBeanFactory beanFactory = aac.getBeanFactory();
+			for (DomaEventListenerFactory factory : beanFactory.getBeansOfType(
+					DomaEventListenerFactory.class, true, false).values()) {
+				registries.add(factory.getRegistry());
+			}
+			Collection<ApplicationListener<?>> applicationListeners = aac
+					.getApplicationListeners();
+			// Counted first, so that listeners added meanwhile make the snapshot stale
+			listenerCount += applicationListeners.size();
+			for (ApplicationListener<?> listener : applicationListeners) {
+				if (listener instanceof DomaApplicationListener
+						&& isRegistered(registries, (DomaApplicationListener) listener)) {
+					continue;
+				}
+				if (isInactiveDelegate(listener, aac)) {
+					continue;
+				}
+				listeners.add(listener instanceof GenericApplicationListener
+						? (GenericApplicationListener) listener
+						: new GenericApplicationListenerAdapter(listener));
+			}
+			// Listener beans which are not instantiated yet, such as lazy or prototype ones
+			for (String beanName : beanFactory.getBeanNamesForType(
+					ApplicationListener.class, true, false)) {
+				if (beanFactory.containsSingleton(beanName) == false) {
+					listenerBeanTypes.add(beanFactory.getType(beanName));
+				}
+			}
+		}
+		return new DomaEventSubscriptions(context, contexts, listenerCount, registries,
+				listeners, listenerBeanTypes);
+	}
+
+	/**
+	 * @return whether listeners have been added to the contexts since this snapshot was
+	 * taken
+	 */
+	boolean isStale() {
+		int count = 0;
+		for (AbstractApplicationContext context : contexts) {
+			count += context.getApplicationListeners().size();
+		}
+		return count != listenerCount;
+	}
+
+	/**
+	 * @return the context this snapshot was taken of
+	 */
+	ApplicationContext getContext() {
+		return context;
+	}
+
+	private static boolean isRegistered(List<DomaEventHandlerRegistry> registries,
+			DomaApplicationListener listener) {
+		for (DomaEventHandlerRegistry registry : registries) {
+			if (registry.contains(listener)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isInactiveDelegate(ApplicationListener<?> listener,
+			ApplicationContext context) {
+		return listener.getClass().getName().equals(DELEGATING_APPLICATION_LISTENER)
+				&& StringUtils.hasText(context.getEnvironment().getProperty(
+						DELEGATING_APPLICATION_LISTENER_PROPERTY)) == false;
+	}
+
+	/**
+	 * Returns the subscription to the events of the given type and entity class.
+	 *
+	 * @param type event type
+	 * @param entityClass entity class
+	 * @return the subscription
+	 */
+	Subscription get(DomaEventType type, Class<?> entityClass) {
+		return subscriptions.get(entityClass)[type.ordinal()];
+	}
+
+	private DomaApplicationListener[] findHandlers(DomaEventType type,
+			Class<?> entityClass) {
+		List<DomaApplicationListener> handlers = new ArrayList<>();
+		for (DomaEventHandlerRegistry registry : registries) {
+			handlers.addAll(registry.getHandlers(entityClass, type.contextClass()));
+		}
+		// Stable, so handlers without @Order keep the registration order
+		AnnotationAwareOrderComparator.sort(handlers);
+		return handlers.toArray(new DomaApplicationListener[0]);
+	}
+
+	private boolean isListened(DomaEventType type, Class<?> entityClass) {
+		ResolvableType eventType = ResolvableType.forClass(type.eventClass());
+		// The source of batch events is the list of entities
+		Class<?> sourceType = type.isBatch() ? List.class : entityClass;
+		for (GenericApplicationListener listener : listeners) {
+			if (listener.supportsEventType(eventType)
+					&& listener.supportsSourceType(sourceType)) {
+				return true;
+			}
+		}
+		for (Class<?> listenerBeanType : listenerBeanTypes) {
+			if (mayConsume(listenerBeanType, type.eventClass())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean mayConsume(Class<?> listenerBeanType, Class<?> eventClass) {
+		if (listenerBeanType == null
+				|| SmartApplicationListener.class.isAssignableFrom(listenerBeanType)
+				|| GenericApplicationListener.class.isAssignableFrom(listenerBeanType)) {
+			return true;
+		}
+		ResolvableType declaredEventType = ResolvableType.forClass(listenerBeanType)
+				.as(ApplicationListener.class).getGeneric();
+		return declaredEventType.resolve() == null
+				|| declaredEventType.isAssignableFrom(eventClass);
+	}
+
+	/**
+	 * Consumers of the events of an event type and an entity class.
+	 */
+	static final class Subscription {
+
+		private final DomaApplicationListener[] handlers;
+		private final DomaApplicationListener[][] groups;
+		private final boolean listened;
+
+		Subscription(DomaEventType type, DomaApplicationListener[] handlers,
+				boolean listened) {
+			this.handlers = handlers;
+			this.groups = group(type, handlers);
+			this.listened = listened;
+		}
+
+		/**
+		 * Groups consecutive parallel handlers of the same order. Any other handler is
+		 * a group by itself.
+		 */
+		private static DomaApplicationListener[][] group(DomaEventType type,
+				DomaApplicationListener[] handlers) {
+			List<List<DomaApplicationListener>> groups = new ArrayList<>();
+			List<DomaApplicationListener> parallelGroup = null;
+			for (DomaApplicationListener handler : handlers) {
+				if (handler.isParallel(type.contextClass()) == false) {
+					groups.add(Collections.singletonList(handler));
+					parallelGroup = null;
+				} else if (parallelGroup != null
+						&& parallelGroup.get(0).getOrder() == handler.getOrder()) {
+					parallelGroup.add(handler);
+				} else {
+					parallelGroup = new ArrayList<>();
+					parallelGroup.add(handler);
+					groups.add(parallelGroup);
+				}
+			}
+			DomaApplicationListener[][] result = new DomaApplicationListener[groups
+					.size()][];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = groups.get(i).toArray(new DomaApplicationListener[0]);
+			}
+			return result;
+		}
+
+		/**
+		 * @return handlers created by {@link DomaEventListenerFactory}, sorted by
+		 * {@link org.springframework.core.annotation.Order}
+		 */
+		DomaApplicationListener[] getHandlers() {
+			return handlers;
+		}
+
+		/**
+		 * @return handlers in the order to run them. Handlers of a group with more than
+		 * one handler run in parallel.
+		 */
+		DomaApplicationListener[][] getGroups() {
+			return groups;
+		}
+
+		/**
+		 * @return whether any other application listener may consume the events
+		 */
+		boolean isListened() {
+			return listened;
+		}
+
+		boolean isSubscribed() {
+			return handlers.length > 0 || listened;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import org.seasar.doma.jdbc.entity.*;
+
+/**
+ * Kinds of {@link DomaEvent} published by {@link DomaEventEntityListener} and
+ * {@link DomaBatchEventInterceptor}.
+ */
+@SuppressWarnings("unchecked")
+enum DomaEventType {
+
+	PRE_INSERT(PreInsertEvent.class, PreInsertContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PreInsertEvent<>(entity, (PreInsertContext<Object>) context);
+		}
+	},
+
+	PRE_UPDATE(PreUpdateEvent.class, PreUpdateContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PreUpdateEvent<>(entity, (PreUpdateContext<Object>) context);
+		}
+	},
+
+	PRE_DELETE(PreDeleteEvent.class, PreDeleteContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PreDeleteEvent<>(entity, (PreDeleteContext<Object>) context);
+		}
+	},
+
+	POST_INSERT(PostInsertEvent.class, PostInsertContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PostInsertEvent<>(entity, (PostInsertContext<Object>) context);
+		}
+	},
+
+	POST_UPDATE(PostUpdateEvent.class, PostUpdateContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PostUpdateEvent<>(entity, (PostUpdateContext<Object>) context);
+		}
+	},
+
+	POST_DELETE(PostDeleteEvent.class, PostDeleteContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entity, Object context) {
+			return new PostDeleteEvent<>(entity, (PostDeleteContext<Object>) context);
+		}
+	},
+
+	PRE_BATCH_INSERT(PreBatchInsertEvent.class, PreBatchInsertContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PreBatchInsertEvent<>((List<Object>) entities,
+					(PreBatchInsertContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PreBatchInsertContext<>((Class<Object>) entityClass, method);
+		}
+	},
+
+	PRE_BATCH_UPDATE(PreBatchUpdateEvent.class, PreBatchUpdateContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PreBatchUpdateEvent<>((List<Object>) entities,
+					(PreBatchUpdateContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PreBatchUpdateContext<>((Class<Object>) entityClass, method);
+		}
+	},
+
+	PRE_BATCH_DELETE(PreBatchDeleteEvent.class, PreBatchDeleteContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PreBatchDeleteEvent<>((List<Object>) entities,
+					(PreBatchDeleteContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PreBatchDeleteContext<>((Class<Object>) entityClass, method);
+		}
+	},
+
+	POST_BATCH_INSERT(PostBatchInsertEvent.class, PostBatchInsertContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PostBatchInsertEvent<>((List<Object>) entities,
+					(PostBatchInsertContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PostBatchInsertContext<>((Class<Object>) entityClass, method);
+		}
+	},
+
+	POST_BATCH_UPDATE(PostBatchUpdateEvent.class, PostBatchUpdateContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PostBatchUpdateEvent<>((List<Object>) entities,
+					(PostBatchUpdateContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PostBatchUpdateContext<>((Class<Object>) entityClass, method);
+		}
+	},
+
+	POST_BATCH_DELETE(PostBatchDeleteEvent.class, PostBatchDeleteContext.class) {
+		@Override
+		DomaEvent<?, ?> newEvent(Object entities, Object context) {
+			return new PostBatchDeleteEvent<>((List<Object>) entities,
+					(PostBatchDeleteContext<Object>) context);
+		}
+
+		@Override
+		BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+			return new PostBatchDeleteContext<>((Class<Object>) entityClass, method);
+		}
+	};
+
+	private final Class<?> eventClass;
+	private final Class<?> contextClass;
+
+	DomaEventType(Class<?> eventClass, Class<?> contextClass) {
+		this.eventClass = eventClass;
+		this.contextClass = contextClass;
+	}
+
+	public Class<?> eventClass() {
+		return eventClass;
+	}
+
+	public Class<?> contextClass() {
+		return contextClass;
+	}
+
+	/**
+	 * Whether the events of this type are published once per batch, with the list of
+	 * entities as source.
+	 */
+	public boolean isBatch() {
+		return BatchContext.class.isAssignableFrom(contextClass);
+	}
+
+	abstract DomaEvent<?, ?> newEvent(Object entity, Object context);
+
+	BatchContext<?> newBatchContext(Class<?> entityClass, Method method) {
+		throw new UnsupportedOperationException(name());
+	}
+}
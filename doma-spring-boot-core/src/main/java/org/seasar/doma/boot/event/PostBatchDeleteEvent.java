@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PostBatchDeleteEvent<T> extends DomaEvent<List<T>, PostBatchDeleteContext<T>> {
+
+	public PostBatchDeleteEvent(List<T> source, PostBatchDeleteContext<T> context) {
+		super(source, context);
+	}
+}
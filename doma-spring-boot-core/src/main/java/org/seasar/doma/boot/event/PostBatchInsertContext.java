@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+
+public class PostBatchInsertContext<E> extends BatchContext<E> {
+
+	PostBatchInsertContext(Class<E> entityClass, Method method) {
+		super(entityClass, method);
+	}
+}
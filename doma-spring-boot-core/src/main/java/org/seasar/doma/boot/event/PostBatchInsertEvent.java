@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PostBatchInsertEvent<T> extends DomaEvent<List<T>, PostBatchInsertContext<T>> {
+
+	public PostBatchInsertEvent(List<T> source, PostBatchInsertContext<T> context) {
+		super(source, context);
+	}
+}
@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+
+public class PostBatchUpdateContext<E> extends BatchContext<E> {
+
+	PostBatchUpdateContext(Class<E> entityClass, Method method) {
+		super(entityClass, method);
+	}
+}
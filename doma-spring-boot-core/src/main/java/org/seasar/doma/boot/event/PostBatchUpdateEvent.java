@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PostBatchUpdateEvent<T> extends DomaEvent<List<T>, PostBatchUpdateContext<T>> {
+
+	public PostBatchUpdateEvent(List<T> source, PostBatchUpdateContext<T> context) {
+		super(source, context);
+	}
+}
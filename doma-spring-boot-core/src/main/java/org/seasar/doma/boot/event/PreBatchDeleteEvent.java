@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PreBatchDeleteEvent<T> extends DomaEvent<List<T>, PreBatchDeleteContext<T>> {
+
+	public PreBatchDeleteEvent(List<T> source, PreBatchDeleteContext<T> context) {
+		super(source, context);
+	}
+}
@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PreBatchInsertEvent<T> extends DomaEvent<List<T>, PreBatchInsertContext<T>> {
+
+	public PreBatchInsertEvent(List<T> source, PreBatchInsertContext<T> context) {
+		super(source, context);
+	}
+}
@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.lang.reflect.Method;
+
+public class PreBatchUpdateContext<E> extends BatchContext<E> {
+
+	PreBatchUpdateContext(Class<E> entityClass, Method method) {
+		super(entityClass, method);
+	}
+}
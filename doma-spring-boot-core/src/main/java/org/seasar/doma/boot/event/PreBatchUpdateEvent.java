@@ -0,0 +1,10 @@
+package org.seasar.doma.boot.event;
+
+import java.util.List;
+
+public class PreBatchUpdateEvent<T> extends DomaEvent<List<T>, PreBatchUpdateContext<T>> {
+
+	public PreBatchUpdateEvent(List<T> source, PreBatchUpdateContext<T> context) {
+		super(source, context);
+	}
+}
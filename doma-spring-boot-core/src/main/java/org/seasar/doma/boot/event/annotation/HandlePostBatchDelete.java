@@ -0,0 +1,26 @@
+package org.seasar.doma.boot.event.annotation;
+
+import java.lang.annotation.*;
+import org.seasar.doma.boot.event.PostBatchDeleteContext;
+
+@HandleDomaEvent(contextClass = PostBatchDeleteContext.class)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface HandlePostBatchDelete {
+
+	/**
+	 * Whether to run the handler asynchronously, after the transaction has committed.
+	 * Handlers are run by {@link org.seasar.doma.boot.event.DomaEventAsyncExecutor},
+	 * and never run if the transaction is rolled back.
+	 */
+	boolean async() default false;
+
+	/**
+	 * Whether the handler may run concurrently with the other parallel handlers of the
+	 * same event and the same order, on the executor of
+	 * {@link org.seasar.doma.boot.event.DomaEventDispatcher}. The caller waits for all of
+	 * them to complete. Parallel handlers do not run in the caller's transaction.
+	 */
+	boolean parallel() default false;
+}
@@ -8,4 +8,27 @@ import org.seasar.doma.jdbc.entity.PostDeleteContext;
 @Retention(RetentionPolicy.RUNTIME)
 @Inherited
 public @interface HandlePostDelete {
+
+	/**
+	 * Whether to run the handler asynchronously, after the transaction has committed.
+	 * Handlers are run by {@link org.seasar.doma.boot.event.DomaEventAsyncExecutor},
+	 * and never run if the transaction is rolled back.
+	 */
+	boolean async() default false;
+
+	/**
+	 * Whether the handler may run concurrently with the other parallel handlers of the
+	 * same event and the same order, on the executor of
+	 * {@link org.seasar.doma.boot.event.DomaEventDispatcher}. The caller waits for all of
+	 * them to complete. Parallel handlers do not run in the caller's transaction.
+	 */
+	boolean parallel() default false;
+
+	/**
+	 * Whether to coalesce the events of the same entity, identified by its class and
+	 * id, within a transaction. The handler runs once per entity after the transaction
+	 * has committed, with the entity and the context of the last event, and never runs
+	 * if the transaction is rolled back.
+	 */
+	boolean coalesce() default false;
 }
@@ -0,0 +1,11 @@
+package org.seasar.doma.boot.event.annotation;
+
+import java.lang.annotation.*;
+import org.seasar.doma.boot.event.PreBatchDeleteContext;
+
+@HandleDomaEvent(contextClass = PreBatchDeleteContext.class)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface HandlePreBatchDelete {
+}
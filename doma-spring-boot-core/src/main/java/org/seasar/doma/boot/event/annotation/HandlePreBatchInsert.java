@@ -0,0 +1,11 @@
+package org.seasar.doma.boot.event.annotation;
+
+import java.lang.annotation.*;
+import org.seasar.doma.boot.event.PreBatchInsertContext;
+
+@HandleDomaEvent(contextClass = PreBatchInsertContext.class)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface HandlePreBatchInsert {
+}
@@ -0,0 +1,11 @@
+package org.seasar.doma.boot.event.annotation;
+
+import java.lang.annotation.*;
+import org.seasar.doma.boot.event.PreBatchUpdateContext;
+
+@HandleDomaEvent(contextClass = PreBatchUpdateContext.class)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface HandlePreBatchUpdate {
+}
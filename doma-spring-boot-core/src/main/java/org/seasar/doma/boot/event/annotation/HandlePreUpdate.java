@@ -8,4 +8,11 @@ import org.seasar.doma.jdbc.entity.PreUpdateContext;
 @Retention(RetentionPolicy.RUNTIME)
 @Inherited
 public @interface HandlePreUpdate {
+
+	/**
+	 * Names of the properties the handler is interested in. If not empty, the handler
+	 * runs only when any of the properties has been changed, as reported by
+	 * {@code isPropertyChanged} of the context.
+	 */
+	String[] properties() default {};
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.seasar.doma.jdbc.SelectForUpdateType;
+import org.seasar.doma.jdbc.dialect.Dialect;
+import org.seasar.doma.jdbc.dialect.MssqlDialect;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Polls the outbox table written by {@link OutboxRecorder} in the background, and
+ * drains it in batches to {@link OutboxSink}. <br>
+ * <br>
+ * Each batch is read, sent and deleted in one transaction. Rows are locked with
+ * {@code FOR UPDATE SKIP LOCKED} where the dialect supports it, or with the
+ * {@code UPDLOCK} and {@code READPAST} table hints on SQL Server, so that several
+ * application instances drain the table concurrently without sending a message twice.
+ * Otherwise, rows are locked with {@code FOR UPDATE}, or not locked at all. The batch size
+ * is limited in the SQL with the row limiting clause of the dialect, so that the
+ * database does not lock more rows than a batch.
+ */
+public class OutboxDrainer implements SmartLifecycle {
+
+	private static final Log logger = LogFactory.getLog(OutboxDrainer.class);
+
+	private static final RowMapper<OutboxMessage> rowMapper = (rs, rowNum) -> new OutboxMessage(
+			rs.getLong("ID"), rs.getString("AGGREGATE_TYPE"),
+			OutboxEventType.valueOf(rs.getString("EVENT_TYPE")), rs.getString("PAYLOAD"),
+			rs.getTimestamp("CREATED_AT").toInstant());
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final OutboxSink sink;
+	private final String selectSql;
+	private final boolean rowLimited;
+	private final String deleteSql;
+	private int batchSize = 100;
+	private Duration pollInterval = Duration.ofSeconds(1);
+	private ScheduledExecutorService scheduler;
+	private volatile boolean running;
+
+	/**
+	 * @param dataSource data source of the outbox table
+	 * @param dialect dialect of the database
+	 * @param transactionManager transaction manager of the data source
+	 * @param sink destination of the messages
+	 * @param tableName name of the outbox table
+	 */
+	public OutboxDrainer(DataSource dataSource, Dialect dialect,
+			PlatformTransactionManager transactionManager, OutboxSink sink,
+			String tableName) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setMaxRows(batchSize);
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.sink = Objects.requireNonNull(sink);
+		String limitClause = limitClause(dialect);
+		this.selectSql = "SELECT ID, AGGREGATE_TYPE, EVENT_TYPE, PAYLOAD, CREATED_AT FROM "
+				+ tableName + tableHint(dialect) + " ORDER BY ID" + limitClause
+				+ lockClause(dialect);
+		this.rowLimited = limitClause.isEmpty() == false;
+		this.deleteSql = "DELETE FROM " + tableName + " WHERE ID = ?";
+	}
+
+	/**
+	 * @return the table hint that locks the rows, or an empty string if the dialect locks
+	 * them with {@link #lockClause(Dialect)}
+	 */
+	static String tableHint(Dialect dialect) {
+		// SQL Server has no FOR UPDATE, and skips locked rows with READPAST
+		return dialect.getName().equals("mssql") ? " WITH (UPDLOCK, READPAST, ROWLOCK)"
+				: "";
+	}
+
+	static String lockClause(Dialect dialect) {
+		switch (dialect.getName()) {
+		case "postgres":
+		case "oracle":
+			return " FOR UPDATE SKIP LOCKED";
+		case "mssql":
+			return "";
+		default:
+			return dialect.supportsSelectForUpdate(SelectForUpdateType.NORMAL, false)
+					? " FOR UPDATE"
+					: "";
+		}
+	}
+
+	/**
+	 * @return the clause that limits the rows to the batch size bound to it, or an empty
+	 * string if the dialect cannot limit the rows of {@code SELECT ... FOR UPDATE}
+	 */
+	static String limitClause(Dialect dialect) {
+		switch (dialect.getName()) {
+		case "postgres":
+		case "mysql":
+		case "h2":
+		case "hsqldb":
+		case "sqlite":
+			return " LIMIT ?";
+		case "db2":
+		case "standard":
+			return " FETCH FIRST ? ROWS ONLY";
+		case "mssql":
+			return dialect instanceof MssqlDialect ? " OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY"
+					: "";
+		default:
+			// Oracle rejects row limiting with FOR UPDATE. With SKIP LOCKED, it locks
+			// the rows as they are fetched, so the max rows still bound the locks
+			return "";
+		}
+	}
+
+	/**
+	 * Drains one batch of messages.
+	 *
+	 * @return the number of messages sent
+	 */
+	public int drain() {
+		Integer sent = transactionTemplate.execute(status -> {
+			List<OutboxMessage> messages = rowLimited
+					? jdbcTemplate.query(selectSql, rowMapper, batchSize)
+					: jdbcTemplate.query(selectSql, rowMapper);
+			if (messages.isEmpty()) {
+				return 0;
+			}
+			try {
+				sink.send(messages);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new OutboxSinkException(e);
+			}
+			List<Object[]> ids = new ArrayList<>(messages.size());
+			for (OutboxMessage message : messages) {
+				ids.add(new Object[] { message.getId() });
+			}
+			jdbcTemplate.batchUpdate(deleteSql, ids);
+			return messages.size();
+		});
+		return sent != null ? sent : 0;
+	}
+
+	private void poll() {
+		try {
+			int sent;
+			do {
+				sent = drain();
+				// Keep draining while the table has a backlog
+			} while (sent == batchSize && running);
+		} catch (RuntimeException e) {
+			logger.error("Failed to drain the outbox", e);
+		}
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		this.jdbcTemplate.setMaxRows(batchSize);
+	}
+
+	public void setPollInterval(Duration pollInterval) {
+		this.pollInterval = Objects.requireNonNull(pollInterval);
+	}
+
+	@Override
+	public synchronized void start() {
+		if (scheduler == null) {
+			running = true;
+			scheduler = Executors.newSingleThreadScheduledExecutor(
+					new CustomizableThreadFactory("doma-outbox-"));
+			long interval = pollInterval.toMillis();
+			scheduler.scheduleWithFixedDelay(this::poll, interval, interval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (scheduler != null) {
+			running = false;
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			scheduler = null;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Thrown when {@link OutboxSink} fails with a checked exception, to roll back the
+	 * batch.
+	 */
+	@SuppressWarnings("serial")
+	public static class OutboxSinkException extends RuntimeException {
+
+		public OutboxSinkException(Throwable cause) {
+			super(cause);
+		}
+	}
+}
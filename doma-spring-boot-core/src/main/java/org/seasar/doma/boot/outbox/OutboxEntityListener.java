@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import java.util.Objects;
+
+import org.seasar.doma.boot.event.DomaEventEntityListener;
+import org.seasar.doma.jdbc.entity.PostDeleteContext;
+import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PostUpdateContext;
+
+/**
+ * {@link DomaEventEntityListener} that also writes the post-events of entities
+ * annotated with {@link Outbox} to the outbox table. Events are dispatched to handlers
+ * first, then written by {@link OutboxRecorder}.
+ *
+ * @param <T> Entity class
+ */
+public class OutboxEntityListener<T> extends DomaEventEntityListener<T> {
+
+	private final OutboxRecorder recorder;
+
+	public OutboxEntityListener(OutboxRecorder recorder) {
+		this.recorder = Objects.requireNonNull(recorder);
+	}
+
+	@Override
+	public void postInsert(T t, PostInsertContext<T> context) {
+		super.postInsert(t, context);
+		recorder.record(OutboxEventType.INSERT, t);
+	}
+
+	@Override
+	public void postUpdate(T t, PostUpdateContext<T> context) {
+		super.postUpdate(t, context);
+		recorder.record(OutboxEventType.UPDATE, t);
+	}
+
+	@Override
+	public void postDelete(T t, PostDeleteContext<T> context) {
+		super.postDelete(t, context);
+		recorder.record(OutboxEventType.DELETE, t);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A row of the outbox table.
+ */
+public class OutboxMessage {
+
+	private final Long id;
+	private final String aggregateType;
+	private final OutboxEventType eventType;
+	private final String payload;
+	private final Instant createdAt;
+
+	public OutboxMessage(Long id, String aggregateType, OutboxEventType eventType,
+			String payload, Instant createdAt) {
+		this.id = id;
+		this.aggregateType = Objects.requireNonNull(aggregateType);
+		this.eventType = Objects.requireNonNull(eventType);
+		this.payload = payload;
+		this.createdAt = Objects.requireNonNull(createdAt);
+	}
+
+	/**
+	 * @return the identity of the row, or {@code null} if not written yet
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the name of the entity class
+	 */
+	public String getAggregateType() {
+		return aggregateType;
+	}
+
+	public OutboxEventType getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return the entity serialized by {@link OutboxSerializer}
+	 */
+	public String getPayload() {
+		return payload;
+	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	@Override
+	public String toString() {
+		return "OutboxMessage{" + "id=" + id + ", aggregateType='" + aggregateType
+				+ '\'' + ", eventType=" + eventType + ", payload='" + payload + '\''
+				+ ", createdAt=" + createdAt + '}';
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Writes the post-events of entities annotated with {@link Outbox} to the outbox table.
+ * <br>
+ * <br>
+ * Within a Spring transaction, messages are buffered and written with one batched
+ * insert just before the transaction commits, on the same connection, so they are
+ * committed or rolled back together with the entities. Without a transaction, each
+ * message is written immediately. <br>
+ * <br>
+ * The outbox table is expected to have the following columns:
+ *
+ * <pre>
+ * CREATE TABLE DOMA_OUTBOX (
+ *     ID BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+ *     AGGREGATE_TYPE VARCHAR(255) NOT NULL,
+ *     EVENT_TYPE VARCHAR(16) NOT NULL,
+ *     PAYLOAD CLOB,
+ *     CREATED_AT TIMESTAMP NOT NULL
+ * )
+ * </pre>
+ */
+public class OutboxRecorder {
+
+	private static final ClassValue<Set<OutboxEventType>> eventTypes = new ClassValue<Set<OutboxEventType>>() {
+		@Override
+		protected Set<OutboxEventType> computeValue(Class<?> entityClass) {
+			Outbox outbox = entityClass.getAnnotation(Outbox.class);
+			if (outbox == null || outbox.value().length == 0) {
+				return Collections.emptySet();
+			}
+			return Collections.unmodifiableSet(EnumSet.of(outbox.value()[0],
+					outbox.value()));
+		}
+	};
+
+	private final JdbcTemplate jdbcTemplate;
+	private final OutboxSerializer serializer;
+	private final String insertSql;
+
+	/**
+	 * @param dataSource data source of the entities, such as
+	 * {@link org.seasar.doma.jdbc.Config#getDataSource()}
+	 * @param serializer serializer of the entities
+	 * @param tableName name of the outbox table
+	 */
+	public OutboxRecorder(DataSource dataSource, OutboxSerializer serializer,
+			String tableName) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.serializer = Objects.requireNonNull(serializer);
+		this.insertSql = "INSERT INTO " + tableName
+				+ " (AGGREGATE_TYPE, EVENT_TYPE, PAYLOAD, CREATED_AT) VALUES (?, ?, ?, ?)";
+	}
+
+	/**
+	 * Writes the event to the outbox if the entity class is annotated with
+	 * {@link Outbox} for the event type.
+	 *
+	 * @param eventType kind of the event
+	 * @param entity entity
+	 */
+	public void record(OutboxEventType eventType, Object entity) {
+		Class<?> entityClass = entity.getClass();
+		if (eventTypes.get(entityClass).contains(eventType) == false) {
+			return;
+		}
+		OutboxMessage message = new OutboxMessage(null, entityClass.getName(),
+				eventType, serializer.serialize(entity, eventType), Instant.now());
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			Batch batch = (Batch) TransactionSynchronizationManager.getResource(this);
+			if (batch == null) {
+				batch = new Batch();
+				TransactionSynchronizationManager.bindResource(this, batch);
+				TransactionSynchronizationManager.registerSynchronization(batch);
+			}
+			batch.messages.add(message);
+		} else {
+			insert(Collections.singletonList(message));
+		}
+	}
+
+	private void insert(List<OutboxMessage> messages) {
+		List<Object[]> args = new ArrayList<>(messages.size());
+		for (OutboxMessage message : messages) {
+			args.add(new Object[] { message.getAggregateType(),
+					message.getEventType().name(), message.getPayload(),
+					Timestamp.from(message.getCreatedAt()) });
+		}
+		jdbcTemplate.batchUpdate(insertSql, args);
+	}
+
+	/**
+	 * Messages of a transaction, bound to the transaction as a resource.
+	 */
+	private class Batch extends TransactionSynchronizationAdapter {
+
+		final List<OutboxMessage> messages = new ArrayList<>();
+
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(OutboxRecorder.this);
+		}
+
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(OutboxRecorder.this, this);
+		}
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			if (messages.isEmpty() == false) {
+				insert(messages);
+				messages.clear();
+			}
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(OutboxRecorder.this);
+		}
+	}
+}
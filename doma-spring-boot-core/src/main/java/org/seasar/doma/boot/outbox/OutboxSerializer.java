@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+/**
+ * Serializes entities into the payload of {@link OutboxMessage}.
+ */
+@FunctionalInterface
+public interface OutboxSerializer {
+
+	/**
+	 * @param entity entity annotated with {@link Outbox}
+	 * @param eventType kind of the event
+	 * @return payload
+	 */
+	String serialize(Object entity, OutboxEventType eventType);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import java.util.List;
+
+/**
+ * Destination of the messages drained from the outbox table by {@link OutboxDrainer},
+ * such as a message broker.
+ */
+@FunctionalInterface
+public interface OutboxSink {
+
+	/**
+	 * Sends the messages. The messages are deleted from the outbox table only if this
+	 * method returns normally, otherwise they are sent again on the next poll, so the
+	 * sink must tolerate duplicates.
+	 *
+	 * @param messages messages in the order they were written
+	 * @throws Exception if the messages could not be sent
+	 */
+	void send(List<OutboxMessage> messages) throws Exception;
+}
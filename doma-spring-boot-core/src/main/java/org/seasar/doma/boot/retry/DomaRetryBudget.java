@@ -0,0 +1,79 @@
+package org.seasar.doma.boot.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the retries of {@link DomaRetryable} methods across an application, so that
+ * retries cannot multiply the load on a database that is failing. <br>
+ * <br>
+ * The budget is a token bucket: every call of a retryable method deposits
+ * {@code ratio} tokens and every retry withdraws one token. The balance starts at and
+ * never exceeds {@code capacity} tokens. In the steady state a burst of up to
+ * {@code capacity} retries is allowed, and during an outage retries are limited to
+ * {@code ratio} times the calls. While the budget is full, a deposit only reads the
+ * balance.
+ */
+public class DomaRetryBudget {
+
+	private static final long SCALE = 1000;
+
+	private final long deposit;
+	private final long capacity;
+	private final AtomicLong balance;
+
+	/**
+	 * @param ratio retries allowed per call, e.g. {@code 0.1}
+	 * @param capacity maximum number of retries allowed in a burst
+	 */
+	public DomaRetryBudget(double ratio, int capacity) {
+		if (ratio < 0 || capacity < 0) {
+			throw new IllegalArgumentException(
+					"Negative ratio or capacity: " + ratio + ", " + capacity);
+		}
+		this.deposit = Math.round(ratio * SCALE);
+		this.capacity = capacity * SCALE;
+		this.balance = new AtomicLong(this.capacity);
+	}
+
+	/**
+	 * Deposits the tokens of a call.
+	 */
+	public void deposit() {
+		if (deposit == 0) {
+			return;
+		}
+		for (;;) {
+			long current = balance.get();
+			if (current >= capacity) {
+				return;
+			}
+			if (balance.compareAndSet(current, Math.min(capacity, current + deposit))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Withdraws the token of a retry.
+	 *
+	 * @return {@code true} if the retry is allowed
+	 */
+	public boolean tryWithdraw() {
+		for (;;) {
+			long current = balance.get();
+			if (current < SCALE) {
+				return false;
+			}
+			if (balance.compareAndSet(current, current - SCALE)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of retries currently allowed
+	 */
+	public long getAvailableRetries() {
+		return balance.get() / SCALE;
+	}
+}
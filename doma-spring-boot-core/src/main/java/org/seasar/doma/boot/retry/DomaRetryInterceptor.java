@@ -0,0 +1,195 @@
+package org.seasar.doma.boot.retry;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.seasar.doma.boot.retry.DomaRetryMetrics.GiveUpReason;
+import org.seasar.doma.boot.retry.DomaRetryMetrics.Recorder;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.support.ChainedPersistenceExceptionTranslator;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Retries the invocation of a method annotated with {@link DomaRetryable}.
+ */
+class DomaRetryInterceptor implements MethodInterceptor {
+
+	private final BeanFactory beanFactory;
+	private final Map<MethodClassKey, RetryPolicy> policies = new ConcurrentHashMap<>();
+	private volatile DomaRetryBudget budget;
+	private volatile DomaRetryMetrics metrics;
+	private volatile PersistenceExceptionTranslator translator;
+
+	DomaRetryInterceptor(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			// The failure aborts the transaction of the caller, which has to retry it
+			return invocation.proceed();
+		}
+		Class<?> targetClass = invocation.getThis() != null
+				? AopUtils.getTargetClass(invocation.getThis())
+				: invocation.getMethod().getDeclaringClass();
+		MethodClassKey key = new MethodClassKey(invocation.getMethod(), targetClass);
+		RetryPolicy policy = policies.get(key);
+		if (policy == null) {
+			policy = policies.computeIfAbsent(key, k -> RetryPolicy
+					.of(invocation.getMethod(), targetClass, getMetrics()));
+		}
+		if (policy == RetryPolicy.NONE) {
+			return invocation.proceed();
+		}
+		DomaRetryBudget budget = getBudget();
+		budget.deposit();
+		for (int attempt = 1;; attempt++) {
+			policy.recorder.attempt(attempt);
+			try {
+				if (invocation instanceof ProxyMethodInvocation) {
+					// An invocation proceeds through the interceptor chain only once
+					return ((ProxyMethodInvocation) invocation).invocableClone()
+							.proceed();
+				}
+				return invocation.proceed();
+			} catch (Throwable t) {
+				if (policy.isRetryable(translate(t)) == false) {
+					throw t;
+				}
+				if (attempt >= policy.maxAttempts) {
+					policy.recorder.giveUp(GiveUpReason.ATTEMPTS_EXHAUSTED, t);
+					throw t;
+				}
+				if (budget.tryWithdraw() == false) {
+					policy.recorder.giveUp(GiveUpReason.BUDGET_EXHAUSTED, t);
+					throw t;
+				}
+				long backoff = policy.backoff(attempt);
+				if (backoff > 0) {
+					try {
+						TimeUnit.MILLISECONDS.sleep(backoff);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw t;
+					}
+				}
+			}
+		}
+	}
+
+	private Throwable translate(Throwable t) {
+		if (t instanceof DataAccessException || t instanceof RuntimeException == false) {
+			return t;
+		}
+		DataAccessException translated = getTranslator()
+				.translateExceptionIfPossible((RuntimeException) t);
+		return translated != null ? translated : t;
+	}
+
+	private DomaRetryBudget getBudget() {
+		DomaRetryBudget budget = this.budget;
+		if (budget == null) {
+			budget = beanFactory.getBeanProvider(DomaRetryBudget.class)
+					.getIfAvailable(() -> new DomaRetryBudget(0.1, 100));
+			this.budget = budget;
+		}
+		return budget;
+	}
+
+	private DomaRetryMetrics getMetrics() {
+		DomaRetryMetrics metrics = this.metrics;
+		if (metrics == null) {
+			metrics = beanFactory.getBeanProvider(DomaRetryMetrics.class)
+					.getIfAvailable(() -> DomaRetryMetrics.NOOP);
+			this.metrics = metrics;
+		}
+		return metrics;
+	}
+
+	private PersistenceExceptionTranslator getTranslator() {
+		PersistenceExceptionTranslator translator = this.translator;
+		if (translator == null) {
+			ChainedPersistenceExceptionTranslator chained = new ChainedPersistenceExceptionTranslator();
+			beanFactory.getBeanProvider(PersistenceExceptionTranslator.class)
+					.orderedStream().forEach(chained::addDelegate);
+			translator = chained;
+			this.translator = translator;
+		}
+		return translator;
+	}
+
+	static class RetryPolicy {
+
+		static final RetryPolicy NONE = new RetryPolicy();
+
+		final int maxAttempts;
+		final long backoff;
+		final double multiplier;
+		final long maxBackoff;
+		final Class<?>[] retryFor;
+		final Recorder recorder;
+
+		private RetryPolicy() {
+			this.maxAttempts = 1;
+			this.backoff = 0;
+			this.multiplier = 1;
+			this.maxBackoff = 0;
+			this.retryFor = new Class<?>[0];
+			this.recorder = Recorder.NOOP;
+		}
+
+		private RetryPolicy(DomaRetryable retryable, Recorder recorder) {
+			this.maxAttempts = retryable.maxAttempts();
+			this.backoff = retryable.backoff();
+			this.multiplier = retryable.multiplier();
+			this.maxBackoff = retryable.maxBackoff();
+			this.retryFor = retryable.retryFor();
+			this.recorder = recorder;
+		}
+
+		static RetryPolicy of(Method method, Class<?> targetClass,
+				DomaRetryMetrics metrics) {
+			Method specificMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+			DomaRetryable retryable = AnnotatedElementUtils
+					.findMergedAnnotation(specificMethod, DomaRetryable.class);
+			if (retryable == null) {
+				retryable = AnnotatedElementUtils.findMergedAnnotation(targetClass,
+						DomaRetryable.class);
+			}
+			if (retryable == null || retryable.maxAttempts() <= 1) {
+				return NONE;
+			}
+			return new RetryPolicy(retryable, metrics.recorder(targetClass, method));
+		}
+
+		boolean isRetryable(Throwable t) {
+			for (Class<?> type : retryFor) {
+				if (type.isInstance(t)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return a random wait up to the exponential bound of the attempt
+		 */
+		long backoff(int attempt) {
+			double bound = Math.min(maxBackoff,
+					backoff * Math.pow(multiplier, attempt - 1));
+			long max = (long) bound;
+			return max > 0 ? ThreadLocalRandom.current().nextLong(max + 1) : 0;
+		}
+	}
+}
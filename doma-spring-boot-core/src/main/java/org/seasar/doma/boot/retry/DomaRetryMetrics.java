@@ -0,0 +1,73 @@
+package org.seasar.doma.boot.retry;
+
+import java.lang.reflect.Method;
+
+/**
+ * Records the attempts and give-ups of the methods annotated with
+ * {@link DomaRetryable}. <br>
+ * <br>
+ * A {@link Recorder} is created once per method, when the method is first called, so
+ * that recording does not need to look up or allocate anything. Register an
+ * implementation as a bean to enable it.
+ */
+public interface DomaRetryMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	DomaRetryMetrics NOOP = (targetClass, method) -> Recorder.NOOP;
+
+	/**
+	 * @param targetClass class of the bean
+	 * @param method retryable method
+	 * @return the recorder of the method
+	 */
+	Recorder recorder(Class<?> targetClass, Method method);
+
+	/**
+	 * Why a retryable method stopped retrying and rethrew the failure.
+	 */
+	enum GiveUpReason {
+
+		/**
+		 * The maximum number of attempts was reached.
+		 */
+		ATTEMPTS_EXHAUSTED,
+
+		/**
+		 * The {@link DomaRetryBudget} had no retries left.
+		 */
+		BUDGET_EXHAUSTED
+	}
+
+	/**
+	 * Records the attempts and give-ups of a method.
+	 */
+	interface Recorder {
+
+		/**
+		 * Records nothing.
+		 */
+		Recorder NOOP = new Recorder() {
+
+			@Override
+			public void attempt(int attempt) {
+			}
+
+			@Override
+			public void giveUp(GiveUpReason reason, Throwable failure) {
+			}
+		};
+
+		/**
+		 * @param attempt number of the attempt, starting at 1
+		 */
+		void attempt(int attempt);
+
+		/**
+		 * @param reason why the method stopped retrying
+		 * @param failure exception of the last attempt
+		 */
+		void giveUp(GiveUpReason reason, Throwable failure);
+	}
+}
@@ -0,0 +1,39 @@
+package org.seasar.doma.boot.retry;
+
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Proxies the beans whose classes, interfaces or methods are annotated with
+ * {@link DomaRetryable} to retry transient database failures. <br>
+ * <br>
+ * The advisor is put before the existing advisors of a bean, so the retries wrap the
+ * transactions started by {@code @Transactional}. The {@link DomaRetryBudget} and
+ * {@link DomaRetryMetrics} beans are used if they are defined.
+ */
+@SuppressWarnings("serial")
+public class DomaRetryPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+
+	public DomaRetryPostProcessor() {
+		setBeforeExistingAdvisors(true);
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		super.setBeanFactory(beanFactory);
+		this.advisor = new DefaultPointcutAdvisor(retryablePointcut(),
+				new DomaRetryInterceptor(beanFactory));
+	}
+
+	private static Pointcut retryablePointcut() {
+		// Annotations on interfaces, such as Dao interfaces, are inherited
+		return new ComposablePointcut(
+				new AnnotationMatchingPointcut(DomaRetryable.class, true))
+						.union(new AnnotationMatchingPointcut(null,
+								DomaRetryable.class, true));
+	}
+}
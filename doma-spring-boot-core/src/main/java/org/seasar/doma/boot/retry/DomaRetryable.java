@@ -0,0 +1,62 @@
+package org.seasar.doma.boot.retry;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Retries the annotated method, or every method of the annotated type, when it fails
+ * with a transient database failure such as a deadlock, a serialization failure or a
+ * lock timeout. <br>
+ * <br>
+ * The annotation can be put on Dao interfaces annotated with
+ * {@link org.seasar.doma.boot.ConfigAutowireable} as well as on service classes. Thrown
+ * exceptions that are not {@link DataAccessException}s, such as Doma's
+ * {@link org.seasar.doma.jdbc.JdbcException}, are classified by their translation with
+ * the {@link org.springframework.dao.support.PersistenceExceptionTranslator} beans, while
+ * the original exception is rethrown when giving up. <br>
+ * <br>
+ * A failed transaction cannot be continued, so the method is not retried if it is
+ * called within an active transaction. Put the annotation on the method that starts the
+ * transaction, such as a {@code @Transactional} service method, and the retries wrap
+ * the whole transaction. Retries wait for an exponential backoff with full jitter and
+ * are limited by the {@link DomaRetryBudget} of the application. The methods are proxied
+ * by {@link DomaRetryPostProcessor}.
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface DomaRetryable {
+
+	/**
+	 * @return the maximum number of attempts, including the first one
+	 */
+	int maxAttempts() default 3;
+
+	/**
+	 * @return the upper bound of the wait before the first retry, in milliseconds
+	 */
+	long backoff() default 50;
+
+	/**
+	 * @return the factor by which the upper bound of the wait grows on each retry
+	 */
+	double multiplier() default 2.0;
+
+	/**
+	 * @return the maximum upper bound of the wait, in milliseconds
+	 */
+	long maxBackoff() default 1000;
+
+	/**
+	 * @return the translated exception types that are retried
+	 */
+	Class<? extends DataAccessException>[] retryFor() default {
+			PessimisticLockingFailureException.class,
+			TransientDataAccessResourceException.class };
+}
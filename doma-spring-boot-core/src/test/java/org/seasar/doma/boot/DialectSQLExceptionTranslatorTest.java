@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.seasar.doma.jdbc.dialect.Db2Dialect;
+import org.seasar.doma.jdbc.dialect.Dialect;
+import org.seasar.doma.jdbc.dialect.H2Dialect;
+import org.seasar.doma.jdbc.dialect.MssqlDialect;
+import org.seasar.doma.jdbc.dialect.MysqlDialect;
+import org.seasar.doma.jdbc.dialect.OracleDialect;
+import org.seasar.doma.jdbc.dialect.PostgresDialect;
+import org.seasar.doma.jdbc.dialect.SqliteDialect;
+import org.springframework.dao.*;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.SQLExceptionSubclassTranslator;
+
+public class DialectSQLExceptionTranslatorTest {
+
+	private final AtomicInteger fallbackCount = new AtomicInteger();
+
+	private DialectSQLExceptionTranslator translator(Dialect dialect) {
+		return new DialectSQLExceptionTranslator(dialect, () -> {
+			fallbackCount.incrementAndGet();
+			return new SQLExceptionSubclassTranslator();
+		});
+	}
+
+	@Test
+	public void testH2() {
+		DialectSQLExceptionTranslator translator = translator(new H2Dialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 50200)),
+				is(instanceOf(CannotAcquireLockException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 23505)),
+				is(instanceOf(DuplicateKeyException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 42102)),
+				is(instanceOf(BadSqlGrammarException.class)));
+		assertThat(fallbackCount.get(), is(0));
+	}
+
+	@Test
+	public void testPostgresUsesSqlState() {
+		DialectSQLExceptionTranslator translator = translator(new PostgresDialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "40P01", 0)),
+				is(instanceOf(DeadlockLoserDataAccessException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "40001", 0)),
+				is(instanceOf(CannotSerializeTransactionException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "23503", 0)),
+				is(instanceOf(DataIntegrityViolationException.class)));
+	}
+
+	@Test
+	public void testMysql() {
+		DialectSQLExceptionTranslator translator = translator(new MysqlDialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 1062)),
+				is(instanceOf(DuplicateKeyException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 1213)),
+				is(instanceOf(DeadlockLoserDataAccessException.class)));
+	}
+
+	@Test
+	public void testOracle() {
+		DialectSQLExceptionTranslator translator = translator(new OracleDialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 1)),
+				is(instanceOf(DuplicateKeyException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 8177)),
+				is(instanceOf(CannotSerializeTransactionException.class)));
+	}
+
+	@Test
+	public void testMssql() {
+		DialectSQLExceptionTranslator translator = translator(new MssqlDialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 229)),
+				is(instanceOf(PermissionDeniedDataAccessException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 1205)),
+				is(instanceOf(DeadlockLoserDataAccessException.class)));
+	}
+
+	@Test
+	public void testDb2() {
+		DialectSQLExceptionTranslator translator = translator(new Db2Dialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", -803)),
+				is(instanceOf(DuplicateKeyException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", -30081)),
+				is(instanceOf(TransientDataAccessResourceException.class)));
+	}
+
+	@Test
+	public void testBatchUpdateException() {
+		DialectSQLExceptionTranslator translator = translator(new H2Dialect());
+		BatchUpdateException ex = new BatchUpdateException();
+		ex.setNextException(new SQLException("", "", 23505));
+		assertThat(translator.translate("task", "sql", ex),
+				is(instanceOf(DuplicateKeyException.class)));
+	}
+
+	@Test
+	public void testFallback() {
+		DialectSQLExceptionTranslator translator = translator(new H2Dialect());
+		assertThat(translator.translate("task", "sql", new SQLTimeoutException()),
+				is(instanceOf(QueryTimeoutException.class)));
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 1)),
+				is(instanceOf(UncategorizedSQLException.class)));
+		assertThat(fallbackCount.get(), is(1));
+	}
+
+	@Test
+	public void testFallbackWithoutTable() {
+		DialectSQLExceptionTranslator translator = translator(new SqliteDialect());
+		assertThat(translator.translate("task", "sql", new SQLException("", "", 19)),
+				is(instanceOf(UncategorizedSQLException.class)));
+		assertThat(fallbackCount.get(), is(1));
+	}
+}
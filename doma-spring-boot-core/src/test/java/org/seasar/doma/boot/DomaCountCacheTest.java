@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.seasar.doma.boot.event.PostBatchDeleteEvent;
+import org.seasar.doma.boot.event.PostInsertEvent;
+import org.seasar.doma.boot.event.PostUpdateEvent;
+import org.seasar.doma.jdbc.JdbcLogger;
+import org.seasar.doma.jdbc.SelectOptions;
+import org.seasar.doma.jdbc.SelectOptionsAccessor;
+import org.seasar.doma.jdbc.Sql;
+import org.seasar.doma.jdbc.SqlKind;
+import org.seasar.doma.jdbc.SqlParameter;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DomaCountCacheTest {
+
+	private final AtomicLong now = new AtomicLong();
+	private final AtomicInteger counts = new AtomicInteger();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private DomaCountCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new DomaCountCache(Duration.ofSeconds(10), 2);
+		cache.clock = now::get;
+		cache.setMetrics(new DomaCountCacheMetrics() {
+
+			@Override
+			public void hit(Class<?> entityClass) {
+				hits.incrementAndGet();
+			}
+
+			@Override
+			public void miss(Class<?> entityClass) {
+				misses.incrementAndGet();
+			}
+		});
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		assertThat(count(Emp.class, sql("a.sql", "x")), is(1L));
+		assertThat(count(Emp.class, sql("a.sql", "x")), is(1L));
+		assertThat(count(Emp.class, sql("a.sql", "y")), is(2L));
+		assertThat(count(Emp.class, sql("b.sql", "x")), is(3L));
+		assertThat(hits.get(), is(1));
+		assertThat(misses.get(), is(3));
+	}
+
+	@Test
+	public void testTtl() throws Exception {
+		count(Emp.class, sql("a.sql", "x"));
+		now.addAndGet(Duration.ofSeconds(9).toNanos());
+		assertThat(count(Emp.class, sql("a.sql", "x")), is(1L));
+		now.addAndGet(Duration.ofSeconds(1).toNanos());
+		assertThat(count(Emp.class, sql("a.sql", "x")), is(2L));
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		count(Emp.class, sql("a.sql", 1));
+		count(Emp.class, sql("a.sql", 2));
+		count(Emp.class, sql("a.sql", 1));
+		count(Emp.class, sql("a.sql", 3));
+		assertThat(cache.size(), is(2));
+		assertThat(count(Emp.class, sql("a.sql", 1)), is(1L));
+		assertThat(count(Emp.class, sql("a.sql", 2)), is(4L));
+	}
+
+	@Test
+	public void testSqlNotReadFromFile() throws Exception {
+		count(Emp.class, sql(null));
+		count(Emp.class, null);
+		assertThat(counts.get(), is(2));
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void testInvalidateByEvents() throws Exception {
+		count(Emp.class, sql("a.sql"));
+		count(Dept.class, sql("b.sql"));
+		cache.onApplicationEvent(new PostInsertEvent<>(new Emp(), null));
+		assertThat(count(Emp.class, sql("a.sql")), is(3L));
+		assertThat(count(Dept.class, sql("b.sql")), is(2L));
+
+		cache.onApplicationEvent(new PostBatchDeleteEvent<>(
+				Collections.singletonList(new SubEmp()), null));
+		assertThat(count(Emp.class, sql("a.sql")), is(4L));
+
+		assertThat(cache.supportsEventType(PostInsertEvent.class), is(true));
+		assertThat(cache.supportsEventType(PostUpdateEvent.class), is(false));
+	}
+
+	@Test
+	public void testInvalidateAfterTransaction() throws Exception {
+		count(Emp.class, sql("a.sql"));
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			cache.invalidate(Emp.class);
+			cache.invalidate(Emp.class);
+			// Counted by another transaction before the commit
+			assertThat(count(Emp.class, sql("a.sql")), is(2L));
+			List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager
+					.getSynchronizations();
+			assertThat(synchronizations.size(), is(1));
+			synchronizations.forEach(s -> s
+					.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertThat(count(Emp.class, sql("a.sql")), is(3L));
+		assertThat(TransactionSynchronizationManager.getResource(cache),
+				is((Object) null));
+	}
+
+	@Test
+	public void testInvalidateAfterInnerTransaction() throws Exception {
+		count(Dept.class, sql("b.sql"));
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			cache.invalidate(Emp.class);
+			List<TransactionSynchronization> outer = TransactionSynchronizationManager
+					.getSynchronizations();
+			// Suspended by a REQUIRES_NEW transaction
+			outer.forEach(TransactionSynchronization::suspend);
+			TransactionSynchronizationManager.clearSynchronization();
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				cache.invalidate(Dept.class);
+				assertThat(count(Dept.class, sql("b.sql")), is(2L));
+				List<TransactionSynchronization> inner = TransactionSynchronizationManager
+						.getSynchronizations();
+				assertThat(inner.size(), is(1));
+				inner.forEach(s -> s
+						.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+			} finally {
+				TransactionSynchronizationManager.clearSynchronization();
+			}
+			assertThat(count(Dept.class, sql("b.sql")), is(3L));
+			TransactionSynchronizationManager.initSynchronization();
+			outer.forEach(TransactionSynchronizationManager::registerSynchronization);
+			outer.forEach(TransactionSynchronization::resume);
+			assertThat(TransactionSynchronizationManager.getResource(cache),
+					is((Object) outer.get(0)));
+			outer.forEach(s -> s
+					.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertThat(TransactionSynchronizationManager.getResource(cache),
+				is((Object) null));
+	}
+
+	@Test
+	public void testInvalidateAll() throws Exception {
+		count(Emp.class, sql("a.sql"));
+		cache.invalidateAll();
+		assertThat(cache.size(), is(0));
+		assertThat(count(Emp.class, sql("a.sql")), is(2L));
+	}
+
+	@Test
+	public void testToPage() throws Exception {
+		JdbcLogger logger = cache.jdbcLogger(mock(JdbcLogger.class));
+		List<Integer> rows = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+		List<Integer> selects = new ArrayList<>();
+		Sql<?> sql = sql("select.sql", "x");
+		for (int i = 0; i < 2; i++) {
+			Page<Integer> page = Pageables.toPage(PageRequest.of(i, 10), cache,
+					Emp.class, options -> {
+						logger.logSql("Dao", "select", sql);
+						selects.add(Math.toIntExact(SelectOptionsAccessor.getOffset(options)));
+						if (SelectOptionsAccessor.isCount(options)) {
+							SelectOptionsAccessor.setCountSize(options, rows.size());
+						}
+						return select(rows, options);
+					});
+			assertThat(page.getTotalElements(), is(25L));
+		}
+		// The count runs with the first page only
+		assertThat(selects, is(Arrays.asList(0, -1, 10)));
+		assertThat(hits.get(), is(1));
+		assertThat(misses.get(), is(1));
+	}
+
+	private long count(Class<?> entityClass, Sql<?> sql) {
+		return cache.get(entityClass, sql, () -> counts.incrementAndGet());
+	}
+
+	private static List<Integer> select(List<Integer> rows, SelectOptions options) {
+		long offset = Math.max(SelectOptionsAccessor.getOffset(options), 0);
+		return rows.stream().skip(offset).limit(SelectOptionsAccessor.getLimit(options))
+				.collect(Collectors.toList());
+	}
+
+	private static Sql<?> sql(String sqlFilePath, Object... values) {
+		List<SqlParameter> parameters = new ArrayList<>();
+		for (Object value : values) {
+			SqlParameter parameter = mock(SqlParameter.class);
+			when(parameter.getValue()).thenReturn(value);
+			parameters.add(parameter);
+		}
+		Sql<?> sql = mock(Sql.class);
+		when(sql.getKind()).thenReturn(SqlKind.SELECT);
+		when(sql.getSqlFilePath()).thenReturn(sqlFilePath);
+		doReturn(parameters).when(sql).getParameters();
+		return sql;
+	}
+
+	static class Emp {
+	}
+
+	static class SubEmp extends Emp {
+	}
+
+	static class Dept {
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.seasar.doma.boot.DomaPersistenceExceptionTranslator.Category;
+import org.seasar.doma.jdbc.OptimisticLockException;
+import org.seasar.doma.jdbc.SqlKind;
+import org.seasar.doma.jdbc.SqlLogType;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.support.SQLExceptionSubclassTranslator;
+
+/**
+ * Throughput of {@link DomaPersistenceExceptionTranslator} under a high rate of
+ * optimistic lock failures, mixed with exceptions not thrown by Doma as seen by a
+ * {@code @Repository} proxy. <br>
+ * <br>
+ * By default, only a short concurrent run checks the translations. The benchmark runs
+ * with the system property {@code doma.benchmark=true}, e.g.
+ * {@code mvn test -Ddoma.benchmark=true}, and logs the throughput. The number of
+ * translations per run can be raised with the system property
+ * {@code doma.benchmark.operations}.
+ */
+public class DomaPersistenceExceptionTranslatorBenchmarkTest {
+
+	private static final Logger logger = Logger
+			.getLogger(DomaPersistenceExceptionTranslatorBenchmarkTest.class.getName());
+
+	private static final boolean BENCHMARK = Boolean.getBoolean("doma.benchmark");
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+	private static final int OPERATIONS = Integer.getInteger("doma.benchmark.operations",
+			200_000);
+
+	private final OptimisticLockException optimisticLock = new OptimisticLockException(
+			SqlLogType.FORMATTED, SqlKind.UPDATE,
+			"update todo set title = ? where todo_id = ? and version = ?",
+			"update todo set title = 'Modified Title' where todo_id = '000000001' and version = 1",
+			"TodoDao/update.sql");
+	private final IllegalStateException other = new IllegalStateException();
+
+	@Test
+	public void translateConcurrently() throws Exception {
+		run(translator(), 4, 1_000, optimisticLock, other);
+		run(stacklessTranslator(), 4, 1_000, optimisticLock, other);
+	}
+
+	@Test
+	public void benchmarkOptimisticLockFailures() throws Exception {
+		assumeTrue(BENCHMARK);
+		benchmark("translate", translator());
+	}
+
+	@Test
+	public void benchmarkOptimisticLockFailuresWithoutStackTrace() throws Exception {
+		assumeTrue(BENCHMARK);
+		benchmark("translate stackless", stacklessTranslator());
+	}
+
+	private static DomaPersistenceExceptionTranslator translator() {
+		return new DomaPersistenceExceptionTranslator(new SQLExceptionSubclassTranslator());
+	}
+
+	private static DomaPersistenceExceptionTranslator stacklessTranslator() {
+		DomaPersistenceExceptionTranslator translator = translator();
+		translator.setLazyMessage(true);
+		translator.setStacklessCategories(Collections.singleton(Category.OPTIMISTIC_LOCK));
+		return translator;
+	}
+
+	private void benchmark(String name, DomaPersistenceExceptionTranslator translator)
+			throws Exception {
+		// Warm up
+		run(translator, 1, OPERATIONS, optimisticLock, other);
+		for (int threads : THREADS) {
+			int operations = Math.max(1, OPERATIONS / threads);
+			long elapsed = run(translator, threads, operations, optimisticLock, other);
+			long translations = (long) threads * operations;
+			logger.info(String.format("%s: %d threads, %,d exceptions, %,.0f exceptions/s",
+					name, threads, translations, translations * 1e9 / Math.max(1, elapsed)));
+		}
+	}
+
+	private long run(DomaPersistenceExceptionTranslator translator, int threads,
+			int operations, RuntimeException optimisticLock,
+			RuntimeException other) throws Exception {
+		CyclicBarrier start = new CyclicBarrier(threads + 1);
+		CountDownLatch end = new CountDownLatch(threads);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicInteger translated = new AtomicInteger();
+		for (int i = 0; i < threads; i++) {
+			new Thread(() -> {
+				try {
+					start.await();
+					int count = 0;
+					for (int j = 0; j < operations; j++) {
+						// Nine optimistic lock failures to every other exception
+						DataAccessException dae = translator
+								.translateExceptionIfPossible(j % 10 == 0 ? other
+										: optimisticLock);
+						if (dae instanceof OptimisticLockingFailureException) {
+							count++;
+						}
+					}
+					translated.addAndGet(count);
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				} finally {
+					end.countDown();
+				}
+			}, "translator-" + i).start();
+		}
+		start.await();
+		long begin = System.nanoTime();
+		end.await();
+		long elapsed = System.nanoTime() - begin;
+		assertThat(failure.get(), nullValue());
+		assertThat(translated.get(), is(threads * (operations - (operations + 9) / 10)));
+		return elapsed;
+	}
+}
@@ -19,7 +19,10 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 import org.seasar.doma.DomaException;
@@ -152,4 +155,126 @@ public class DomaPersistenceExceptionTranslatorTest {
 				is(instanceOf(UncategorizedDataAccessException.class)));
 	}
 
+
+	@Test
+	public void testOverrideMapping() {
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator(),
+				Collections.singletonList(DomaExceptionMapping.of(
+						OptimisticLockException.class,
+						ex -> new ConcurrencyFailureException(ex.getMessage(), ex))));
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(new OptimisticLockException(
+						SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null));
+		assertThat(dataAccessException, is(instanceOf(ConcurrencyFailureException.class)));
+	}
+
+	@Test
+	public void testMappingOfSuperclass() {
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator(),
+				Collections.singletonList(DomaExceptionMapping.of(MyJdbcException.class,
+						ex -> new PessimisticLockingFailureException(ex.getMessage(), ex))));
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(new MySubJdbcException());
+		assertThat(dataAccessException,
+				is(instanceOf(PessimisticLockingFailureException.class)));
+		// Subclasses of built-in mappings keep their translation
+		dataAccessException = translator
+				.translateExceptionIfPossible(new OptimisticLockException(
+						SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null) {
+				});
+		assertThat(dataAccessException,
+				is(instanceOf(OptimisticLockingFailureException.class)));
+	}
+
+	@Test
+	public void testMappingReturnsNull() {
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator(),
+				Collections.singletonList(DomaExceptionMapping.of(MyJdbcException.class,
+						ex -> null)));
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(new MyJdbcException());
+		assertThat(dataAccessException, is(instanceOf(UncategorizedSQLException.class)));
+	}
+
+	@Test
+	public void testLazyMessage() {
+		OptimisticLockException optimisticLockException = new OptimisticLockException(
+				SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null);
+		String expected = translator.translateExceptionIfPossible(
+				optimisticLockException).getMessage();
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator());
+		translator.setLazyMessage(true);
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(optimisticLockException);
+		assertThat(dataAccessException,
+				is(instanceOf(OptimisticLockingFailureException.class)));
+		assertThat(dataAccessException.getMessage(), is(expected));
+		// The stack trace starts where the exception is created
+		assertThat(dataAccessException.getStackTrace()[0].getMethodName(),
+				is("createLightweight"));
+	}
+
+	@Test
+	public void testStacklessCategories() {
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator());
+		translator.setStacklessCategories(Collections.singleton(
+				DomaPersistenceExceptionTranslator.Category.OPTIMISTIC_LOCK));
+		OptimisticLockException optimisticLockException = new OptimisticLockException(
+				SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null);
+		DataAccessException dataAccessException = translator
+				.translateExceptionIfPossible(optimisticLockException);
+		assertThat(dataAccessException,
+				is(instanceOf(OptimisticLockingFailureException.class)));
+		assertThat(dataAccessException.getStackTrace().length, is(0));
+		assertThat(dataAccessException.getCause(),
+				is(sameInstance((Throwable) optimisticLockException)));
+		assertThat(dataAccessException.getMessage(),
+				is(this.translator.translateExceptionIfPossible(optimisticLockException)
+						.getMessage()));
+
+		dataAccessException = translator.translateExceptionIfPossible(
+				new UniqueConstraintException(SqlLogType.FORMATTED, SqlKind.INSERT,
+						"insert", "insert", null, new SQLException()));
+		assertThat(dataAccessException, is(instanceOf(DuplicateKeyException.class)));
+		assertThat(dataAccessException.getStackTrace().length, is(not(0)));
+	}
+
+	@Test
+	public void testMetrics() {
+		List<List<Object>> records = new ArrayList<>();
+		DomaPersistenceExceptionTranslator translator = new DomaPersistenceExceptionTranslator(
+				new SQLExceptionSubclassTranslator());
+		translator.setStacklessCategories(Collections.singleton(
+				DomaPersistenceExceptionTranslator.Category.DUPLICATE_KEY));
+		translator.setMetrics((exceptionType, translatedType, errorCode,
+				sqlFilePath) -> records.add(
+						Arrays.asList(exceptionType, translatedType, errorCode, sqlFilePath)));
+
+		translator.translateExceptionIfPossible(new UniqueConstraintException(
+				SqlLogType.FORMATTED, SqlKind.INSERT, "insert", "insert",
+				"TodoDao/insert.sql", new SQLException("duplicate", "23505", 23505)));
+		translator.translateExceptionIfPossible(new OptimisticLockException(
+				SqlLogType.FORMATTED, SqlKind.UPDATE, "update", "update", null));
+		translator.translateExceptionIfPossible(new DomaException(Message.DOMA2008));
+
+		assertThat(records.size(), is(2));
+		assertThat(records.get(0), is(Arrays.asList(UniqueConstraintException.class,
+				DuplicateKeyException.class, 23505, "TodoDao/insert.sql")));
+		assertThat(records.get(1), is(Arrays.asList(OptimisticLockException.class,
+				OptimisticLockingFailureException.class, null, null)));
+	}
+
+	static class MyJdbcException extends JdbcException {
+		MyJdbcException() {
+			super(Message.DOMA2008, new SQLException());
+		}
+	}
+
+	static class MySubJdbcException extends MyJdbcException {
+	}
 }
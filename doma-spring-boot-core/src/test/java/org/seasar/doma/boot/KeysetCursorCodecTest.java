@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Base64;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class KeysetCursorCodecTest {
+
+	private final KeysetCursorCodec codec = new KeysetCursorCodec(
+			"0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		KeysetCursor cursor = KeysetCursor.of("name", 1, 2L, (short) 3,
+				new BigDecimal("-12.340"), new BigInteger("123456789012345678901234567890"),
+				true, LocalDate.of(2020, 2, 29), LocalDateTime.of(2020, 2, 29, 12, 34, 56, 789),
+				LocalTime.of(23, 59, 59, 999999999), Instant.ofEpochSecond(-1, 5),
+				UUID.randomUUID(), null);
+		String token = codec.encode(cursor);
+		assertThat(codec.decode(token), is(cursor));
+	}
+
+	@Test
+	public void testNull() throws Exception {
+		assertThat(codec.encode(null), is(nullValue()));
+		assertThat(codec.decode(null), is(KeysetCursor.FIRST));
+		assertThat(codec.decode(""), is(KeysetCursor.FIRST));
+		assertThat(codec.decode(codec.encode(KeysetCursor.FIRST)),
+				is(KeysetCursor.FIRST));
+	}
+
+	@Test
+	public void testTamperedToken() throws Exception {
+		byte[] bytes = Base64.getUrlDecoder().decode(codec.encode(KeysetCursor.of(100)));
+		bytes[6]++;
+		assertInvalid(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+	}
+
+	@Test
+	public void testTokenOfOtherSecret() throws Exception {
+		KeysetCursorCodec other = new KeysetCursorCodec(
+				"fedcba9876543210".getBytes(StandardCharsets.UTF_8));
+		String token = other.encode(KeysetCursor.of(100));
+		assertThat(token, is(not(codec.encode(KeysetCursor.of(100)))));
+		assertInvalid(token);
+	}
+
+	@Test
+	public void testMalformedToken() throws Exception {
+		assertInvalid("not a token!");
+		assertInvalid("AAAA");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedValue() throws Exception {
+		codec.encode(KeysetCursor.of(new Object()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortSecret() throws Exception {
+		new KeysetCursorCodec(new byte[8]);
+	}
+
+	private void assertInvalid(String token) {
+		try {
+			codec.decode(token);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
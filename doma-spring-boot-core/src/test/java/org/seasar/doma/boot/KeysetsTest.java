@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.seasar.doma.jdbc.SelectOptions;
+import org.seasar.doma.jdbc.SelectOptionsAccessor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class KeysetsTest {
+
+	@Test
+	public void testToSelectOptions() throws Exception {
+		SelectOptions options = Keysets.toSelectOptions(10);
+		assertThat(SelectOptionsAccessor.getOffset(options), is(-1L));
+		assertThat(SelectOptionsAccessor.getLimit(options), is(10L));
+	}
+
+	@Test
+	public void testNextCursor() throws Exception {
+		List<String[]> rows = Arrays.asList(new String[] { "a", "1" },
+				new String[] { "b", "2" });
+		KeysetCursor cursor = Keysets.nextCursor(rows, row -> row[0],
+				row -> Integer.valueOf(row[1]));
+		assertThat(cursor, is(KeysetCursor.of("b", 2)));
+		assertThat(cursor.size(), is(2));
+		assertThat(cursor.get(1), is((Object) 2));
+	}
+
+	@Test
+	public void testNextCursorOfEmptyPage() throws Exception {
+		KeysetCursor cursor = Keysets.nextCursor(Collections.<String> emptyList(),
+				String::length);
+		assertThat(cursor, is(nullValue()));
+	}
+
+	@Test
+	public void testFirstCursor() throws Exception {
+		assertThat(KeysetCursor.of(), is(sameInstance(KeysetCursor.FIRST)));
+		assertThat(KeysetCursor.FIRST.isFirst(), is(true));
+		assertThat(KeysetCursor.of(1).isFirst(), is(false));
+	}
+}
@@ -15,10 +15,19 @@
  */
 package org.seasar.doma.boot;
 
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import org.junit.Test;
+import org.seasar.doma.boot.Pageables.CountStrategy;
 import org.seasar.doma.jdbc.SelectOptions;
 import org.seasar.doma.jdbc.SelectOptionsAccessor;
+import org.seasar.doma.jdbc.dialect.H2Dialect;
+import org.seasar.doma.jdbc.dialect.MysqlDialect;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -46,6 +55,96 @@ public class PageablesTest {
 		assertThat(SelectOptionsAccessor.getLimit(options), is(5L));
 	}
 
+	@Test
+	public void testToPage() throws Exception {
+		Rows rows = new Rows(25);
+		Page<Integer> page = Pageables.toPage(pageRequest(1, 10), rows::select);
+		assertThat(page.getContent(), is(rows.all.subList(10, 20)));
+		assertThat(page.getTotalElements(), is(25L));
+		assertThat(rows.selects, is(1));
+		assertThat(rows.counts, is(1));
+	}
+
+	@Test
+	public void testToPageSkipShortPage() throws Exception {
+		Rows rows = new Rows(25);
+		Page<Integer> page = Pageables.toPage(pageRequest(2, 10),
+				CountStrategy.SKIP_SHORT_PAGE, rows::select);
+		assertThat(page.getContent(), is(rows.all.subList(20, 25)));
+		assertThat(page.getTotalElements(), is(25L));
+		assertThat(rows.selects, is(1));
+		assertThat(rows.counts, is(0));
+
+		page = Pageables.toPage(pageRequest(0, 10), CountStrategy.SKIP_SHORT_PAGE,
+				rows::select);
+		assertThat(page.getContent(), is(rows.all.subList(0, 10)));
+		assertThat(page.getTotalElements(), is(25L));
+		assertThat(rows.selects, is(3));
+		assertThat(rows.counts, is(1));
+	}
+
+	@Test
+	public void testToPageWithWindowCount() throws Exception {
+		Rows rows = new Rows(25);
+		Page<Integer> page = Pageables.toPage(pageRequest(1, 10), rows::select,
+				row -> rows.all.size());
+		assertThat(page.getContent(), is(rows.all.subList(10, 20)));
+		assertThat(page.getTotalElements(), is(25L));
+		assertThat(rows.selects, is(1));
+		assertThat(rows.counts, is(0));
+
+		page = Pageables.toPage(pageRequest(5, 10), rows::select,
+				row -> rows.all.size());
+		assertThat(page.getContent().isEmpty(), is(true));
+		assertThat(page.getTotalElements(), is(25L));
+		assertThat(rows.selects, is(3));
+		assertThat(rows.counts, is(0));
+	}
+
+	@Test
+	public void testToSlice() throws Exception {
+		Rows rows = new Rows(20);
+		Slice<Integer> slice = Pageables.toSlice(pageRequest(0, 10), rows::select);
+		assertThat(slice.getContent(), is(rows.all.subList(0, 10)));
+		assertThat(slice.hasNext(), is(true));
+
+		slice = Pageables.toSlice(pageRequest(1, 10), rows::select);
+		assertThat(slice.getContent(), is(rows.all.subList(10, 20)));
+		assertThat(slice.hasNext(), is(false));
+		assertThat(rows.counts, is(0));
+	}
+
+	@Test
+	public void testSupportsWindowCount() throws Exception {
+		assertThat(Pageables.supportsWindowCount(new H2Dialect()), is(true));
+		assertThat(Pageables.supportsWindowCount(new MysqlDialect()), is(false));
+	}
+
+	/**
+	 * Selects rows like a DAO with {@link SelectOptions}.
+	 */
+	private static class Rows {
+		final List<Integer> all;
+		int selects;
+		int counts;
+
+		Rows(int size) {
+			all = IntStream.range(0, size).boxed().collect(Collectors.toList());
+		}
+
+		List<Integer> select(SelectOptions options) {
+			selects++;
+			if (SelectOptionsAccessor.isCount(options)) {
+				counts++;
+				SelectOptionsAccessor.setCountSize(options, all.size());
+			}
+			long offset = Math.max(SelectOptionsAccessor.getOffset(options), 0);
+			long limit = SelectOptionsAccessor.getLimit(options);
+			return all.stream().skip(offset).limit(limit > 0 ? limit : Long.MAX_VALUE)
+					.collect(Collectors.toList());
+		}
+	}
+
 	private static PageRequest pageRequest(int page, int size) throws Exception {
 		try {
 			// Try PageRequest.of(int, int) added since Spring Data Commons 2.0
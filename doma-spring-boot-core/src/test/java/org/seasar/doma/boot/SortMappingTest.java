@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot;
+
+import java.util.function.BiFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.seasar.doma.jdbc.Naming;
+import org.seasar.doma.jdbc.entity.EntityPropertyType;
+import org.seasar.doma.jdbc.entity.EntityType;
+import org.seasar.doma.jdbc.entity.NamingType;
+import org.springframework.data.domain.Sort;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SortMappingTest {
+
+	private EntityType<?> entityType;
+
+	@Before
+	public void setUp() {
+		entityType = mock(EntityType.class);
+		when(entityType.getName()).thenReturn("Message");
+		property("id");
+		property("createdAt");
+		property("secret");
+	}
+
+	@Test
+	public void testToOrderBy() throws Exception {
+		SortMapping mapping = SortMapping.of(entityType, Naming.SNAKE_LOWER_CASE, "id",
+				"createdAt");
+		assertThat(mapping.toOrderBy(Sort.by("createdAt")), is("created_at asc, "));
+		assertThat(
+				mapping.toOrderBy(
+						Sort.by(Sort.Order.desc("createdAt"), Sort.Order.asc("id"))),
+				is("created_at desc, id asc, "));
+		assertThat(mapping.toOrderBy(Sort.unsorted()), is(""));
+	}
+
+	@Test
+	public void testWithTableAlias() throws Exception {
+		SortMapping mapping = SortMapping.of(entityType, Naming.NONE, "createdAt")
+				.withTableAlias("m");
+		assertThat(mapping.toOrderBy(Sort.by(Sort.Direction.DESC, "createdAt")),
+				is("m.createdAt desc, "));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPropertyNotWhitelisted() throws Exception {
+		SortMapping.of(entityType, Naming.NONE, "id").toOrderBy(Sort.by("secret"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInjection() throws Exception {
+		SortMapping.of(entityType, Naming.NONE, "id")
+				.toOrderBy(Sort.by("id; drop table message"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIgnoreCase() throws Exception {
+		SortMapping.of(entityType, Naming.NONE, "id")
+				.toOrderBy(Sort.by(Sort.Order.asc("id").ignoreCase()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullHandling() throws Exception {
+		SortMapping.of(entityType, Naming.NONE, "id")
+				.toOrderBy(Sort.by(Sort.Order.asc("id").nullsLast()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownProperty() throws Exception {
+		SortMapping.of(entityType, Naming.NONE, "unknown");
+	}
+
+	@SuppressWarnings("unchecked")
+	private void property(String name) {
+		EntityPropertyType<?, ?> propertyType = mock(EntityPropertyType.class);
+		when(propertyType.getName()).thenReturn(name);
+		when(propertyType.getColumnName(any(BiFunction.class))).thenAnswer(
+				invocation -> ((BiFunction<NamingType, String, String>) invocation
+						.getArgument(0)).apply(null, name));
+		doReturn(propertyType).when(entityType).getEntityPropertyType(name);
+	}
+}
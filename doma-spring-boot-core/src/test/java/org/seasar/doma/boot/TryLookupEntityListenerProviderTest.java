@@ -18,44 +18,191 @@ package org.seasar.doma.boot;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Test;
 import org.seasar.doma.jdbc.entity.EntityListener;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 
 public class TryLookupEntityListenerProviderTest {
 
 	@Test
 	public void testManaged() throws Exception {
-		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
-		context.register(FooListener.class);
-		context.refresh();
-		TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
-		provider.setApplicationContext(context);
-		FooListener listener = provider.get(FooListener.class, FooListener::new);
-		assertThat(listener.managed, is(true));
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.register(FooListener.class);
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener.managed, is(true));
+		}
 	}
 
 	@Test(expected = IllegalStateException.class)
 	public void testManaged_notUnique() throws Exception {
-		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
-				FooConfig.class);
-		TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
-		provider.setApplicationContext(context);
-		provider.get(FooListener.class, FooListener::new);
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+				FooConfig.class)) {
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			provider.get(FooListener.class, FooListener::new);
+		}
+	}
+
+	@Test
+	public void testManaged_prototype() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.register(PrototypeConfig.class);
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			FooListener listener2 = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener.managed, is(true));
+			assertThat(listener2.managed, is(true));
+			assertThat(listener2, is(not(sameInstance(listener))));
+		}
 	}
 
 	@Test
 	public void testNotManaged() throws Exception {
-		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
-		context.refresh();
-		TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
-		provider.setApplicationContext(context);
-		FooListener listener = provider.get(FooListener.class, FooListener::new);
-		assertThat(listener.managed, is(false));
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener.managed, is(false));
+		}
+	}
+
+	@Test
+	public void testCached_managed() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.register(FooListener.class);
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			FooListener listener2 = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener2, is(sameInstance(listener)));
+		}
+	}
+
+	@Test
+	public void testCached() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			FooListener listener2 = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener2, is(sameInstance(listener)));
+		}
+	}
+
+	@Test
+	public void testCacheClearedOnRefresh() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.registerBean(TryLookupEntityListenerProvider.class);
+			context.refresh();
+			TryLookupEntityListenerProvider provider = context
+					.getBean(TryLookupEntityListenerProvider.class);
+			FooListener listener = provider.get(FooListener.class, FooListener::new);
+			assertThat(listener.managed, is(false));
+
+			try (AnnotationConfigApplicationContext child = new AnnotationConfigApplicationContext()) {
+				child.setParent(context);
+				child.refresh();
+				FooListener listener2 = provider.get(FooListener.class, FooListener::new);
+				assertThat(listener2, is(not(sameInstance(listener))));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentGet() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.register(FooListener.class);
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+			FooListener bean = context.getBean(FooListener.class);
+
+			int threads = 64;
+			CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+			AtomicBoolean running = new AtomicBoolean(true);
+			ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+			try {
+				List<Future<Boolean>> futures = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					futures.add(executor.submit(() -> {
+						barrier.await();
+						boolean same = true;
+						for (int j = 0; j < 10_000; j++) {
+							same &= provider.get(FooListener.class,
+									FooListener::new) == bean;
+						}
+						return same;
+					}));
+				}
+				// Clear the cache while the listener is being looked up
+				Future<?> refresher = executor.submit(() -> {
+					barrier.await();
+					while (running.get()) {
+						provider.onApplicationEvent(new ContextRefreshedEvent(context));
+						Thread.yield();
+					}
+					return null;
+				});
+				for (Future<Boolean> future : futures) {
+					assertThat(future.get(), is(true));
+				}
+				running.set(false);
+				refresher.get();
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentGet_notManaged() throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.refresh();
+			TryLookupEntityListenerProvider provider = new TryLookupEntityListenerProvider();
+			provider.setApplicationContext(context);
+
+			int threads = 64;
+			CyclicBarrier barrier = new CyclicBarrier(threads);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<FooListener>> futures = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					futures.add(executor.submit(() -> {
+						barrier.await();
+						return provider.get(FooListener.class, FooListener::new);
+					}));
+				}
+				FooListener listener = futures.get(0).get();
+				for (Future<FooListener> future : futures) {
+					assertThat(future.get(), is(sameInstance(listener)));
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
 	}
 
 	@Component
@@ -86,4 +233,12 @@ public class TryLookupEntityListenerProviderTest {
 			return new FooListener();
 		}
 	}
+
+	public static class PrototypeConfig {
+		@Bean
+		@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+		FooListener foo(ApplicationContext context) {
+			return new FooListener(context);
+		}
+	}
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.seasar.doma.boot.audit.AuditJournal.FsyncPolicy;
+import org.seasar.doma.boot.event.PostBatchInsertContext;
+import org.seasar.doma.boot.event.PostBatchInsertEvent;
+import org.seasar.doma.boot.event.PostDeleteEvent;
+import org.seasar.doma.boot.event.PostInsertEvent;
+import org.seasar.doma.boot.event.PostUpdateEvent;
+import org.seasar.doma.boot.event.PreInsertEvent;
+import org.seasar.doma.jdbc.entity.PostDeleteContext;
+import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PostUpdateContext;
+import org.seasar.doma.jdbc.entity.PreInsertContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings("unchecked")
+public class AuditTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	EmbeddedDatabase database;
+	TransactionTemplate transactionTemplate;
+	Path directory;
+	AuditJournal journal;
+	AuditRecorder recorder;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+				.generateUniqueName(true).build();
+		transactionTemplate = new TransactionTemplate(
+				new DataSourceTransactionManager(database));
+		directory = temporaryFolder.getRoot().toPath().resolve("audit");
+		journal = new AuditJournal(directory, 1024, FsyncPolicy.ALWAYS);
+		recorder = new AuditRecorder(journal, (entity, eventType) -> (eventType + ":"
+				+ ((Order) entity).name).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		journal.close();
+		database.shutdown();
+	}
+
+	@Test
+	public void appendAndReplay() throws Exception {
+		journal.append(Arrays.asList(record("a"), record("b")));
+		journal.append(Collections.singletonList(record("c")));
+
+		List<AuditRecord> records = new AuditJournalReader(directory).readAll();
+		assertThat(records).extracting(AuditTest::payload).containsExactly("a", "b",
+				"c");
+		assertThat(records.get(0).getEventType()).isEqualTo(AuditEventType.UPDATE);
+		assertThat(records.get(0).getEntityType()).isEqualTo(Order.class.getName());
+		assertThat(records.get(0).getTimestamp()).isEqualTo(Instant.ofEpochMilli(42));
+	}
+
+	@Test
+	public void rotateSegments() throws Exception {
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			journal.append(Collections.singletonList(record("record-" + i)));
+			expected.add("record-" + i);
+		}
+
+		assertThat(AuditJournalReader.segments(directory).size()).isGreaterThan(1);
+		assertThat(new AuditJournalReader(directory).readAll())
+				.extracting(AuditTest::payload).containsExactlyElementsOf(expected);
+	}
+
+	@Test
+	public void rejectFrameLargerThanSegment() throws Exception {
+		AuditRecord large = new AuditRecord(Instant.now(), AuditEventType.INSERT,
+				Order.class.getName(), new byte[1024]);
+		assertThatThrownBy(() -> journal.append(Collections.singletonList(large)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void continueAfterReopen() throws Exception {
+		journal.append(Collections.singletonList(record("a")));
+		journal.close();
+		journal = new AuditJournal(directory, 1024, FsyncPolicy.NEVER);
+		journal.append(Collections.singletonList(record("b")));
+
+		assertThat(new AuditJournalReader(directory).readAll())
+				.extracting(AuditTest::payload).containsExactly("a", "b");
+	}
+
+	@Test
+	public void skipTornFrame() throws Exception {
+		journal.append(Collections.singletonList(record("a")));
+		journal.append(Collections.singletonList(record("b")));
+		journal.append(Collections.singletonList(record("c")));
+		journal.close();
+
+		Path segment = AuditJournalReader.segments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			channel.read(length, 0);
+			// Corrupt the last byte of the second frame
+			int offset = ((ByteBuffer) length.flip()).getInt() * 2 - 1;
+			channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), offset);
+		}
+
+		assertThat(new AuditJournalReader(directory).readAll())
+				.extracting(AuditTest::payload).containsExactly("a", "c");
+	}
+
+	@Test
+	public void skipFrameWithoutHeader() throws Exception {
+		journal.append(Collections.singletonList(record("a")));
+		journal.append(Collections.singletonList(record("b")));
+		journal.close();
+
+		Path segment = AuditJournalReader.segments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// A frame reserved before the second one, whose writer crashed before
+			// writing its length and checksum
+			channel.write(ByteBuffer.allocate(8), 0);
+		}
+
+		assertThat(new AuditJournalReader(directory).readAll())
+				.extracting(AuditTest::payload).containsExactly("b");
+
+		journal = new AuditJournal(directory, 1024, FsyncPolicy.ALWAYS);
+		journal.append(Collections.singletonList(record("c")));
+
+		assertThat(new AuditJournalReader(directory).readAll())
+				.extracting(AuditTest::payload).containsExactly("b", "c");
+	}
+
+	@Test
+	public void appendConcurrently() throws Exception {
+		int threads = 16;
+		int appends = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				int thread = i;
+				futures.add(executor.submit(() -> {
+					for (int j = 0; j < appends; j++) {
+						journal.append(Arrays.asList(record(thread + "-" + j + "-x"),
+								record(thread + "-" + j + "-y")));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<AuditRecord> records = new AuditJournalReader(directory).readAll();
+		assertThat(records).hasSize(threads * appends * 2);
+		// The records of a frame are never interleaved with other frames
+		for (int i = 0; i < records.size(); i += 2) {
+			String x = payload(records.get(i));
+			assertThat(payload(records.get(i + 1)))
+					.isEqualTo(x.substring(0, x.length() - 1) + "y");
+		}
+	}
+
+	@Test
+	public void recordInTransaction() throws Exception {
+		transactionTemplate.execute(status -> {
+			recorder.onApplicationEvent(new PostInsertEvent<>(new Order("a"),
+					mock(PostInsertContext.class)));
+			recorder.onApplicationEvent(new PostUpdateEvent<>(new Order("b"),
+					mock(PostUpdateContext.class)));
+			// Records are appended after commit
+			assertThat(readPayloads()).isEmpty();
+			return null;
+		});
+		assertThat(readPayloads()).containsExactly("INSERT:a", "UPDATE:b");
+	}
+
+	@Test
+	public void discardOnRollback() throws Exception {
+		transactionTemplate.execute(status -> {
+			recorder.onApplicationEvent(new PostInsertEvent<>(new Order("a"),
+					mock(PostInsertContext.class)));
+			status.setRollbackOnly();
+			return null;
+		});
+		assertThat(readPayloads()).isEmpty();
+	}
+
+	@Test
+	public void rejectRecordsLargerThanSegmentBeforeCommit() throws Exception {
+		recorder = new AuditRecorder(journal, (entity, eventType) -> new byte[600]);
+		assertThatThrownBy(() -> transactionTemplate.execute(status -> {
+			recorder.onApplicationEvent(new PostInsertEvent<>(new Order("a"),
+					mock(PostInsertContext.class)));
+			recorder.onApplicationEvent(new PostInsertEvent<>(new Order("b"),
+					mock(PostInsertContext.class)));
+			return null;
+		})).isInstanceOf(IllegalArgumentException.class);
+		assertThat(readPayloads()).isEmpty();
+	}
+
+	@Test
+	public void recordWithoutTransaction() throws Exception {
+		recorder.onApplicationEvent(new PostDeleteEvent<>(new Order("a"),
+				mock(PostDeleteContext.class)));
+		assertThat(readPayloads()).containsExactly("DELETE:a");
+	}
+
+	@Test
+	public void ignoreBatchEvents() throws Exception {
+		PostBatchInsertContext<Order> context = mock(PostBatchInsertContext.class);
+		when(context.getEntityClass()).thenReturn(Order.class);
+		recorder.onApplicationEvent(new PostBatchInsertEvent<>(
+				Arrays.asList(new Order("a"), new Order("b")), context));
+		assertThat(readPayloads()).isEmpty();
+	}
+
+	@Test
+	public void recordSelectedEventsOnly() throws Exception {
+		recorder.onApplicationEvent(new PostDeleteEvent<>(new InsertOnlyOrder("a"),
+				mock(PostDeleteContext.class)));
+		recorder.onApplicationEvent(new PostInsertEvent<>(new NotAudited(),
+				mock(PostInsertContext.class)));
+		recorder.onApplicationEvent(new PreInsertEvent<>(new Order("a"),
+				mock(PreInsertContext.class)));
+		assertThat(readPayloads()).isEmpty();
+	}
+
+	@Test
+	public void supportPostEventsOfAuditedEntities() throws Exception {
+		assertThat(recorder.supportsEventType(
+				ResolvableType.forClass(PostInsertEvent.class))).isTrue();
+		assertThat(recorder.supportsEventType(
+				ResolvableType.forClass(PostBatchInsertEvent.class))).isFalse();
+		assertThat(recorder.supportsEventType(
+				ResolvableType.forClass(PreInsertEvent.class))).isFalse();
+		assertThat(recorder.supportsSourceType(Order.class)).isTrue();
+		assertThat(recorder.supportsSourceType(List.class)).isFalse();
+		assertThat(recorder.supportsSourceType(NotAudited.class)).isFalse();
+	}
+
+	private List<String> readPayloads() {
+		List<String> payloads = new ArrayList<>();
+		try {
+			new AuditJournalReader(directory)
+					.replay(record -> payloads.add(payload(record)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return payloads;
+	}
+
+	private static AuditRecord record(String payload) {
+		return new AuditRecord(Instant.ofEpochMilli(42), AuditEventType.UPDATE,
+				Order.class.getName(), payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String payload(AuditRecord record) {
+		return new String(record.getPayload(), StandardCharsets.UTF_8);
+	}
+
+	@Audited
+	static class Order {
+
+		final String name;
+
+		Order(String name) {
+			this.name = name;
+		}
+	}
+
+	@Audited(AuditEventType.INSERT)
+	static class InsertOnlyOrder extends Order {
+
+		InsertOnlyOrder(String name) {
+			super(name);
+		}
+	}
+
+	static class NotAudited {
+	}
+}
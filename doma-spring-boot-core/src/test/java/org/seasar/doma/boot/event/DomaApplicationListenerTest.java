@@ -3,6 +3,13 @@ package org.seasar.doma.boot.event;
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
@@ -10,15 +17,27 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.seasar.doma.Entity;
 import org.seasar.doma.boot.event.annotation.HandlePostInsert;
+import org.seasar.doma.boot.event.annotation.HandlePostUpdate;
 import org.seasar.doma.boot.event.annotation.HandlePreInsert;
+import org.seasar.doma.boot.event.annotation.HandlePreUpdate;
+import org.seasar.doma.jdbc.entity.EntityPropertyType;
+import org.seasar.doma.jdbc.entity.EntityType;
 import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PostUpdateContext;
 import org.seasar.doma.jdbc.entity.PreInsertContext;
+import org.seasar.doma.jdbc.entity.PreUpdateContext;
+import org.seasar.doma.jdbc.entity.Property;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Scope;
 import org.springframework.context.event.EventListenerFactory;
 import org.springframework.core.Ordered;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 @RunWith(Enclosed.class)
 public class DomaApplicationListenerTest {
@@ -104,6 +123,22 @@ public class DomaApplicationListenerTest {
 			new DomaApplicationListener(beanName, method, beanFactory);
 		}
 
+		@Test
+		public void knownProperties() throws Exception {
+			Method method = KnownProperties.class.getDeclaredMethod("handle",
+					Person.class);
+			new DomaApplicationListener("", method, mock(BeanFactory.class));
+		}
+
+		@Test
+		public void unknownProperty() throws Exception {
+			ee.expect(IllegalArgumentException.class);
+			ee.expectMessage("does not have property nmae");
+			Method method = UnknownProperty.class.getDeclaredMethod("handle",
+					Person.class);
+			new DomaApplicationListener("", method, mock(BeanFactory.class));
+		}
+
 		@Test
 		public void multiAnnotationsWithContext() throws Exception {
 			ee.expect(IllegalArgumentException.class);
@@ -181,6 +216,26 @@ public class DomaApplicationListenerTest {
 			void handle(TestEntity1 entity, PreInsertContext<TestEntity1> context) {
 			}
 		}
+
+		/**
+		 * Entity whose entity type is {@link _DomaApplicationListenerTest__ConstructorTest__Person}
+		 */
+		@Entity
+		public static class Person {
+		}
+
+		static class KnownProperties {
+			@HandlePreUpdate(properties = "name")
+			@HandlePostUpdate(properties = "name")
+			void handle(Person entity) {
+			}
+		}
+
+		static class UnknownProperty {
+			@HandlePostUpdate(properties = { "name", "nmae" })
+			void handle(Person entity) {
+			}
+		}
 	}
 
 	public static class OnApplicationEventTest {
@@ -296,6 +351,330 @@ public class DomaApplicationListenerTest {
 			assertThat(handler.entity).isSameAs(entity);
 		}
 
+		@Test
+		public void singletonTargetIsCached() throws Exception {
+			EntityOnlyHandler handler = new EntityOnlyHandler();
+			BeanFactory beanFactory = mock(BeanFactory.class);
+			when(beanFactory.getBean("entityOnlyHandler")).thenReturn(handler);
+			when(beanFactory.isSingleton("entityOnlyHandler")).thenReturn(true);
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"entityOnlyHandler", EntityOnlyHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					beanFactory);
+
+			@SuppressWarnings("unchecked")
+			PreInsertContext<TestEntity1> ctx = mock(PreInsertContext.class);
+			listener.onApplicationEvent(new PreInsertEvent<>(new TestEntity1(), ctx));
+			TestEntity1 entity = new TestEntity1();
+			listener.onApplicationEvent(new PreInsertEvent<>(entity, ctx));
+
+			assertThat(handler.entity).isSameAs(entity);
+			verify(beanFactory, times(1)).getBean("entityOnlyHandler");
+		}
+
+		@Test
+		public void prototypeTargetIsLookedUpPerEvent() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(PrototypeHandler.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"prototypeHandler", PrototypeHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PreInsertContext<TestEntity1> ctx = mock(PreInsertContext.class);
+			listener.onApplicationEvent(new PreInsertEvent<>(new TestEntity1(), ctx));
+			listener.onApplicationEvent(new PreInsertEvent<>(new TestEntity1(), ctx));
+
+			assertThat(PrototypeHandler.instances.get()).isEqualTo(2);
+		}
+
+		@Test
+		public void handleEventWithPublicHandler() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(PublicHandler.class);
+			context.register(PassthroughEventListenerFactory.class);
+			context.refresh();
+
+			DomaApplicationListener entityOnly = new DomaApplicationListener(
+					"publicHandler", PublicHandler.class.getDeclaredMethod("handle",
+							TestEntity1.class),
+					context);
+			DomaApplicationListener withContext = new DomaApplicationListener(
+					"publicHandler", PublicHandler.class.getDeclaredMethod(
+							"handleWithContext", TestEntity1.class,
+							PreInsertContext.class),
+					context);
+
+			TestEntity1 entity = new TestEntity1();
+			@SuppressWarnings("unchecked")
+			PreInsertContext<TestEntity1> ctx = mock(PreInsertContext.class);
+			PreInsertEvent<TestEntity1> event = new PreInsertEvent<>(entity, ctx);
+			entityOnly.onApplicationEvent(event);
+			withContext.onApplicationEvent(event);
+
+			PublicHandler handler = context.getBean(PublicHandler.class);
+			assertThat(handler.entity).isSameAs(entity);
+			assertThat(handler.entityWithContext).isSameAs(entity);
+			assertThat(handler.context).isSameAs(ctx);
+		}
+
+		@Test
+		public void handlerThrowsException() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(ThrowingHandler.class);
+			context.refresh();
+
+			DomaApplicationListener unchecked = new DomaApplicationListener(
+					"throwingHandler", ThrowingHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context);
+			DomaApplicationListener checked = new DomaApplicationListener(
+					"throwingHandler", ThrowingHandler.class.getDeclaredMethod(
+							"handleChecked", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PreInsertContext<TestEntity1> ctx = mock(PreInsertContext.class);
+			PreInsertEvent<TestEntity1> event = new PreInsertEvent<>(new TestEntity1(),
+					ctx);
+			assertThatThrownBy(() -> unchecked.onApplicationEvent(event))
+					.isExactlyInstanceOf(IllegalStateException.class);
+			assertThatThrownBy(() -> checked.onApplicationEvent(event))
+					.isExactlyInstanceOf(UndeclaredThrowableException.class)
+					.hasCauseExactlyInstanceOf(Exception.class);
+		}
+
+		@Test
+		public void recordMetrics() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(ThrowingHandler.class);
+			context.refresh();
+
+			List<String> recorded = new ArrayList<>();
+			DomaEventHandlerMetrics metrics = (beanName, method, entityClass,
+					phase) -> (durationNanos, failure) -> recorded
+							.add(beanName + "#" + method.getName() + ":"
+									+ entityClass.getSimpleName() + ":" + phase + ":"
+									+ (failure != null));
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"throwingHandler", ThrowingHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context, metrics);
+
+			@SuppressWarnings("unchecked")
+			PreInsertContext<TestEntity1> ctx = mock(PreInsertContext.class);
+			PreInsertEvent<TestEntity1> event = new PreInsertEvent<>(new TestEntity1(),
+					ctx);
+			assertThatThrownBy(() -> listener.onApplicationEvent(event))
+					.isExactlyInstanceOf(IllegalStateException.class);
+			assertThat(recorded).containsExactly(
+					"throwingHandler#handle:TestEntity1:PreInsert:true");
+		}
+
+		@Test
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public void coalesceEventsOfSameEntity() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(CoalescingHandler.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"coalescingHandler", CoalescingHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context);
+
+			// Entities are identified by the id property
+			Property idProperty = mock(Property.class);
+			when(idProperty.load(any())).thenReturn(idProperty);
+			when(idProperty.get()).thenReturn(1, 1, 2);
+			EntityPropertyType idPropertyType = mock(EntityPropertyType.class);
+			when(idPropertyType.createProperty()).thenReturn(idProperty);
+			EntityType entityType = mock(EntityType.class);
+			when(entityType.getIdPropertyTypes())
+					.thenReturn(Collections.singletonList(idPropertyType));
+			PostUpdateContext<TestEntity1> ctx = mock(PostUpdateContext.class);
+			when(ctx.getEntityType()).thenReturn(entityType);
+
+			TestEntity1 first = new TestEntity1();
+			TestEntity1 last = new TestEntity1();
+			TestEntity1 other = new TestEntity1();
+			CoalescingHandler handler = context.getBean(CoalescingHandler.class);
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				listener.onApplicationEvent(new PostUpdateEvent<>(first, ctx));
+				listener.onApplicationEvent(new PostUpdateEvent<>(last, ctx));
+				listener.onApplicationEvent(new PostUpdateEvent<>(other, ctx));
+				assertThat(handler.entities).isEmpty();
+
+				TransactionSynchronizationUtils.triggerAfterCommit();
+				assertThat(handler.entities).containsExactly(last, other);
+			} finally {
+				TransactionSynchronizationUtils.invokeAfterCompletion(
+						TransactionSynchronizationManager.getSynchronizations(),
+						TransactionSynchronization.STATUS_COMMITTED);
+				TransactionSynchronizationManager.clearSynchronization();
+			}
+		}
+
+		@Test
+		public void discardCoalescedEventsOnRollback() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(CoalescingHandler.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"coalescingHandler", CoalescingHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PostUpdateContext<TestEntity1> ctx = mock(PostUpdateContext.class);
+			CoalescingHandler handler = context.getBean(CoalescingHandler.class);
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				listener.onApplicationEvent(new PostUpdateEvent<>(new TestEntity1(), ctx));
+				TransactionSynchronizationUtils.invokeAfterCompletion(
+						TransactionSynchronizationManager.getSynchronizations(),
+						TransactionSynchronization.STATUS_ROLLED_BACK);
+			} finally {
+				TransactionSynchronizationManager.clearSynchronization();
+			}
+			assertThat(handler.entities).isEmpty();
+
+			// Without a transaction, the handler runs immediately
+			TestEntity1 entity = new TestEntity1();
+			listener.onApplicationEvent(new PostUpdateEvent<>(entity, ctx));
+			assertThat(handler.entities).containsExactly(entity);
+		}
+
+		@Test
+		public void runCoalescedAsyncHandlerAfterCommit() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(CoalescingAsyncHandler.class);
+			context.register(DomaEventAsyncExecutor.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"coalescingAsyncHandler", CoalescingAsyncHandler.class
+							.getDeclaredMethod("handle", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PostUpdateContext<TestEntity1> ctx = mock(PostUpdateContext.class);
+			TestEntity1 entity = new TestEntity1();
+			CoalescingAsyncHandler handler = context.getBean(CoalescingAsyncHandler.class);
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				listener.onApplicationEvent(new PostUpdateEvent<>(entity, ctx));
+				TransactionSynchronizationUtils.triggerAfterCommit();
+				assertThat(handler.latch.await(5, TimeUnit.SECONDS)).isTrue();
+				assertThat(handler.entity).isSameAs(entity);
+				assertThat(handler.thread).isNotSameAs(Thread.currentThread());
+			} finally {
+				TransactionSynchronizationUtils.invokeAfterCompletion(
+						TransactionSynchronizationManager.getSynchronizations(),
+						TransactionSynchronization.STATUS_COMMITTED);
+				TransactionSynchronizationManager.clearSynchronization();
+				context.close();
+			}
+		}
+
+		@Test
+		public void doNotRethrowFailureOfCoalescedHandlerAfterCommit() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(CoalescingHandler.class);
+			context.register(ThrowingCoalescingHandler.class);
+			context.refresh();
+
+			DomaApplicationListener throwing = new DomaApplicationListener(
+					"throwingCoalescingHandler", ThrowingCoalescingHandler.class
+							.getDeclaredMethod("handle", TestEntity1.class),
+					context);
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"coalescingHandler", CoalescingHandler.class.getDeclaredMethod(
+							"handle", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PostUpdateContext<TestEntity1> ctx = mock(PostUpdateContext.class);
+			TestEntity1 entity = new TestEntity1();
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				throwing.onApplicationEvent(new PostUpdateEvent<>(entity, ctx));
+				listener.onApplicationEvent(new PostUpdateEvent<>(entity, ctx));
+				TransactionSynchronizationUtils.triggerAfterCommit();
+			} finally {
+				TransactionSynchronizationUtils.invokeAfterCompletion(
+						TransactionSynchronizationManager.getSynchronizations(),
+						TransactionSynchronization.STATUS_COMMITTED);
+				TransactionSynchronizationManager.clearSynchronization();
+			}
+			assertThat(context.getBean(CoalescingHandler.class).entities)
+					.containsExactly(entity);
+		}
+
+		@Test
+		public void skipUpdateOfUninterestingProperties() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(PropertyFilteringHandler.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"propertyFilteringHandler", PropertyFilteringHandler.class
+							.getDeclaredMethod("handle", TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PreUpdateContext<TestEntity1> unchanged = mock(PreUpdateContext.class);
+			@SuppressWarnings("unchecked")
+			PreUpdateContext<TestEntity1> changed = mock(PreUpdateContext.class);
+			when(changed.isPropertyChanged("email")).thenReturn(true);
+
+			TestEntity1 entity = new TestEntity1();
+			listener.onApplicationEvent(new PreUpdateEvent<>(new TestEntity1(), unchanged));
+			listener.onApplicationEvent(new PreUpdateEvent<>(entity, changed));
+
+			assertThat(context.getBean(PropertyFilteringHandler.class).entities)
+					.containsExactly(entity);
+			verify(unchanged).isPropertyChanged("name");
+			verify(unchanged).isPropertyChanged("email");
+		}
+
+		@Test
+		public void asyncHandlerRunsAfterCommit() throws Exception {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			context.register(AsyncHandler.class);
+			context.register(DomaEventAsyncExecutor.class);
+			context.refresh();
+
+			DomaApplicationListener listener = new DomaApplicationListener(
+					"asyncHandler", AsyncHandler.class.getDeclaredMethod("handle",
+							TestEntity1.class),
+					context);
+
+			@SuppressWarnings("unchecked")
+			PostInsertContext<TestEntity1> ctx = mock(PostInsertContext.class);
+			TestEntity1 entity = new TestEntity1();
+			TransactionSynchronizationManager.initSynchronization();
+			try {
+				listener.onApplicationEvent(new PostInsertEvent<>(entity, ctx));
+				AsyncHandler handler = context.getBean(AsyncHandler.class);
+				assertThat(handler.latch.getCount()).isEqualTo(1);
+
+				TransactionSynchronizationUtils.triggerAfterCommit();
+				assertThat(handler.latch.await(5, TimeUnit.SECONDS)).isTrue();
+				assertThat(handler.entity).isSameAs(entity);
+				assertThat(handler.thread).isNotSameAs(Thread.currentThread());
+			} finally {
+				TransactionSynchronizationManager.clearSynchronization();
+				context.close();
+			}
+		}
+
 		@Entity
 		public static class TestEntity1 {
 		}
@@ -340,6 +719,108 @@ public class DomaApplicationListenerTest {
 			}
 		}
 
+		@Component("prototypeHandler")
+		@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+		static class PrototypeHandler {
+			static final AtomicInteger instances = new AtomicInteger();
+
+			PrototypeHandler() {
+				instances.incrementAndGet();
+			}
+
+			@HandlePreInsert
+			void handle(TestEntity1 entity) {
+			}
+		}
+
+		@Component("publicHandler")
+		public static class PublicHandler {
+			TestEntity1 entity;
+			TestEntity1 entityWithContext;
+			PreInsertContext<TestEntity1> context;
+
+			@HandlePreInsert
+			public void handle(TestEntity1 entity) {
+				this.entity = entity;
+			}
+
+			@HandlePreInsert
+			public void handleWithContext(TestEntity1 entity,
+					PreInsertContext<TestEntity1> context) {
+				this.entityWithContext = entity;
+				this.context = context;
+			}
+		}
+
+		@Component("propertyFilteringHandler")
+		static class PropertyFilteringHandler {
+			final List<TestEntity1> entities = new ArrayList<>();
+
+			@HandlePreUpdate(properties = { "name", "email" })
+			void handle(TestEntity1 entity) {
+				entities.add(entity);
+			}
+		}
+
+		@Component("coalescingHandler")
+		static class CoalescingHandler {
+			final List<TestEntity1> entities = new ArrayList<>();
+
+			@HandlePostUpdate(coalesce = true)
+			void handle(TestEntity1 entity) {
+				entities.add(entity);
+			}
+		}
+
+		@Component("coalescingAsyncHandler")
+		static class CoalescingAsyncHandler {
+			final CountDownLatch latch = new CountDownLatch(1);
+			volatile TestEntity1 entity;
+			volatile Thread thread;
+
+			@HandlePostUpdate(coalesce = true, async = true)
+			void handle(TestEntity1 entity) {
+				this.entity = entity;
+				this.thread = Thread.currentThread();
+				latch.countDown();
+			}
+		}
+
+		@Component("throwingCoalescingHandler")
+		static class ThrowingCoalescingHandler {
+			@HandlePostUpdate(coalesce = true)
+			void handle(TestEntity1 entity) {
+				throw new IllegalStateException();
+			}
+		}
+
+		@Component("asyncHandler")
+		static class AsyncHandler {
+			final CountDownLatch latch = new CountDownLatch(1);
+			volatile TestEntity1 entity;
+			volatile Thread thread;
+
+			@HandlePostInsert(async = true)
+			void handle(TestEntity1 entity) {
+				this.entity = entity;
+				this.thread = Thread.currentThread();
+				latch.countDown();
+			}
+		}
+
+		@Component("throwingHandler")
+		static class ThrowingHandler {
+			@HandlePreInsert
+			void handle(TestEntity1 entity) {
+				throw new IllegalStateException();
+			}
+
+			@HandlePreInsert
+			void handleChecked(TestEntity1 entity) throws Exception {
+				throw new Exception();
+			}
+		}
+
 		// java.lang.IllegalStateException
 		// Maximum one parameter is allowed for event listener method
 		static class PassthroughEventListenerFactory implements EventListenerFactory,
@@ -363,4 +844,4 @@ public class DomaApplicationListenerTest {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
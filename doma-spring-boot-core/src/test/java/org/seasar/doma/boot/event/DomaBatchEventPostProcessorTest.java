@@ -0,0 +1,180 @@
+package org.seasar.doma.boot.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.seasar.doma.BatchInsert;
+import org.seasar.doma.BatchUpdate;
+import org.seasar.doma.Dao;
+import org.seasar.doma.boot.event.annotation.HandlePostBatchInsert;
+import org.seasar.doma.boot.event.annotation.HandlePreBatchInsert;
+import org.seasar.doma.jdbc.BatchResult;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.EventListener;
+
+public class DomaBatchEventPostProcessorTest {
+
+	@Test
+	public void handleBatchEvents() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaBatchEventPostProcessor.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(EntityDaoImpl.class);
+		context.register(Handler.class);
+		context.register(SpringListener.class);
+		context.refresh();
+
+		EntityDao dao = context.getBean(EntityDao.class);
+		List<Entity> entities = Arrays.asList(new Entity(), new Entity());
+		dao.insert(entities);
+
+		Handler handler = context.getBean(Handler.class);
+		assertThat(handler.events).containsExactly("pre", "insert", "post");
+		assertThat(handler.entities).containsExactly(entities, entities);
+		assertThat(handler.context.getEntityClass()).isEqualTo(Entity.class);
+		assertThat(handler.context.getMethod().getName()).isEqualTo("insert");
+
+		List<DomaEvent<?, ?>> events = context.getBean(SpringListener.class).events;
+		assertThat(events).hasSize(2);
+		assertThat(events.get(0)).isInstanceOf(PreBatchInsertEvent.class);
+		assertThat(events.get(1)).isInstanceOf(PostBatchInsertEvent.class);
+	}
+
+	@Test
+	public void publishEntitiesOfBatchResult() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaBatchEventPostProcessor.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(EntityDaoImpl.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		List<Entity> entities = Arrays.asList(new Entity(), new Entity());
+		BatchResult<Entity> result = context.getBean(EntityDao.class)
+				.insertImmutable(entities);
+
+		Handler handler = context.getBean(Handler.class);
+		assertThat(handler.events).containsExactly("pre", "insert", "post");
+		assertThat(handler.entities).containsExactly(entities, result.getEntities());
+	}
+
+	@Test
+	public void skipEmptyBatch() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaBatchEventPostProcessor.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(EntityDaoImpl.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		context.getBean(EntityDao.class).insert(new ArrayList<>());
+
+		assertThat(context.getBean(Handler.class).events).containsExactly("insert");
+	}
+
+	@Test
+	public void noHandlerForUpdate() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaBatchEventPostProcessor.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(EntityDaoImpl.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		context.getBean(EntityDao.class).update(Arrays.asList(new Entity()));
+
+		assertThat(context.getBean(Handler.class).events).containsExactly("update");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void handlerMustReceiveListOfEntities() throws Exception {
+		new DomaApplicationListener("invalidHandler",
+				InvalidHandler.class.getMethod("handle", Entity.class), null);
+	}
+
+	@org.seasar.doma.Entity
+	public static class Entity {
+	}
+
+	@Dao
+	public interface EntityDao {
+		@BatchInsert
+		int[] insert(List<Entity> entities);
+
+		@BatchInsert
+		BatchResult<Entity> insertImmutable(List<Entity> entities);
+
+		@BatchUpdate
+		int[] update(List<Entity> entities);
+	}
+
+	static class EntityDaoImpl implements EntityDao {
+		Handler handler;
+
+		EntityDaoImpl(Handler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public int[] insert(List<Entity> entities) {
+			handler.events.add("insert");
+			return new int[entities.size()];
+		}
+
+		@Override
+		public BatchResult<Entity> insertImmutable(List<Entity> entities) {
+			handler.events.add("insert");
+			List<Entity> inserted = new ArrayList<>();
+			entities.forEach(entity -> inserted.add(new Entity()));
+			return new BatchResult<>(new int[entities.size()], inserted);
+		}
+
+		@Override
+		public int[] update(List<Entity> entities) {
+			handler.events.add("update");
+			return new int[entities.size()];
+		}
+	}
+
+	static class Handler {
+		final List<String> events = new ArrayList<>();
+		final List<List<Entity>> entities = new ArrayList<>();
+		PostBatchInsertContext<Entity> context;
+
+		@HandlePreBatchInsert
+		public void handlePreBatchInsert(List<Entity> entities) {
+			events.add("pre");
+			this.entities.add(entities);
+		}
+
+		@HandlePostBatchInsert
+		public void handlePostBatchInsert(List<Entity> entities,
+				PostBatchInsertContext<Entity> context) {
+			events.add("post");
+			this.entities.add(entities);
+			this.context = context;
+		}
+	}
+
+	static class InvalidHandler {
+		@HandlePreBatchInsert
+		public void handle(Entity entity) {
+		}
+	}
+
+	static class SpringListener {
+		final List<DomaEvent<?, ?>> events = new ArrayList<>();
+
+		@EventListener
+		public void listen(DomaEvent<?, ?> event) {
+			events.add(event);
+		}
+	}
+}
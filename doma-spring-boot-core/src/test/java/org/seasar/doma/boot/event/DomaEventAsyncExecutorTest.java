@@ -0,0 +1,105 @@
+package org.seasar.doma.boot.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor.SaturationPolicy;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+public class DomaEventAsyncExecutorTest {
+
+	private final DomaEventAsyncExecutor executor = new DomaEventAsyncExecutor(1, 1,
+			SaturationPolicy.DROP);
+
+	@After
+	public void tearDown() throws Exception {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		executor.destroy();
+	}
+
+	@Test
+	public void executeWithoutTransaction() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		executor.executeAfterCommit(latch::countDown);
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void executeAfterCommit() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		TransactionSynchronizationManager.initSynchronization();
+		executor.executeAfterCommit(latch::countDown);
+		assertThat(latch.getCount()).isEqualTo(1);
+
+		TransactionSynchronizationUtils.triggerAfterCommit();
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void neverExecuteAfterRollback() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		TransactionSynchronizationManager.initSynchronization();
+		executor.executeAfterCommit(count::incrementAndGet);
+
+		TransactionSynchronizationUtils.invokeAfterCompletion(
+				TransactionSynchronizationManager.getSynchronizations(),
+				TransactionSynchronization.STATUS_ROLLED_BACK);
+		TransactionSynchronizationManager.clearSynchronization();
+		executor.destroy();
+		assertThat(count.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void dropWhenSaturated() throws Exception {
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.executeAfterCommit(() -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		running.await(5, TimeUnit.SECONDS);
+		executor.executeAfterCommit(() -> {
+		});
+		assertThat(executor.getQueueSize()).isEqualTo(1);
+		executor.executeAfterCommit(() -> {
+		});
+		assertThat(executor.getDroppedCount()).isEqualTo(1);
+		release.countDown();
+	}
+
+	@Test
+	public void callerRunsWhenSaturated() throws Exception {
+		DomaEventAsyncExecutor executor = new DomaEventAsyncExecutor(1, 1,
+				SaturationPolicy.CALLER_RUNS);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.executeAfterCommit(() -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		running.await(5, TimeUnit.SECONDS);
+		executor.executeAfterCommit(() -> {
+		});
+		Thread[] caller = new Thread[1];
+		executor.executeAfterCommit(() -> caller[0] = Thread.currentThread());
+		assertThat(caller[0]).isSameAs(Thread.currentThread());
+		release.countDown();
+		executor.destroy();
+	}
+}
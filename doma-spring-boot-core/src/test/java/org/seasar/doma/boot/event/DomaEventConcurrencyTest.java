@@ -0,0 +1,387 @@
+package org.seasar.doma.boot.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Test;
+import org.seasar.doma.boot.event.DomaEventAsyncExecutor.SaturationPolicy;
+import org.seasar.doma.boot.event.annotation.HandlePostInsert;
+import org.seasar.doma.boot.event.annotation.HandlePreInsert;
+import org.seasar.doma.jdbc.Config;
+import org.seasar.doma.jdbc.entity.EntityType;
+import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PreInsertContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Multi-threaded tests of {@link DomaEventEntityListener} and
+ * {@link DomaApplicationListener}. <br>
+ * <br>
+ * By default, a few events are written by 1 and 4 threads. With the system property
+ * {@code doma.stress=true}, e.g. {@code mvn test -Ddoma.stress=true}, the tests run with 1
+ * to 64 writer threads and log the throughput. The number of events per run can be
+ * raised with the system properties {@code doma.stress.operations} and
+ * {@code doma.stress.transactions} for long-running stress tests.
+ */
+public class DomaEventConcurrencyTest {
+
+	private static final Logger logger = Logger
+			.getLogger(DomaEventConcurrencyTest.class.getName());
+
+	private static final boolean STRESS = Boolean.getBoolean("doma.stress");
+	private static final int[] THREADS = STRESS ? new int[] { 1, 2, 4, 8, 16, 32, 64 }
+			: new int[] { 1, 4 };
+	private static final int OPERATIONS = Integer.getInteger("doma.stress.operations",
+			STRESS ? 64_000 : 2_000);
+	private static final int TRANSACTIONS = Integer
+			.getInteger("doma.stress.transactions", STRESS ? 2_000 : 200);
+
+	private AnnotationConfigApplicationContext context;
+	private EmbeddedDatabase database;
+
+	@After
+	public void tearDown() {
+		if (context != null) {
+			context.close();
+		}
+		if (database != null) {
+			database.shutdown();
+		}
+	}
+
+	@Test
+	public void dispatchWithoutLostOrDuplicatedEvents() throws Exception {
+		context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventEntityListener.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(PersonHandler.class);
+		context.register(DeptHandler.class);
+		context.refresh();
+		@SuppressWarnings("unchecked")
+		DomaEventEntityListener<Object> entityListener = context
+				.getBean(DomaEventEntityListener.class);
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+		PersonHandler personHandler = context.getBean(PersonHandler.class);
+		DeptHandler deptHandler = context.getBean(DeptHandler.class);
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		for (int threads : THREADS) {
+			personHandler.clear();
+			deptHandler.clear();
+			int operations = Math.max(1, OPERATIONS / threads);
+			List<List<Object>> written = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				written.add(new ArrayList<>());
+			}
+			AtomicLong blocked = new AtomicLong();
+
+			long elapsed = run(threads, index -> {
+				PreInsertContext<Object> preInsert = new StubPreInsertContext<>();
+				PostInsertContext<Object> postInsert = new StubPostInsertContext<>();
+				List<Object> entities = written.get(index);
+				for (int i = 0; i < operations; i++) {
+					Object entity = i % 2 == 0 ? new Person() : new Dept();
+					entities.add(entity);
+					// Counters are registered before dispatching, as inserting into a
+					// ConcurrentHashMap may lock a bin
+					if (entity instanceof Person) {
+						personHandler.expect(entity);
+					} else {
+						deptHandler.expect(entity);
+					}
+				}
+				return () -> {
+					long id = Thread.currentThread().getId();
+					long blockedCount = threadMXBean.getThreadInfo(id).getBlockedCount();
+					for (Object entity : entities) {
+						entityListener.preInsert(entity, preInsert);
+						entityListener.postInsert(entity, postInsert);
+					}
+					blocked.addAndGet(
+							threadMXBean.getThreadInfo(id).getBlockedCount() - blockedCount);
+				};
+			});
+			report("dispatch", threads, threads * operations * 2, elapsed);
+
+			assertThat(personHandler.errors).isEmpty();
+			assertThat(deptHandler.errors).isEmpty();
+			int persons = 0;
+			int depts = 0;
+			for (List<Object> entities : written) {
+				for (Object entity : entities) {
+					if (entity instanceof Person) {
+						assertThat(personHandler.preInsert.get(entity)).hasValue(1);
+						assertThat(personHandler.postInsert.get(entity)).hasValue(1);
+						persons++;
+					} else {
+						assertThat(deptHandler.preInsert.get(entity)).hasValue(1);
+						depts++;
+					}
+				}
+			}
+			assertThat(personHandler.preInsert).hasSize(persons);
+			assertThat(personHandler.postInsert).hasSize(persons);
+			assertThat(deptHandler.preInsert).hasSize(depts);
+			// Dispatching must not block on monitors shared between writers
+			assertThat(blocked.get()).as("blocked count with %d threads", threads)
+					.isZero();
+		}
+	}
+
+	@Test
+	public void deliverCommittedEventsExactlyOnce() throws Exception {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+				.generateUniqueName(true).build();
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.execute("CREATE TABLE PERSON (ID BIGINT PRIMARY KEY)");
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				new DataSourceTransactionManager(database));
+
+		context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventEntityListener.class);
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.registerBean(DomaEventAsyncExecutor.class,
+				() -> new DomaEventAsyncExecutor(4, 1024, SaturationPolicy.BLOCK));
+		context.register(TransactionalHandler.class);
+		context.refresh();
+		@SuppressWarnings("unchecked")
+		DomaEventEntityListener<Object> entityListener = context
+				.getBean(DomaEventEntityListener.class);
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+		TransactionalHandler handler = context.getBean(TransactionalHandler.class);
+		AtomicLong ids = new AtomicLong();
+
+		for (int threads : THREADS) {
+			handler.clear();
+			jdbcTemplate.execute("DELETE FROM PERSON");
+			int transactions = Math.max(1, TRANSACTIONS / threads);
+			ConcurrentLinkedQueue<Person> committed = new ConcurrentLinkedQueue<>();
+			ConcurrentLinkedQueue<Person> rolledBack = new ConcurrentLinkedQueue<>();
+
+			long elapsed = run(threads, index -> () -> {
+				PostInsertContext<Object> postInsert = new StubPostInsertContext<>();
+				for (int i = 0; i < transactions; i++) {
+					boolean rollback = i % 5 == 4;
+					Person person = new Person();
+					transactionTemplate.execute(status -> {
+						jdbcTemplate.update("INSERT INTO PERSON (ID) VALUES (?)",
+								ids.incrementAndGet());
+						// Coalesced into a single event per transaction
+						entityListener.postInsert(person, postInsert);
+						entityListener.postInsert(person, postInsert);
+						if (rollback) {
+							status.setRollbackOnly();
+						}
+						return null;
+					});
+					(rollback ? rolledBack : committed).add(person);
+				}
+			});
+			handler.awaitAsync(committed.size());
+			report("transaction", threads, threads * transactions, elapsed);
+
+			assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PERSON",
+					Integer.class)).isEqualTo(committed.size());
+			for (Person person : committed) {
+				assertThat(handler.coalesced.get(person)).hasValue(1);
+				assertThat(handler.async.get(person)).hasValue(2);
+			}
+			for (Person person : rolledBack) {
+				assertThat(handler.coalesced).doesNotContainKey(person);
+				assertThat(handler.async).doesNotContainKey(person);
+			}
+			assertThat(handler.coalesced).hasSize(committed.size());
+			assertThat(handler.async).hasSize(committed.size());
+		}
+	}
+
+	/**
+	 * Starts the writer threads at the same time after they have been prepared.
+	 *
+	 * @return elapsed nanoseconds of the slowest writer
+	 */
+	private static long run(int threads, Writer writer) throws Exception {
+		CyclicBarrier start = new CyclicBarrier(threads + 1);
+		CountDownLatch end = new CountDownLatch(threads);
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		for (int i = 0; i < threads; i++) {
+			int index = i;
+			Thread thread = new Thread(() -> {
+				try {
+					Runnable task = writer.prepare(index);
+					start.await();
+					task.run();
+				} catch (Throwable t) {
+					failures.add(t);
+				} finally {
+					end.countDown();
+				}
+			}, "writer-" + i);
+			thread.start();
+		}
+		start.await();
+		long begin = System.nanoTime();
+		assertThat(end.await(5, TimeUnit.MINUTES)).isTrue();
+		long elapsed = System.nanoTime() - begin;
+		assertThat(failures).isEmpty();
+		return elapsed;
+	}
+
+	private static void report(String name, int threads, long events, long elapsedNanos) {
+		if (STRESS) {
+			logger.info(String.format("%s: %2d threads, %,d events, %,.0f events/s", name,
+					threads, events, events * 1e9 / Math.max(1, elapsedNanos)));
+		}
+	}
+
+	interface Writer {
+		Runnable prepare(int index) throws Exception;
+	}
+
+	@org.seasar.doma.Entity
+	public static class Person {
+	}
+
+	@org.seasar.doma.Entity
+	public static class Dept {
+	}
+
+	static class Counts {
+
+		final ConcurrentMap<Object, AtomicInteger> preInsert = new ConcurrentHashMap<>();
+		final ConcurrentMap<Object, AtomicInteger> postInsert = new ConcurrentHashMap<>();
+		final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+		void clear() {
+			preInsert.clear();
+			postInsert.clear();
+			errors.clear();
+		}
+
+		void count(ConcurrentMap<Object, AtomicInteger> counts, Object entity,
+				Class<?> expected) {
+			if (entity.getClass() != expected) {
+				errors.add(entity.getClass() + " delivered to handler of " + expected);
+			}
+			AtomicInteger count = counts.get(entity);
+			if (count == null) {
+				errors.add(entity + " was not expected by handler of " + expected);
+			} else {
+				count.incrementAndGet();
+			}
+		}
+
+		void expect(Object entity) {
+			preInsert.put(entity, new AtomicInteger());
+			postInsert.put(entity, new AtomicInteger());
+		}
+	}
+
+	public static class PersonHandler extends Counts {
+
+		@HandlePreInsert
+		public void preInsert(Person person) {
+			count(preInsert, person, Person.class);
+		}
+
+		@HandlePostInsert
+		public void postInsert(Person person) {
+			count(postInsert, person, Person.class);
+		}
+	}
+
+	public static class DeptHandler extends Counts {
+
+		@HandlePreInsert
+		public void preInsert(Dept dept) {
+			count(preInsert, dept, Dept.class);
+		}
+	}
+
+	public static class TransactionalHandler {
+
+		final ConcurrentMap<Object, AtomicInteger> coalesced = new ConcurrentHashMap<>();
+		final ConcurrentMap<Object, AtomicInteger> async = new ConcurrentHashMap<>();
+		final AtomicInteger asyncCount = new AtomicInteger();
+
+		@HandlePostInsert(coalesce = true)
+		public void coalesced(Person person) {
+			coalesced.computeIfAbsent(person, key -> new AtomicInteger())
+					.incrementAndGet();
+		}
+
+		@HandlePostInsert(async = true)
+		public void async(Person person) {
+			async.computeIfAbsent(person, key -> new AtomicInteger()).incrementAndGet();
+			asyncCount.incrementAndGet();
+		}
+
+		void clear() {
+			coalesced.clear();
+			async.clear();
+			asyncCount.set(0);
+		}
+
+		void awaitAsync(int committed) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+			while (asyncCount.get() < committed * 2 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	static class StubPreInsertContext<E> extends StubContext<E>
+			implements PreInsertContext<E> {
+	}
+
+	static class StubPostInsertContext<E> extends StubContext<E>
+			implements PostInsertContext<E> {
+	}
+
+	abstract static class StubContext<E> {
+
+		private E newEntity;
+
+		public EntityType<E> getEntityType() {
+			return null;
+		}
+
+		public Method getMethod() {
+			return null;
+		}
+
+		public Config getConfig() {
+			return null;
+		}
+
+		public E getNewEntity() {
+			return newEntity;
+		}
+
+		public void setNewEntity(E newEntity) {
+			this.newEntity = newEntity;
+		}
+	}
+}
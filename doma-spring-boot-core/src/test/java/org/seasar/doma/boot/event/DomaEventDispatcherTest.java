@@ -0,0 +1,311 @@
+package org.seasar.doma.boot.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.seasar.doma.boot.event.annotation.HandlePostInsert;
+import org.seasar.doma.boot.event.annotation.HandlePreInsert;
+import org.seasar.doma.jdbc.entity.PostInsertContext;
+import org.seasar.doma.jdbc.entity.PreInsertContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+@SuppressWarnings("unchecked")
+public class DomaEventDispatcherTest {
+
+	@Test
+	public void invokeHandlersDirectly() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		DomaEventDispatcher dispatcher = context.getBean(DomaEventDispatcher.class);
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		dispatcher.setApplicationEventPublisher(publisher);
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(dispatcher);
+
+		Entity entity = new Entity();
+		PreInsertContext<Entity> ctx = mock(PreInsertContext.class);
+		entityListener.preInsert(entity, ctx);
+
+		Handler handler = context.getBean(Handler.class);
+		assertThat(handler.entities).containsExactly(entity);
+		verify(publisher, never()).publishEvent(any(ApplicationEvent.class));
+	}
+
+	@Test
+	public void invokeHandlersOfSuperClass() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.register(SubEntityHandler.class);
+		context.refresh();
+
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+
+		SubEntity entity = new SubEntity();
+		entityListener.preInsert(entity, mock(PreInsertContext.class));
+		entityListener.preInsert(new Entity(), mock(PreInsertContext.class));
+
+		assertThat(context.getBean(Handler.class).entities).hasSize(2)
+				.startsWith(entity);
+		assertThat(context.getBean(SubEntityHandler.class).entities)
+				.containsExactly(entity);
+	}
+
+	@Test
+	public void publishToOtherListenersOnce() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.register(SpringListener.class);
+		context.refresh();
+
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+
+		Entity entity = new Entity();
+		PreInsertContext<Entity> ctx = mock(PreInsertContext.class);
+		entityListener.preInsert(entity, ctx);
+
+		assertThat(context.getBean(Handler.class).entities).containsExactly(entity);
+		List<DomaEvent<?, ?>> events = context.getBean(SpringListener.class).events;
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getSource()).isSameAs(entity);
+		assertThat(events.get(0).getContext()).isSameAs(ctx);
+	}
+
+	@Test
+	public void publishToListenersAddedAfterRefresh() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+		entityListener.preInsert(new Entity(), mock(PreInsertContext.class));
+
+		List<DomaEvent<?, ?>> events = new ArrayList<>();
+		context.addApplicationListener(
+				(ApplicationListener<PreInsertEvent<?>>) events::add);
+		Entity entity = new Entity();
+		entityListener.preInsert(entity, mock(PreInsertContext.class));
+
+		assertThat(context.getBean(Handler.class).entities).hasSize(2);
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getSource()).isSameAs(entity);
+	}
+
+	@Test
+	public void doNotPublishToListenersOfChildContext() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.refresh();
+		AnnotationConfigApplicationContext child = new AnnotationConfigApplicationContext();
+		child.setParent(context);
+		child.register(SpringListener.class);
+		child.refresh();
+
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+		Entity entity = new Entity();
+		entityListener.preInsert(entity, mock(PreInsertContext.class));
+
+		// Events published to a context never propagate to its children
+		assertThat(context.getBean(Handler.class).entities).containsExactly(entity);
+		assertThat(child.getBean(SpringListener.class).events).isEmpty();
+	}
+
+	@Test
+	public void directModeCreatesNoEvent() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.registerBean(DomaEventDispatcher.class,
+				() -> new DomaEventDispatcher(DomaEventDispatcher.DeliveryMode.DIRECT));
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.register(SpringListener.class);
+		context.refresh();
+
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(context.getBean(DomaEventDispatcher.class));
+
+		Entity entity = new Entity();
+		entityListener.preInsert(entity, mock(PreInsertContext.class));
+
+		assertThat(context.getBean(Handler.class).entities).containsExactly(entity);
+		assertThat(context.getBean(SpringListener.class).events).isEmpty();
+	}
+
+	@Test
+	public void runParallelHandlersConcurrently() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(ParallelHandler.class);
+		context.refresh();
+
+		DomaEventDispatcher dispatcher = context.getBean(DomaEventDispatcher.class);
+		dispatcher.setParallelExecutor(Executors.newCachedThreadPool());
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(dispatcher);
+
+		entityListener.postInsert(new Entity(), mock(PostInsertContext.class));
+
+		// first and second wait for each other, so they must run concurrently
+		assertThat(context.getBean(ParallelHandler.class).handled)
+				.containsExactly("ordered", "first", "second", "last");
+	}
+
+	@Test
+	public void deferAsyncParallelHandlersUntilCommit() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(DomaEventAsyncExecutor.class);
+		context.register(ParallelAsyncHandler.class);
+		context.refresh();
+
+		DomaEventDispatcher dispatcher = context.getBean(DomaEventDispatcher.class);
+		dispatcher.setParallelism(2);
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		entityListener.setDomaEventDispatcher(dispatcher);
+
+		ParallelAsyncHandler handler = context.getBean(ParallelAsyncHandler.class);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			entityListener.postInsert(new Entity(), mock(PostInsertContext.class));
+			assertThat(handler.handled).containsExactly("sync");
+
+			TransactionSynchronizationUtils.invokeAfterCompletion(
+					TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_ROLLED_BACK);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+			context.close();
+		}
+		assertThat(handler.handled).containsExactly("sync");
+	}
+
+	@Test
+	public void handleEventsPublishedByOthers() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventDispatcher.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(Handler.class);
+		context.refresh();
+
+		Entity entity = new Entity();
+		PreInsertContext<Entity> ctx = mock(PreInsertContext.class);
+		context.publishEvent(new PreInsertEvent<>(entity, ctx));
+
+		assertThat(context.getBean(Handler.class).entities).containsExactly(entity);
+	}
+
+	@org.seasar.doma.Entity
+	public static class Entity {
+	}
+
+	@org.seasar.doma.Entity
+	public static class SubEntity extends Entity {
+	}
+
+	static class Handler {
+		final List<Entity> entities = new ArrayList<>();
+
+		@HandlePreInsert
+		public void handlePreInsert(Entity entity) {
+			entities.add(entity);
+		}
+	}
+
+	static class SubEntityHandler {
+		final List<SubEntity> entities = new ArrayList<>();
+
+		@HandlePreInsert
+		public void handlePreInsert(SubEntity entity) {
+			entities.add(entity);
+		}
+	}
+
+	static class ParallelHandler {
+		final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+
+		@Order(10)
+		@HandlePostInsert(parallel = true)
+		public void first(Entity entity) throws Exception {
+			barrier.await(5, TimeUnit.SECONDS);
+			handled.add("first");
+		}
+
+		@Order(10)
+		@HandlePostInsert(parallel = true)
+		public void second(Entity entity) throws Exception {
+			barrier.await(5, TimeUnit.SECONDS);
+			Thread.sleep(50);
+			handled.add("second");
+		}
+
+		@Order(20)
+		@HandlePostInsert
+		public void last(Entity entity) {
+			handled.add("last");
+		}
+
+		@Order(1)
+		@HandlePostInsert(parallel = true)
+		public void ordered(Entity entity) {
+			handled.add("ordered");
+		}
+	}
+
+	static class ParallelAsyncHandler {
+		final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		@HandlePostInsert(parallel = true)
+		public void sync(Entity entity) {
+			handled.add("sync");
+		}
+
+		@HandlePostInsert(parallel = true, async = true)
+		public void async(Entity entity) {
+			handled.add("async");
+		}
+	}
+
+	static class SpringListener {
+		final List<DomaEvent<?, ?>> events = new ArrayList<>();
+
+		@EventListener
+		public void listen(DomaEvent<?, ?> event) {
+			events.add(event);
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package org.seasar.doma.boot.event;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import org.junit.Test;
 import org.seasar.doma.boot.event.annotation.*;
 import org.seasar.doma.jdbc.entity.*;
 import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.event.EventListener;
 
@@ -308,6 +313,37 @@ public class DomaEventEntityListenerTest {
 		assertThat(handler.entity).isSameAs(entity2);
 	}
 
+	@Test
+	public void skipUnhandledEvent() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(DomaEventEntityListener.class);
+		context.register(DomaEventListenerFactory.class);
+		context.register(PreInsertHandler2.class);
+		context.refresh();
+
+		DomaEventEntityListener<Object> entityListener = context
+				.getBean(DomaEventEntityListener.class);
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		entityListener.setApplicationEventPublisher(publisher);
+
+		entityListener.preInsert(new Entity(), mock(PreInsertContext.class));
+		entityListener.postInsert(new Entity2(), mock(PostInsertContext.class));
+		verify(publisher, never()).publishEvent(any(ApplicationEvent.class));
+
+		entityListener.preInsert(new Entity2(), mock(PreInsertContext.class));
+		verify(publisher).publishEvent(any(PreInsertEvent.class));
+	}
+
+	@Test
+	public void publishBeforeRefresh() throws Exception {
+		DomaEventEntityListener<Entity> entityListener = new DomaEventEntityListener<>();
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		entityListener.setApplicationEventPublisher(publisher);
+
+		entityListener.preInsert(new Entity(), mock(PreInsertContext.class));
+		verify(publisher).publishEvent(any(PreInsertEvent.class));
+	}
+
 	@Test(expected = BeanInitializationException.class)
 	public void noArg() throws Exception {
 		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
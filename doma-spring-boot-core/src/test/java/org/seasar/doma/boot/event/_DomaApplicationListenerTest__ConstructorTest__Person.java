@@ -0,0 +1,25 @@
+package org.seasar.doma.boot.event;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.seasar.doma.jdbc.entity.EntityPropertyType;
+import org.seasar.doma.jdbc.entity.EntityType;
+
+/**
+ * Stands in for the entity type that Doma generates for
+ * {@link DomaApplicationListenerTest.ConstructorTest.Person}.
+ */
+public final class _DomaApplicationListenerTest__ConstructorTest__Person {
+
+	private static final EntityType<?> singleton = mock(EntityType.class);
+
+	static {
+		when(singleton.getEntityPropertyType("name"))
+				.thenAnswer(invocation -> mock(EntityPropertyType.class));
+	}
+
+	public static EntityType<?> getSingletonInternal() {
+		return singleton;
+	}
+}
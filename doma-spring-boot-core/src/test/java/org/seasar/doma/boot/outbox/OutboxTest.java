@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.outbox;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.seasar.doma.jdbc.dialect.Db2Dialect;
+import org.seasar.doma.jdbc.dialect.H2Dialect;
+import org.seasar.doma.jdbc.dialect.Mssql2008Dialect;
+import org.seasar.doma.jdbc.dialect.MssqlDialect;
+import org.seasar.doma.jdbc.dialect.OracleDialect;
+import org.seasar.doma.jdbc.dialect.PostgresDialect;
+import org.seasar.doma.jdbc.dialect.SqliteDialect;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class OutboxTest {
+
+	EmbeddedDatabase database;
+	JdbcTemplate jdbcTemplate;
+	DataSourceTransactionManager transactionManager;
+	TransactionTemplate transactionTemplate;
+	OutboxRecorder recorder;
+	InMemorySink sink = new InMemorySink();
+	OutboxDrainer drainer;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+				.generateUniqueName(true).build();
+		jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.execute("CREATE TABLE DOMA_OUTBOX ("
+				+ "ID BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+				+ "AGGREGATE_TYPE VARCHAR(255) NOT NULL,"
+				+ "EVENT_TYPE VARCHAR(16) NOT NULL," + "PAYLOAD CLOB,"
+				+ "CREATED_AT TIMESTAMP NOT NULL)");
+		transactionManager = new DataSourceTransactionManager(database);
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		TransactionAwareDataSourceProxy dataSource = new TransactionAwareDataSourceProxy(
+				database);
+		recorder = new OutboxRecorder(dataSource,
+				(entity, eventType) -> eventType + ":" + ((Order) entity).name,
+				"DOMA_OUTBOX");
+		drainer = new OutboxDrainer(dataSource, new H2Dialect(), transactionManager,
+				sink, "DOMA_OUTBOX");
+		drainer.setBatchSize(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		drainer.stop();
+		database.shutdown();
+	}
+
+	@Test
+	public void recordInTransaction() throws Exception {
+		transactionTemplate.execute(status -> {
+			recorder.record(OutboxEventType.INSERT, new Order("a"));
+			recorder.record(OutboxEventType.UPDATE, new Order("b"));
+			// Messages are written just before commit
+			assertThat(count()).isEqualTo(0);
+			return null;
+		});
+		assertThat(jdbcTemplate.queryForList(
+				"SELECT PAYLOAD FROM DOMA_OUTBOX ORDER BY ID", String.class))
+						.containsExactly("INSERT:a", "UPDATE:b");
+	}
+
+	@Test
+	public void discardOnRollback() throws Exception {
+		transactionTemplate.execute(status -> {
+			recorder.record(OutboxEventType.INSERT, new Order("a"));
+			status.setRollbackOnly();
+			return null;
+		});
+		assertThat(count()).isEqualTo(0);
+	}
+
+	@Test
+	public void recordWithoutTransaction() throws Exception {
+		recorder.record(OutboxEventType.DELETE, new Order("a"));
+		assertThat(count()).isEqualTo(1);
+	}
+
+	@Test
+	public void recordSelectedEventsOnly() throws Exception {
+		recorder.record(OutboxEventType.DELETE, new InsertOnlyOrder("a"));
+		recorder.record(OutboxEventType.INSERT, new NotRecorded());
+		assertThat(count()).isEqualTo(0);
+		recorder.record(OutboxEventType.INSERT, new InsertOnlyOrder("a"));
+		assertThat(count()).isEqualTo(1);
+	}
+
+	@Test
+	public void drainInBatches() throws Exception {
+		for (String name : new String[] { "a", "b", "c" }) {
+			recorder.record(OutboxEventType.INSERT, new Order(name));
+		}
+		assertThat(drainer.drain()).isEqualTo(2);
+		assertThat(drainer.drain()).isEqualTo(1);
+		assertThat(drainer.drain()).isEqualTo(0);
+		assertThat(sink.messages).extracting(OutboxMessage::getPayload)
+				.containsExactly("INSERT:a", "INSERT:b", "INSERT:c");
+		assertThat(sink.messages.get(0).getAggregateType())
+				.isEqualTo(Order.class.getName());
+		assertThat(count()).isEqualTo(0);
+	}
+
+	@Test
+	public void keepMessagesWhenSinkFails() throws Exception {
+		recorder.record(OutboxEventType.INSERT, new Order("a"));
+		sink.fail = true;
+		assertThatThrownBy(drainer::drain)
+				.isInstanceOf(OutboxDrainer.OutboxSinkException.class);
+		assertThat(count()).isEqualTo(1);
+
+		sink.fail = false;
+		assertThat(drainer.drain()).isEqualTo(1);
+		assertThat(count()).isEqualTo(0);
+	}
+
+	@Test
+	public void drainInBackground() throws Exception {
+		recorder.record(OutboxEventType.INSERT, new Order("a"));
+		drainer.setPollInterval(Duration.ofMillis(10));
+		drainer.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (count() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(count()).isEqualTo(0);
+		assertThat(sink.messages).hasSize(1);
+	}
+
+	@Test
+	public void lockClause() throws Exception {
+		assertThat(OutboxDrainer.lockClause(new PostgresDialect()))
+				.isEqualTo(" FOR UPDATE SKIP LOCKED");
+		assertThat(OutboxDrainer.lockClause(new OracleDialect()))
+				.isEqualTo(" FOR UPDATE SKIP LOCKED");
+		assertThat(OutboxDrainer.lockClause(new H2Dialect())).isEqualTo(" FOR UPDATE");
+		assertThat(OutboxDrainer.lockClause(new SqliteDialect())).isEmpty();
+		assertThat(OutboxDrainer.lockClause(new MssqlDialect())).isEmpty();
+		assertThat(OutboxDrainer.lockClause(new Mssql2008Dialect())).isEmpty();
+	}
+
+	@Test
+	public void tableHint() throws Exception {
+		assertThat(OutboxDrainer.tableHint(new MssqlDialect()))
+				.isEqualTo(" WITH (UPDLOCK, READPAST, ROWLOCK)");
+		assertThat(OutboxDrainer.tableHint(new Mssql2008Dialect()))
+				.isEqualTo(" WITH (UPDLOCK, READPAST, ROWLOCK)");
+		assertThat(OutboxDrainer.tableHint(new PostgresDialect())).isEmpty();
+		assertThat(OutboxDrainer.tableHint(new H2Dialect())).isEmpty();
+	}
+
+	@Test
+	public void limitClause() throws Exception {
+		assertThat(OutboxDrainer.limitClause(new PostgresDialect())).isEqualTo(" LIMIT ?");
+		assertThat(OutboxDrainer.limitClause(new H2Dialect())).isEqualTo(" LIMIT ?");
+		assertThat(OutboxDrainer.limitClause(new Db2Dialect()))
+				.isEqualTo(" FETCH FIRST ? ROWS ONLY");
+		assertThat(OutboxDrainer.limitClause(new MssqlDialect()))
+				.isEqualTo(" OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY");
+		assertThat(OutboxDrainer.limitClause(new Mssql2008Dialect())).isEmpty();
+		assertThat(OutboxDrainer.limitClause(new OracleDialect())).isEmpty();
+	}
+
+	private int count() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM DOMA_OUTBOX",
+				Integer.class);
+	}
+
+	@Outbox
+	static class Order {
+		final String name;
+
+		Order(String name) {
+			this.name = name;
+		}
+	}
+
+	@Outbox(OutboxEventType.INSERT)
+	static class InsertOnlyOrder extends Order {
+		InsertOnlyOrder(String name) {
+			super(name);
+		}
+	}
+
+	static class NotRecorded {
+	}
+
+	static class InMemorySink implements OutboxSink {
+		final List<OutboxMessage> messages = new ArrayList<>();
+		volatile boolean fail;
+
+		@Override
+		public synchronized void send(List<OutboxMessage> messages) throws Exception {
+			if (fail) {
+				throw new Exception("Broker is down");
+			}
+			this.messages.addAll(messages);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.seasar.doma.boot.retry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+import org.seasar.doma.boot.DialectSQLExceptionTranslator;
+import org.seasar.doma.boot.DomaPersistenceExceptionTranslator;
+import org.seasar.doma.boot.retry.DomaRetryMetrics.GiveUpReason;
+import org.seasar.doma.jdbc.JdbcException;
+import org.seasar.doma.jdbc.dialect.H2Dialect;
+import org.seasar.doma.message.Message;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class DomaRetryPostProcessorTest {
+
+	private final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+	private final EntityDaoImpl target = new EntityDaoImpl();
+
+	@After
+	public void tearDown() {
+		context.close();
+	}
+
+	@Test
+	public void retryDeadlock() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = 2;
+		target.failure = () -> new DeadlockLoserDataAccessException("deadlock", null);
+
+		assertThat(dao.update()).isEqualTo(3);
+		assertThat(target.calls.get()).isEqualTo(3);
+		TestMetrics metrics = context.getBean(TestMetrics.class);
+		assertThat(metrics.attempts).containsExactly(1, 2, 3);
+		assertThat(metrics.giveUps).isEmpty();
+	}
+
+	@Test
+	public void retryTranslatedDomaException() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = 1;
+		// Lock timeout of H2
+		target.failure = () -> new JdbcException(Message.DOMA2008,
+				new SQLException("timeout", "HYT00", 50200));
+
+		assertThat(dao.update()).isEqualTo(2);
+	}
+
+	@Test
+	public void giveUpAfterMaxAttempts() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = Integer.MAX_VALUE;
+		target.failure = () -> new DeadlockLoserDataAccessException("deadlock", null);
+
+		assertThatThrownBy(dao::update)
+				.isInstanceOf(DeadlockLoserDataAccessException.class);
+		assertThat(target.calls.get()).isEqualTo(3);
+		assertThat(context.getBean(TestMetrics.class).giveUps)
+				.containsExactly(GiveUpReason.ATTEMPTS_EXHAUSTED);
+	}
+
+	@Test
+	public void doNotRetryPermanentFailure() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = 1;
+		target.failure = () -> new DuplicateKeyException("duplicate");
+
+		assertThatThrownBy(dao::update).isInstanceOf(DuplicateKeyException.class);
+		assertThat(target.calls.get()).isEqualTo(1);
+		assertThat(context.getBean(TestMetrics.class).giveUps).isEmpty();
+	}
+
+	@Test
+	public void giveUpWhenBudgetIsExhausted() throws Exception {
+		refresh(new DomaRetryBudget(0, 1));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = Integer.MAX_VALUE;
+		target.failure = () -> new DeadlockLoserDataAccessException("deadlock", null);
+
+		assertThatThrownBy(dao::update)
+				.isInstanceOf(DeadlockLoserDataAccessException.class);
+		assertThat(target.calls.get()).isEqualTo(2);
+		assertThat(context.getBean(TestMetrics.class).giveUps)
+				.containsExactly(GiveUpReason.BUDGET_EXHAUSTED);
+		assertThat(context.getBean(DomaRetryBudget.class).getAvailableRetries())
+				.isZero();
+	}
+
+	@Test
+	public void doNotRetryWithinTransaction() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = 1;
+		target.failure = () -> new DeadlockLoserDataAccessException("deadlock", null);
+
+		TransactionSynchronizationManager.setActualTransactionActive(true);
+		try {
+			assertThatThrownBy(dao::update)
+					.isInstanceOf(DeadlockLoserDataAccessException.class);
+		} finally {
+			TransactionSynchronizationManager.setActualTransactionActive(false);
+		}
+		assertThat(target.calls.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void notAnnotatedMethod() throws Exception {
+		refresh(new DomaRetryBudget(0.1, 100));
+		EntityDao dao = context.getBean(EntityDao.class);
+		target.failures = 1;
+		target.failure = () -> new DeadlockLoserDataAccessException("deadlock", null);
+
+		assertThatThrownBy(dao::delete)
+				.isInstanceOf(DeadlockLoserDataAccessException.class);
+		assertThat(target.calls.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void budget() throws Exception {
+		DomaRetryBudget budget = new DomaRetryBudget(0.5, 2);
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isFalse();
+		budget.deposit();
+		assertThat(budget.tryWithdraw()).isFalse();
+		budget.deposit();
+		assertThat(budget.tryWithdraw()).isTrue();
+		for (int i = 0; i < 10; i++) {
+			budget.deposit();
+		}
+		assertThat(budget.getAvailableRetries()).isEqualTo(2);
+	}
+
+	private void refresh(DomaRetryBudget budget) {
+		context.registerBean(DomaRetryBudget.class, () -> budget);
+		context.register(DomaRetryPostProcessor.class);
+		context.register(TestConfig.class);
+		context.registerBean(EntityDao.class, () -> target);
+		context.refresh();
+	}
+
+	@Configuration
+	static class TestConfig {
+
+		@Bean
+		TestMetrics testMetrics() {
+			return new TestMetrics();
+		}
+
+		@Bean
+		PersistenceExceptionTranslator persistenceExceptionTranslator() {
+			return new DomaPersistenceExceptionTranslator(
+					new DialectSQLExceptionTranslator(new H2Dialect(), () -> null));
+		}
+	}
+
+	static class TestMetrics implements DomaRetryMetrics {
+
+		final List<Integer> attempts = new ArrayList<>();
+		final List<GiveUpReason> giveUps = new ArrayList<>();
+
+		@Override
+		public Recorder recorder(Class<?> targetClass, Method method) {
+			return new Recorder() {
+
+				@Override
+				public void attempt(int attempt) {
+					attempts.add(attempt);
+				}
+
+				@Override
+				public void giveUp(GiveUpReason reason, Throwable failure) {
+					giveUps.add(reason);
+				}
+			};
+		}
+	}
+
+	@DomaRetryable(backoff = 0)
+	public interface EntityDao {
+
+		int update();
+
+		@DomaRetryable(maxAttempts = 1)
+		int delete();
+	}
+
+	public static class EntityDaoImpl implements EntityDao {
+
+		final AtomicInteger calls = new AtomicInteger();
+		int failures;
+		Supplier<RuntimeException> failure;
+
+		@Override
+		public int update() {
+			int call = calls.incrementAndGet();
+			if (call <= failures) {
+				throw failure.get();
+			}
+			return call;
+		}
+
+		@Override
+		public int delete() {
+			return update();
+		}
+	}
+}
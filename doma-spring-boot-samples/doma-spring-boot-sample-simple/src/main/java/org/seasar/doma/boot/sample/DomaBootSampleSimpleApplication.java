@@ -17,12 +17,18 @@ package org.seasar.doma.boot.sample;
 
 import java.util.List;
 
+import org.seasar.doma.boot.KeysetCursor;
+import org.seasar.doma.boot.KeysetCursorCodec;
+import org.seasar.doma.boot.Keysets;
 import org.seasar.doma.boot.Pageables;
+import org.seasar.doma.boot.SortMapping;
+import org.seasar.doma.jdbc.Config;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -34,9 +40,31 @@ public class DomaBootSampleSimpleApplication {
 	@Autowired
 	MessageDao messageDao;
 
+	@Autowired
+	KeysetCursorCodec cursorCodec;
+
+	@Autowired
+	Config config;
+
 	@RequestMapping("/")
 	List<Message> list(@PageableDefault Pageable pageable) {
-		return messageDao.selectAll(Pageables.toSelectOptions(pageable));
+		SortMapping sortMapping = SortMapping.of(_Message.getSingletonInternal(),
+				config.getNaming(), "id", "text");
+		return messageDao.selectSorted(sortMapping.toOrderBy(pageable.getSort()),
+				Pageables.toSelectOptions(pageable));
+	}
+
+	@RequestMapping("/keyset")
+	ResponseEntity<List<Message>> listAfter(
+			@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "20") int size) {
+		List<Message> messages = messageDao.selectAfter(cursorCodec.decode(cursor),
+				Keysets.toSelectOptions(size));
+		KeysetCursor next = Keysets.nextCursor(messages, message -> message.id);
+		return ResponseEntity.ok()
+				.header("X-Next-Cursor",
+						next != null ? cursorCodec.encode(next) : "")
+				.body(messages);
 	}
 
 	@RequestMapping(value = "/", params = "text")
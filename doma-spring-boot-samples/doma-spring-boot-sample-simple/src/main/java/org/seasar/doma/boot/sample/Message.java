@@ -17,7 +17,7 @@ package org.seasar.doma.boot.sample;
 
 import org.seasar.doma.*;
 
-@Entity
+@Entity(metamodel = @Metamodel)
 @Table(name = "messages")
 public class Message {
 	@Id
@@ -21,6 +21,7 @@ import org.seasar.doma.Dao;
 import org.seasar.doma.Insert;
 import org.seasar.doma.Select;
 import org.seasar.doma.boot.ConfigAutowireable;
+import org.seasar.doma.boot.KeysetCursor;
 import org.seasar.doma.jdbc.SelectOptions;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -31,6 +32,12 @@ public interface MessageDao {
 	@Select
 	List<Message> selectAll(SelectOptions options);
 
+	@Select
+	List<Message> selectSorted(String orderBy, SelectOptions options);
+
+	@Select
+	List<Message> selectAfter(KeysetCursor cursor, SelectOptions options);
+
 	@Insert
 	int insert(Message message);
 }
@@ -0,0 +1,6 @@
+SELECT id,text FROM messages
+WHERE
+/*%if !cursor.isFirst() */
+  id > /* cursor.get(0) */0
+/*%end*/
+ORDER BY id
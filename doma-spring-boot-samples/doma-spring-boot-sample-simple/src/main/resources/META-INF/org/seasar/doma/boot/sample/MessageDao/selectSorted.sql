@@ -0,0 +1 @@
+SELECT id,text FROM messages ORDER BY /*# orderBy */id
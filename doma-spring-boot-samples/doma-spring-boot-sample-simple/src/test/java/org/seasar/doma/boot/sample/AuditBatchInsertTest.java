@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2004-2016 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.doma.boot.sample;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.seasar.doma.boot.audit.AuditEventType;
+import org.seasar.doma.boot.audit.AuditJournalReader;
+import org.seasar.doma.boot.audit.AuditRecord;
+import org.seasar.doma.boot.audit.AuditSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Runs a batch insert of audited entities with batch events enabled, which must append
+ * each entity to the journal once.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.generate-unique-name=true", "doma.audit.enabled=true",
+		"doma.event.batch-enabled=true" })
+public class AuditBatchInsertTest {
+	@ClassRule
+	public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Autowired
+	AuditedMessageDao auditedMessageDao;
+
+	@DynamicPropertySource
+	static void auditDirectory(DynamicPropertyRegistry registry) {
+		registry.add("doma.audit.directory",
+				() -> temporaryFolder.getRoot().toPath().resolve("audit").toString());
+	}
+
+	@Test
+	public void recordEachEntityOfBatchOnce() throws Exception {
+		List<AuditedMessage> messages = new ArrayList<>();
+		for (String text : new String[] { "a", "b", "c" }) {
+			AuditedMessage message = new AuditedMessage();
+			message.text = text;
+			messages.add(message);
+		}
+		auditedMessageDao.insert(messages);
+
+		List<AuditRecord> records = new AuditJournalReader(
+				temporaryFolder.getRoot().toPath().resolve("audit")).readAll();
+		assertThat(records.size(), is(3));
+		List<String> payloads = new ArrayList<>();
+		for (AuditRecord record : records) {
+			assertThat(record.getEventType(), is(AuditEventType.INSERT));
+			payloads.add(new String(record.getPayload(), StandardCharsets.UTF_8));
+		}
+		assertThat(payloads, is(Arrays.asList("a", "b", "c")));
+	}
+
+	@TestConfiguration
+	static class AuditConfiguration {
+		@Bean
+		AuditSerializer auditSerializer() {
+			return (entity, eventType) -> ((AuditedMessage) entity).text
+					.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -17,16 +17,31 @@ package org.seasar.doma.boot.sample;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.seasar.doma.boot.DomaCountCache;
+import org.seasar.doma.boot.KeysetCursor;
+import org.seasar.doma.boot.Keysets;
+import org.seasar.doma.boot.Pageables;
+import org.seasar.doma.boot.Pageables.CountStrategy;
+import org.seasar.doma.boot.SortMapping;
+import org.seasar.doma.jdbc.Naming;
+import org.seasar.doma.jdbc.criteria.Entityql;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -38,6 +53,12 @@ public class DomaBootSampleSimpleApplicationTest {
 	};
 	@Value("${local.server.port}")
 	int port;
+	@Autowired
+	Entityql entityql;
+	@Autowired
+	MessageDao messageDao;
+	@Autowired
+	DomaCountCache countCache;
 
 	@Test
 	public void test() {
@@ -78,6 +99,84 @@ public class DomaBootSampleSimpleApplicationTest {
 			assertThat(messages.get(0).id, is(message2.id));
 			assertThat(messages.get(0).text, is(message2.text));
 		}
+
+		{
+			ResponseEntity<List<Message>> page1 = restTemplate.exchange(
+					UriComponentsBuilder.fromUriString("http://localhost").port(port)
+							.path("/keyset").queryParam("size", "1").build().toUri(),
+					HttpMethod.GET, HttpEntity.EMPTY, typedReference);
+			assertThat(page1.getBody().size(), is(1));
+			assertThat(page1.getBody().get(0).id, is(message1.id));
+			String cursor = page1.getHeaders().getFirst("X-Next-Cursor");
+			ResponseEntity<List<Message>> page2 = restTemplate.exchange(
+					UriComponentsBuilder.fromUriString("http://localhost").port(port)
+							.path("/keyset").queryParam("cursor", cursor)
+							.queryParam("size", "1").build().toUri(),
+					HttpMethod.GET, HttpEntity.EMPTY, typedReference);
+			assertThat(page2.getBody().size(), is(1));
+			assertThat(page2.getBody().get(0).id, is(message2.id));
+		}
+
+		{
+			Message_ m = new Message_();
+			List<Message> messages = entityql.from(m)
+					.where(c -> Keysets.after(c, KeysetCursor.of(message1.id), m.id))
+					.orderBy(c -> c.asc(m.id)).fetch();
+			assertThat(messages.size(), is(1));
+			assertThat(messages.get(0).id, is(message2.id));
+			messages = entityql.from(m)
+					.where(c -> Keysets.after(c, KeysetCursor.of("world", message2.id),
+							Sort.Direction.DESC, Arrays.asList(m.text, m.id)))
+					.orderBy(c -> {
+						c.desc(m.text);
+						c.desc(m.id);
+					}).fetch();
+			assertThat(messages.size(), is(1));
+			assertThat(messages.get(0).id, is(message1.id));
+		}
+
+		{
+			List<Message> messages = restTemplate.exchange(
+					UriComponentsBuilder.fromUriString("http://localhost").port(port)
+							.queryParam("sort", "text,desc").build().toUri(),
+					HttpMethod.GET, HttpEntity.EMPTY, typedReference).getBody();
+			assertThat(messages.size(), is(2));
+			assertThat(messages.get(0).id, is(message2.id));
+			assertThat(messages.get(1).id, is(message1.id));
+		}
+
+		{
+			Message_ m = new Message_();
+			SortMapping sortMapping = SortMapping.of(m.asType(), Naming.DEFAULT, "text");
+			List<Message> messages = entityql.from(m).orderBy(c -> sortMapping
+					.orderBy(c, m, Sort.by(Sort.Direction.DESC, "text"))).fetch();
+			assertThat(messages.get(0).id, is(message2.id));
+			assertThat(messages.get(1).id, is(message1.id));
+		}
+
+		for (CountStrategy strategy : CountStrategy.values()) {
+			Page<Message> page = Pageables.toPage(PageRequest.of(0, 1), strategy,
+					messageDao::selectAll);
+			assertThat(page.getContent().get(0).id, is(message1.id));
+			assertThat(page.getTotalElements(), is(2L));
+		}
+
+		for (int i = 0; i < 2; i++) {
+			Page<Message> page = Pageables.toPage(PageRequest.of(i, 1), countCache,
+					Message.class, messageDao::selectAll);
+			assertThat(page.getContent().get(0).id,
+					is(i == 0 ? message1.id : message2.id));
+			assertThat(page.getTotalElements(), is(2L));
+		}
+		// Both pages share the count
+		assertThat(countCache.size(), is(1));
+
+		{
+			Slice<Message> slice = Pageables.toSlice(PageRequest.of(1, 1),
+					messageDao::selectAll);
+			assertThat(slice.getContent().get(0).id, is(message2.id));
+			assertThat(slice.hasNext(), is(false));
+		}
 	}
 
 }